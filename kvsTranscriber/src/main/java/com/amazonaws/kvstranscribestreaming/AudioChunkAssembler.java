@@ -0,0 +1,256 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.utilities.MkvTrackMetadata;
+import org.apache.commons.lang3.Validate;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Assembles the audio frames of a track into chunks of a fixed duration, so that Transcribe receives audio at a
+ * steady pace whatever the size of the frames written by Connect. The chunk size in bytes is derived from the sample
+ * rate, channel count and bit depth of the track. Frames are split across chunks when needed.
+ *
+ * Each chunk is a new buffer, backed by an array of its own, which is handed over with {@link #take()} and never
+ * written to again: the reader can keep it, and send it to Transcribe without copying it. The assembler is not
+ * thread-safe.
+ *
+ * Silence appended in place of missing audio is queued as a run of silent chunks, which are only allocated once taken.
+ * It holds no buffer while it waits, so it is not bounded by the queue limit, and silence of any length is kept.
+ */
+public class AudioChunkAssembler {
+    // Connect streams 8 kHz, 16-bit mono PCM
+    private static final double DEFAULT_SAMPLE_RATE = 8000;
+    private static final long DEFAULT_CHANNELS = 1;
+    private static final long DEFAULT_BIT_DEPTH = 16;
+
+    private final int chunkDurationMs;
+    private final int maxQueuedChunks;
+    private final Deque<ReadyChunk> readyChunks = new ArrayDeque<>();
+    private int queuedAudioChunks = 0;
+    private int chunkSizeBytes = 0;
+    private ByteBuffer filling;
+    private long fillingStartNanos;
+
+    private long takenChunks = 0;
+    private long droppedChunks = 0;
+    private long appendedBytes = 0;
+    private int bytesPerSecond = 0;
+    private long paddedMs = 0;
+    private long totalAssemblyLatencyNanos = 0;
+
+    /**
+     * @param chunkDurationMs  duration of audio in each chunk
+     * @param maxQueuedAudioMs maximum duration of audio waiting to be taken, beyond which the oldest chunks are dropped
+     */
+    public AudioChunkAssembler(int chunkDurationMs, int maxQueuedAudioMs) {
+        Validate.isTrue(chunkDurationMs > 0, "Chunk duration must be positive");
+        this.chunkDurationMs = chunkDurationMs;
+        this.maxQueuedChunks = Math.max(1, maxQueuedAudioMs / chunkDurationMs);
+    }
+
+    /**
+     * Size in bytes of a chunk of the given duration, rounded down to whole samples
+     *
+     * @param trackMetadata   metadata of the track, as collected from the MKV stream
+     * @param chunkDurationMs duration of audio in each chunk
+     * @return chunk size in bytes
+     */
+    public static int getChunkSizeInBytes(MkvTrackMetadata trackMetadata, int chunkDurationMs) {
+        return (int) getSizeInBytes(trackMetadata, chunkDurationMs);
+    }
+
+    private static long getSizeInBytes(MkvTrackMetadata trackMetadata, long durationMs) {
+        double sampleRate = trackMetadata.getSamplingFrequency().orElse(DEFAULT_SAMPLE_RATE);
+        long channels = trackMetadata.getChannels().map(BigInteger::longValue).orElse(DEFAULT_CHANNELS);
+        long bitDepth = trackMetadata.getBitDepth().map(BigInteger::longValue).orElse(DEFAULT_BIT_DEPTH);
+
+        long samples = Math.max(1, Math.round(sampleRate * durationMs / 1000));
+        return samples * channels * ((bitDepth + 7) / 8);
+    }
+
+    /**
+     * Copies a frame into the chunk being assembled, completing as many chunks as the frame fills
+     *
+     * @param frameData     audio of the frame, consumed by this call
+     * @param trackMetadata metadata of the track the frame belongs to
+     */
+    public void append(ByteBuffer frameData, MkvTrackMetadata trackMetadata) {
+        appendedBytes += frameData.remaining();
+        initialize(trackMetadata);
+
+        while (frameData.hasRemaining()) {
+            if (filling == null) {
+                filling = ByteBuffer.allocate(chunkSizeBytes);
+                fillingStartNanos = System.nanoTime();
+            }
+
+            int length = Math.min(filling.remaining(), frameData.remaining());
+            ByteBuffer part = frameData.duplicate();
+            part.limit(part.position() + length);
+            filling.put(part);
+            frameData.position(frameData.position() + length);
+
+            if (!filling.hasRemaining()) {
+                completeFilling();
+            }
+        }
+    }
+
+    /**
+     * Appends silence in place of audio missing from the track. Only the chunks the silence shares with audio are
+     * assembled right away, the whole chunks of silence in between are queued as a run
+     *
+     * @param durationMs    duration of the silence
+     * @param trackMetadata metadata of the track, or of another track of the call if the track has no audio yet
+     */
+    public void appendSilence(long durationMs, MkvTrackMetadata trackMetadata) {
+        initialize(trackMetadata);
+        long bytes = getSizeInBytes(trackMetadata, durationMs);
+        paddedMs += durationMs;
+        appendedBytes += bytes;
+
+        if (filling != null) {
+            int length = (int) Math.min(filling.remaining(), bytes);
+            // new chunks are zeroed, and so silent
+            filling.position(filling.position() + length);
+            bytes -= length;
+            if (!filling.hasRemaining()) {
+                completeFilling();
+            }
+        }
+
+        long silentChunks = bytes / chunkSizeBytes;
+        if (silentChunks > 0) {
+            ReadyChunk last = readyChunks.peekLast();
+            if (last != null && last.audio == null) {
+                last.silentChunks += silentChunks;
+            } else {
+                readyChunks.addLast(new ReadyChunk(null, System.nanoTime(), silentChunks));
+            }
+        }
+
+        int rest = (int) (bytes % chunkSizeBytes);
+        if (rest > 0) {
+            filling = ByteBuffer.allocate(chunkSizeBytes);
+            fillingStartNanos = System.nanoTime();
+            filling.position(rest);
+        }
+    }
+
+    /**
+     * @return duration of the audio and silence appended so far
+     */
+    public long getAppendedMs() {
+        return bytesPerSecond == 0 ? 0 : appendedBytes * 1000 / bytesPerSecond;
+    }
+
+    /**
+     * Queues the partially filled chunk, if any, so that the end of the audio can be taken
+     */
+    public void flush() {
+        if (filling != null && filling.position() > 0) {
+            completeFilling();
+        }
+    }
+
+    /**
+     * Hands the next complete chunk over to the caller, who owns it from then on
+     *
+     * @return next complete chunk, or null if there is none yet
+     */
+    public ByteBuffer take() {
+        ReadyChunk next = readyChunks.peekFirst();
+        if (next == null) {
+            return null;
+        }
+
+        ByteBuffer chunk;
+        if (next.audio != null) {
+            readyChunks.pollFirst();
+            queuedAudioChunks--;
+            chunk = next.audio;
+        } else {
+            chunk = ByteBuffer.allocate(chunkSizeBytes);
+            if (--next.silentChunks == 0) {
+                readyChunks.pollFirst();
+            }
+        }
+        takenChunks++;
+        totalAssemblyLatencyNanos += System.nanoTime() - next.startNanos;
+        return chunk;
+    }
+
+    public boolean hasReadyChunk() {
+        return !readyChunks.isEmpty();
+    }
+
+    public int getChunkDurationMs() {
+        return chunkDurationMs;
+    }
+
+    public long getTakenChunks() {
+        return takenChunks;
+    }
+
+    public long getDroppedChunks() {
+        return droppedChunks;
+    }
+
+    public long getPaddedMs() {
+        return paddedMs;
+    }
+
+    /**
+     * @return average time between the first byte of a chunk being read from the stream and the chunk being taken
+     */
+    public long getAverageAssemblyLatencyMs() {
+        return takenChunks == 0 ? 0 : totalAssemblyLatencyNanos / takenChunks / 1_000_000;
+    }
+
+    private void initialize(MkvTrackMetadata trackMetadata) {
+        if (chunkSizeBytes == 0) {
+            bytesPerSecond = getChunkSizeInBytes(trackMetadata, 1000);
+            chunkSizeBytes = getChunkSizeInBytes(trackMetadata, chunkDurationMs);
+        }
+    }
+
+    private void completeFilling() {
+        filling.flip();
+        readyChunks.addLast(new ReadyChunk(filling, fillingStartNanos, 0));
+        queuedAudioChunks++;
+        filling = null;
+
+        if (queuedAudioChunks > maxQueuedChunks) {
+            // the oldest audio goes, the runs of silence before it hold no memory
+            Iterator<ReadyChunk> chunks = readyChunks.iterator();
+            while (chunks.hasNext()) {
+                ReadyChunk oldest = chunks.next();
+                if (oldest.audio != null) {
+                    chunks.remove();
+                    queuedAudioChunks--;
+                    droppedChunks++;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * A complete chunk of audio, or a run of silent chunks
+     */
+    private static final class ReadyChunk {
+        private final ByteBuffer audio;
+        private final long startNanos;
+        private long silentChunks;
+
+        private ReadyChunk(ByteBuffer audio, long startNanos, long silentChunks) {
+            this.audio = audio;
+            this.startNanos = startNanos;
+            this.silentChunks = silentChunks;
+        }
+    }
+}
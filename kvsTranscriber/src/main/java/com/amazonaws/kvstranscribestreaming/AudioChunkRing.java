@@ -0,0 +1,66 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.apache.commons.lang3.Validate;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded ring of audio chunks between exactly one producer and one consumer at a time. It takes no lock: each
+ * side only writes its own index, and publishes it after the slot it filled or emptied. A side may move to another
+ * thread between two calls, as each call starts by reading the index its side published last.
+ */
+public class AudioChunkRing {
+    private final ByteBuffer[] slots;
+    private final AtomicLong head = new AtomicLong(); // next slot to poll, written by the consumer
+    private final AtomicLong tail = new AtomicLong(); // next slot to fill, written by the producer
+
+    public AudioChunkRing(int capacity) {
+        Validate.isTrue(capacity > 0, "Capacity must be positive");
+        this.slots = new ByteBuffer[capacity];
+    }
+
+    /**
+     * Called by the producer only
+     *
+     * @return false if the ring is full
+     */
+    public boolean offer(ByteBuffer chunk) {
+        long currentTail = tail.get();
+        if (currentTail - head.get() == slots.length) {
+            return false;
+        }
+        slots[(int) (currentTail % slots.length)] = chunk;
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Called by the consumer only
+     *
+     * @return oldest chunk of the ring, or null if it is empty
+     */
+    public ByteBuffer poll() {
+        long currentHead = head.get();
+        if (currentHead == tail.get()) {
+            return null;
+        }
+        int slot = (int) (currentHead % slots.length);
+        ByteBuffer chunk = slots[slot];
+        slots[slot] = null;
+        head.lazySet(currentHead + 1);
+        return chunk;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public boolean isFull() {
+        return size() == slots.length;
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+}
@@ -0,0 +1,131 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the last few seconds of the audio of a track sent to Transcribe, and sends them again at the start of the
+ * Transcribe session that replaces a failed one, so that the audio in flight when the stream failed is transcribed.
+ *
+ * The chunks are kept as they are read, since the sources hand them over. Each session reads the track through its
+ * own {@link KVSAudioChunkSource}, starting with the oldest chunk kept, and {@link #getSessionOffsetMs()} gives how
+ * far into the audio of the track that chunk is, which is where the times of the results of the session start from.
+ * The sources of the previous sessions fail, so that a subscription being cancelled cannot take audio from the new
+ * session.
+ */
+public class AudioReplayBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AudioReplayBuffer.class);
+
+    private final KVSAudioChunkSource audioChunkSource;
+    private final String track;
+    private final long capacityBytes;
+    private final int bytesPerMs;
+    private final MetricsUtil metricsUtil;
+
+    // chunks kept for replay, the oldest first, and the next one to send in the current session
+    private final List<ByteBuffer> history = new ArrayList<>();
+    private int nextChunk = 0;
+    private long historyBytes = 0;
+    // bytes of audio read from the source before the oldest chunk kept
+    private long evictedBytes = 0;
+    private volatile long sessionOffsetMs = 0;
+    private long replayedBytes = 0;
+    private int sessions = 0;
+
+    /**
+     * @param audioChunkSource source of the chunks of the track
+     * @param track            name of the track
+     * @param capacityMs       duration of the audio kept for replay
+     * @param metricsUtil
+     */
+    public AudioReplayBuffer(KVSAudioChunkSource audioChunkSource, String track, long capacityMs, MetricsUtil metricsUtil) {
+        this(audioChunkSource, track, 1, capacityMs, metricsUtil);
+    }
+
+    /**
+     * @param channels number of interleaved channels of the track
+     */
+    public AudioReplayBuffer(KVSAudioChunkSource audioChunkSource, String track, int channels, long capacityMs, MetricsUtil metricsUtil) {
+        this.audioChunkSource = Validate.notNull(audioChunkSource);
+        this.track = Validate.notNull(track);
+        Validate.isTrue(channels > 0, "Number of channels must be positive");
+        this.bytesPerMs = SilenceGate.BYTES_PER_MS * channels;
+        Validate.isTrue(capacityMs >= 0, "Replay buffer capacity must not be negative");
+        this.capacityBytes = capacityMs * bytesPerMs;
+        this.metricsUtil = Validate.notNull(metricsUtil);
+    }
+
+    /**
+     * Starts a new Transcribe session, which first receives the audio kept for replay
+     *
+     * @return source of the audio of the track for the session
+     */
+    public synchronized KVSAudioChunkSource startSession() {
+        int session = ++sessions;
+        nextChunk = 0;
+        sessionOffsetMs = evictedBytes / bytesPerMs;
+        if (session > 1) {
+            logger.info("Track {}: replaying {} ms of audio in Transcribe session {}", track,
+                    historyBytes / bytesPerMs, session);
+        }
+        return track -> getByteBufferFromStream(session, track);
+    }
+
+    private synchronized ByteBuffer getByteBufferFromStream(int session, String track) throws MkvElementVisitException {
+        Validate.isTrue(this.track.equals(track), "Unknown track " + track);
+        if (session != sessions) {
+            throw new MkvElementVisitException("Transcribe session " + session + " of track " + track + " was replaced",
+                    new IllegalStateException());
+        }
+        if (nextChunk < history.size()) {
+            ByteBuffer replayed = history.get(nextChunk++);
+            replayedBytes += replayed.remaining();
+            return replayed.duplicate();
+        }
+
+        ByteBuffer chunk = audioChunkSource.getByteBufferFromStream(track);
+        if (!chunk.hasRemaining()) {
+            return chunk;
+        }
+        history.add(chunk);
+        historyBytes += chunk.remaining();
+        nextChunk = history.size();
+        evictOldChunks();
+        return chunk.duplicate();
+    }
+
+    /**
+     * @return time in ms of the audio sent before the first chunk of the current session, to be added to the times
+     * of its results
+     */
+    public long getSessionOffsetMs() {
+        return sessionOffsetMs;
+    }
+
+    /**
+     * Records the audio sent again to Transcribe, once the transcription of the track has ended
+     */
+    public synchronized void recordMetrics() {
+        metricsUtil.recordMetric("TranscribeSessions", sessions);
+        metricsUtil.recordMetric("TranscribeReplayedMs", replayedBytes / bytesPerMs);
+    }
+
+    /**
+     * Drops the oldest chunks beyond the capacity, keeping those the current session has yet to send
+     */
+    private void evictOldChunks() {
+        while (historyBytes > capacityBytes && nextChunk > 0) {
+            ByteBuffer evicted = history.remove(0);
+            nextChunk--;
+            historyBytes -= evicted.remaining();
+            evictedBytes += evicted.remaining();
+        }
+    }
+}
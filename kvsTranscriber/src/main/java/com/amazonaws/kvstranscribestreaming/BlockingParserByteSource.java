@@ -0,0 +1,168 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.ebml.ParserByteSource;
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Byte source for the MKV parser that lets its reader wait for data instead of polling.
+ *
+ * The parser only consumes the bytes that are already buffered, so when the bytes received so far do not hold a
+ * whole element it returns nothing, and polling it again right away spins a core until the network catches up.
+ * {@link #awaitMoreData()} blocks on the KVS stream until more bytes arrive instead. Streams that return no data
+ * without blocking are retried with a bounded exponential backoff.
+ *
+ * The buffer can also be read in place, see {@link KVSConnectMkvParser}.
+ */
+public class BlockingParserByteSource implements ParserByteSource {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final InputStream inputStream;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int start = 0;
+    private int end = 0;
+    private boolean endOfStream = false;
+    private long idleWakeups = 0;
+
+    public BlockingParserByteSource(InputStream inputStream) {
+        this.inputStream = Validate.notNull(inputStream);
+    }
+
+    @Override
+    public int readByte() {
+        if (start == end && !fill()) {
+            return -1;
+        }
+        return buffer[start++] & 0xFF;
+    }
+
+    @Override
+    public int available() {
+        return end - start;
+    }
+
+    @Override
+    public int readBytes(ByteBuffer dest, int length) {
+        Validate.isTrue(dest.remaining() >= length);
+        if (start == end && !fill()) {
+            return -1;
+        }
+        int count = Math.min(length, end - start);
+        dest.put(buffer, start, count);
+        start += count;
+        return count;
+    }
+
+    /**
+     * Blocks until data is buffered or the stream has ended
+     */
+    @Override
+    public boolean eof() {
+        return start == end && !fill();
+    }
+
+    /**
+     * Blocks until bytes beyond the ones already buffered are received
+     *
+     * @return false if the stream has ended instead
+     */
+    public boolean awaitMoreData() {
+        idleWakeups++;
+        return fill();
+    }
+
+    /**
+     * Blocks until at least the given number of bytes are buffered, for parsers reading the buffer in place
+     *
+     * @param count number of bytes needed
+     * @return false if the stream ended before
+     */
+    boolean ensureAvailable(int count) {
+        while (end - start < count) {
+            if (!awaitMoreData()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Consumes the given number of bytes, reading them from the stream when they are not buffered yet
+     *
+     * @param count number of bytes to skip
+     * @return false if the stream ended before
+     */
+    boolean skip(long count) {
+        while (count > 0) {
+            if (start == end && !awaitMoreData()) {
+                return false;
+            }
+            int skipped = (int) Math.min(count, end - start);
+            start += skipped;
+            count -= skipped;
+        }
+        return true;
+    }
+
+    /**
+     * @return the buffer holding the available bytes, from {@link #getPosition()}. It is only valid until the next
+     * read, which may compact or replace it
+     */
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    int getPosition() {
+        return start;
+    }
+
+    /**
+     * @return number of times the reader had to wait for data from the stream
+     */
+    public long getIdleWakeups() {
+        return idleWakeups;
+    }
+
+    private boolean fill() {
+        if (endOfStream) {
+            return false;
+        }
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == buffer.length) {
+            byte[] biggerBuffer = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, biggerBuffer, 0, end);
+            buffer = biggerBuffer;
+        }
+
+        long backoffNanos = MIN_BACKOFF_NANOS;
+        try {
+            while (true) {
+                int read = inputStream.read(buffer, end, buffer.length - end);
+                if (read < 0) {
+                    endOfStream = true;
+                    return false;
+                }
+                if (read > 0) {
+                    end += read;
+                    return true;
+                }
+                LockSupport.parkNanos(backoffNanos);
+                backoffNanos = Math.min(backoffNanos * 2, MAX_BACKOFF_NANOS);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Exception while reading bytes from KVS stream", e);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.apache.commons.lang3.Validate;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Hands a call over to a new invocation shortly before the Lambda time limit, so that calls longer than 15 minutes
+ * are transcribed to the end.
+ *
+ * At the hand-off time, the KVS stream is read up to the start of its next fragment. The new invocation is then
+ * started from that fragment with the FRAGMENT_NUMBER start selector, on a thread of its own rather than the one
+ * reading the stream. It is given the audio of each track read so far, which the times of its results start from,
+ * and the end of the last result sent. Once it is started, this invocation stops reading the stream, and its tracks
+ * end as with the end of the call: the audio already read is transcribed and sent before it returns. When the new
+ * invocation cannot be started, the stream is read on as before.
+ */
+public class ContinuationHandoff {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContinuationHandoff.class);
+
+    private static final String FRAGMENT_NUMBER_SELECTOR = "FRAGMENT_NUMBER";
+
+    private static final ExecutorService INVOKER_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "continuation-handoff");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Starts the invocation continuing the call
+     */
+    public interface Invoker {
+        /**
+         * @param payload request of the new invocation, in JSON
+         */
+        void invoke(String payload) throws Exception;
+    }
+
+    private final TranscriptionRequest request;
+    private final KVSTrackDemultiplexer demultiplexer;
+    private final TranscribedSegmentWriter fromCustomerWriter;
+    private final TranscribedSegmentWriter toCustomerWriter;
+    private final Invoker invoker;
+    private final MetricsUtil metricsUtil;
+    private ScheduledFuture<?> timer;
+
+    /**
+     * @param request            request of the current invocation
+     * @param demultiplexer      demultiplexer of the stream, which gives the audio read per track
+     * @param fromCustomerWriter writer of the FROM_CUSTOMER track
+     * @param toCustomerWriter   writer of the TO_CUSTOMER track
+     * @param invoker            starts the new invocation
+     * @param metricsUtil
+     */
+    public ContinuationHandoff(TranscriptionRequest request, KVSTrackDemultiplexer demultiplexer,
+                               TranscribedSegmentWriter fromCustomerWriter, TranscribedSegmentWriter toCustomerWriter,
+                               Invoker invoker, MetricsUtil metricsUtil) {
+        this.request = Validate.notNull(request);
+        this.demultiplexer = Validate.notNull(demultiplexer);
+        this.fromCustomerWriter = Validate.notNull(fromCustomerWriter);
+        this.toCustomerWriter = Validate.notNull(toCustomerWriter);
+        this.invoker = Validate.notNull(invoker);
+        this.metricsUtil = Validate.notNull(metricsUtil);
+    }
+
+    /**
+     * Schedules the hand-off of the call
+     *
+     * @param frameSource source of the frames of the stream, read by the demultiplexer
+     * @param deadline    deadline of the invocation
+     * @param marginMs    time between the hand-off and the deadline
+     */
+    public synchronized void schedule(ResumableKVSFrameSource frameSource, InvocationDeadline deadline, long marginMs) {
+        Validate.isTrue(timer == null, "Hand-off already scheduled");
+        timer = deadline.runBefore(marginMs, () -> frameSource.stopAtNextFragment(this::handOff));
+    }
+
+    /**
+     * Cancels the hand-off, for calls ending before it
+     */
+    public synchronized void cancel() {
+        if (timer != null) {
+            timer.cancel(false);
+        }
+    }
+
+    /**
+     * Starts the new invocation from the given fragment. Called on the thread reading the stream, which only takes
+     * the state of the call at the start of the fragment, while the new invocation is started on another thread
+     *
+     * @return whether the new invocation was started, once it completes
+     */
+    CompletableFuture<Boolean> handOff(String fragmentNumber) {
+        long start = System.currentTimeMillis();
+        JSONObject payload = request.toJson();
+        payload.put("startFragmentNum", fragmentNumber);
+        payload.put("startSelectorType", FRAGMENT_NUMBER_SELECTOR);
+        payload.put("continuation", request.getContinuation() + 1);
+        if (request.isStreamAudioFromCustomer()) {
+            payload.put("fromCustomerAudioOffsetMs", request.getFromCustomerAudioOffsetMs()
+                    + demultiplexer.getAudioMs(KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName()));
+        }
+        if (request.isStreamAudioToCustomer()) {
+            payload.put("toCustomerAudioOffsetMs", request.getToCustomerAudioOffsetMs()
+                    + demultiplexer.getAudioMs(KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName()));
+        }
+        payload.put("fromCustomerLastEndTime", fromCustomerWriter.getLastEndTime());
+        payload.put("toCustomerLastEndTime", toCustomerWriter.getLastEndTime());
+        payload.put("handoffTimestamp", start);
+        String body = payload.toJSONString();
+        return CompletableFuture.supplyAsync(() -> invoke(body, fragmentNumber, start), INVOKER_EXECUTOR);
+    }
+
+    private boolean invoke(String payload, String fragmentNumber, long start) {
+        try {
+            invoker.invoke(payload);
+        } catch (Exception e) {
+            logger.error("Failed to hand contact " + request.getVoiceCallId() + " over, reading on", e);
+            metricsUtil.recordMetric("ContinuationHandoffFailed", 1);
+            return false;
+        }
+        logger.info("Started continuation {} of contact {} from fragment {} in {} ms", request.getContinuation() + 1,
+                request.getVoiceCallId(), fragmentNumber, System.currentTimeMillis() - start);
+        metricsUtil.recordMetric("ContinuationHandoff", 1);
+        return true;
+    }
+}
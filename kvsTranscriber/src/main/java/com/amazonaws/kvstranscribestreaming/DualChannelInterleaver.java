@@ -0,0 +1,89 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import org.apache.commons.lang3.Validate;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interleaves the audio of the two tracks of a call into a single stereo track, so that both sides of the call are
+ * transcribed by one Transcribe session with channel identification, instead of one session per track.
+ *
+ * The tracks are read one chunk at a time each, from a demultiplexer aligning their chunks on the timecodes of the
+ * frames (see {@link KVSTrackDemultiplexer}), and their 16-bit samples are interleaved, the left track on channel 0
+ * (ch_0) and the right track on channel 1 (ch_1), into a new chunk handed over to the reader. Once a track has
+ * ended, its channel is filled with silence until the other track ends as well.
+ *
+ * A track that stalls, or starts late, does not hold the other one back: the demultiplexer fills it with silence from
+ * the timecodes of the other track, so that reading it returns silence at the pace of the other track instead of
+ * waiting for its frames, whatever the length of the stall.
+ */
+public class DualChannelInterleaver implements KVSAudioChunkSource {
+
+    public static final String DUAL_CHANNEL_TRACK = "AUDIO_DUAL_CHANNEL";
+    // channel ids of the results of Transcribe
+    public static final String LEFT_CHANNEL_ID = "ch_0";
+    public static final String RIGHT_CHANNEL_ID = "ch_1";
+
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final KVSAudioChunkSource audioChunkSource;
+    private final String leftTrack;
+    private final String rightTrack;
+    private boolean leftEnded = false;
+    private boolean rightEnded = false;
+
+    /**
+     * @param audioChunkSource source of the aligned chunks of both tracks
+     * @param leftTrack        track sent on channel 0
+     * @param rightTrack       track sent on channel 1
+     */
+    public DualChannelInterleaver(KVSAudioChunkSource audioChunkSource, String leftTrack, String rightTrack) {
+        this.audioChunkSource = Validate.notNull(audioChunkSource);
+        this.leftTrack = Validate.notNull(leftTrack);
+        this.rightTrack = Validate.notNull(rightTrack);
+    }
+
+    @Override
+    public ByteBuffer getByteBufferFromStream(String track) throws MkvElementVisitException {
+        Validate.isTrue(DUAL_CHANNEL_TRACK.equals(track), "Unknown track " + track);
+        ByteBuffer left = leftEnded ? null : audioChunkSource.getByteBufferFromStream(leftTrack);
+        if (left != null && !left.hasRemaining()) {
+            leftEnded = true;
+            left = null;
+        }
+        ByteBuffer right = rightEnded ? null : audioChunkSource.getByteBufferFromStream(rightTrack);
+        if (right != null && !right.hasRemaining()) {
+            rightEnded = true;
+            right = null;
+        }
+
+        int samples = Math.max(samples(left), samples(right));
+        ByteBuffer interleaved = ByteBuffer.allocate(samples * 2 * BYTES_PER_SAMPLE);
+        for (int i = 0; i < samples; i++) {
+            putSample(interleaved, left, i);
+            putSample(interleaved, right, i);
+        }
+        interleaved.flip();
+        return interleaved;
+    }
+
+    private static int samples(ByteBuffer chunk) {
+        return chunk == null ? 0 : chunk.remaining() / BYTES_PER_SAMPLE;
+    }
+
+    /**
+     * Copies the bytes of a sample as they are, both tracks having the same byte order, or silence past the end of
+     * the chunk
+     */
+    private static void putSample(ByteBuffer interleaved, ByteBuffer chunk, int sample) {
+        if (sample < samples(chunk)) {
+            int offset = chunk.position() + sample * BYTES_PER_SAMPLE;
+            interleaved.put(chunk.get(offset));
+            interleaved.put(chunk.get(offset + 1));
+        } else {
+            interleaved.put((byte) 0);
+            interleaved.put((byte) 0);
+        }
+    }
+}
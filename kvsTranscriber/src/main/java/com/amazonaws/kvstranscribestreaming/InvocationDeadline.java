@@ -0,0 +1,95 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Single deadline of an invocation, shared by all the tracks of the call, by which all its work has to be done.
+ *
+ * It is taken from the time left to the invocation, less a reserve for the cleanup that follows, so that waiting on
+ * the tracks one after the other never runs past the time limit of the function. The steps winding the call down
+ * ahead of the deadline, such as stopping the ingestion of the stream, are scheduled against it.
+ *
+ * A flush reserve is held back after the deadline, for the transcript segments still waiting for delivery once the
+ * tracks are done, or have timed out, to be sent in a time of their own rather than whatever the tracks left over.
+ */
+public class InvocationDeadline {
+
+    private static final ScheduledExecutorService DEADLINE_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "invocation-deadline-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long deadlineNanos;
+    private final long flushDeadlineNanos;
+
+    /**
+     * @param remainingMs time left until the deadline
+     */
+    public InvocationDeadline(long remainingMs) {
+        this(remainingMs, 0);
+    }
+
+    /**
+     * @param remainingMs    time left until the deadline
+     * @param flushReserveMs time held back after the deadline to flush the segments of the call
+     */
+    public InvocationDeadline(long remainingMs, long flushReserveMs) {
+        Validate.isTrue(flushReserveMs >= 0, "Flush reserve must not be negative");
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remainingMs);
+        this.flushDeadlineNanos = deadlineNanos + TimeUnit.MILLISECONDS.toNanos(flushReserveMs);
+    }
+
+    /**
+     * @param context        context of the invocation
+     * @param reserveMs      time kept after the flush reserve, before the time limit of the function
+     * @param flushReserveMs time held back after the deadline to flush the segments of the call
+     */
+    public static InvocationDeadline fromContext(Context context, long reserveMs, long flushReserveMs) {
+        Validate.isTrue(reserveMs >= 0, "Deadline reserve must not be negative");
+        return new InvocationDeadline(context.getRemainingTimeInMillis() - reserveMs - flushReserveMs, flushReserveMs);
+    }
+
+    /**
+     * @return time left until the deadline, 0 once it has passed
+     */
+    public long getRemainingMs() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * @return time left to flush the segments of the call, which includes the flush reserve, 0 once it has passed
+     */
+    public long getFlushRemainingMs() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(flushDeadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * Runs an action on the timer of the deadlines, some time before the deadline, or right away if that time has
+     * already passed
+     *
+     * @param marginMs time between the action and the deadline
+     * @return the scheduled action, to cancel it when the call ends first
+     */
+    public ScheduledFuture<?> runBefore(long marginMs, Runnable action) {
+        return DEADLINE_TIMER.schedule(action, Math.max(0, getRemainingMs() - marginMs), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for a result until the deadline at most
+     *
+     * @throws TimeoutException when the deadline passes first
+     */
+    public <T> T await(CompletableFuture<T> result) throws InterruptedException, ExecutionException, TimeoutException {
+        return result.get(getRemainingMs(), TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,21 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of the audio chunks of the tracks of a call, read by the Transcribe subscriptions
+ */
+public interface KVSAudioChunkSource {
+
+    /**
+     * Fetches the next chunk of audio for the given track. The returned buffer is handed over to the caller: the
+     * source does not write to it again, so it can be kept, and sent to Transcribe without copying it.
+     *
+     * @param track name of the track to read
+     * @return ByteBuffer with the audio of the track, empty once the stream has ended
+     * @throws MkvElementVisitException
+     */
+    ByteBuffer getByteBufferFromStream(String track) throws MkvElementVisitException;
+}
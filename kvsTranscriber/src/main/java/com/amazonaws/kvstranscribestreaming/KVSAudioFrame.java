@@ -0,0 +1,55 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.utilities.MkvTrackMetadata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An audio frame read from a KVS stream, together with the name and metadata of the track it belongs to, and its
+ * timecode when the parser knows it
+ */
+public class KVSAudioFrame {
+    public static final long UNKNOWN_TIMECODE = Long.MIN_VALUE;
+
+    private final String trackName;
+    private final MkvTrackMetadata trackMetadata;
+    private final ByteBuffer frameData;
+    private long timecodeMs;
+
+    public KVSAudioFrame(String trackName, MkvTrackMetadata trackMetadata, ByteBuffer frameData) {
+        this(trackName, trackMetadata, frameData, UNKNOWN_TIMECODE);
+    }
+
+    /**
+     * @param timecodeMs timecode of the frame in ms, cluster timecode plus the relative timecode of the block
+     */
+    public KVSAudioFrame(String trackName, MkvTrackMetadata trackMetadata, ByteBuffer frameData, long timecodeMs) {
+        this.trackName = trackName;
+        this.trackMetadata = trackMetadata;
+        this.frameData = frameData;
+        this.timecodeMs = timecodeMs;
+    }
+
+    public String getTrackName() {
+        return trackName;
+    }
+
+    public MkvTrackMetadata getTrackMetadata() {
+        return trackMetadata;
+    }
+
+    public ByteBuffer getFrameData() {
+        return frameData;
+    }
+
+    public long getTimecodeMs() {
+        return timecodeMs;
+    }
+
+    /**
+     * For parsers reusing their frames
+     */
+    void setTimecodeMs(long timecodeMs) {
+        this.timecodeMs = timecodeMs;
+    }
+}
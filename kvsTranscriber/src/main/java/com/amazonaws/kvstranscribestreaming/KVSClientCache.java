@@ -0,0 +1,120 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.kinesisvideo.AmazonKinesisVideo;
+import com.amazonaws.services.kinesisvideo.AmazonKinesisVideoMedia;
+import com.amazonaws.services.kinesisvideo.model.APIName;
+import com.amazonaws.services.kinesisvideo.model.GetDataEndpointRequest;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the KVS clients and the GetMedia data endpoints of the streams across warm Lambda invocations, so that a call
+ * only pays for the GetMedia request itself once the container has served a call on the same stream.
+ *
+ * Data endpoints are cached per stream for a limited time, and both the endpoint and its media client are dropped
+ * when a request to them fails. Media clients are shared by all the streams served by the same endpoint, along with
+ * their connection pool.
+ */
+public class KVSClientCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(KVSClientCache.class);
+
+    /**
+     * Builds the client for the data plane of a KVS endpoint
+     */
+    public interface MediaClientFactory {
+        AmazonKinesisVideoMedia create(String endpoint, Regions region, AWSCredentialsProvider awsCredentialsProvider);
+    }
+
+    private final Supplier<AmazonKinesisVideo> controlPlaneClientFactory;
+    private final MediaClientFactory mediaClientFactory;
+    private final long endpointTtlMillis;
+    private final LongSupplier clock;
+    private final Map<String, CachedEndpoint> endpoints = new ConcurrentHashMap<>();
+    private final Map<List<Object>, AmazonKinesisVideoMedia> mediaClients = new ConcurrentHashMap<>();
+    private volatile AmazonKinesisVideo controlPlaneClient;
+
+    public KVSClientCache(Supplier<AmazonKinesisVideo> controlPlaneClientFactory, MediaClientFactory mediaClientFactory,
+                          long endpointTtlMillis) {
+        this(controlPlaneClientFactory, mediaClientFactory, endpointTtlMillis, System::currentTimeMillis);
+    }
+
+    KVSClientCache(Supplier<AmazonKinesisVideo> controlPlaneClientFactory, MediaClientFactory mediaClientFactory,
+                   long endpointTtlMillis, LongSupplier clock) {
+        this.controlPlaneClientFactory = Validate.notNull(controlPlaneClientFactory);
+        this.mediaClientFactory = Validate.notNull(mediaClientFactory);
+        Validate.isTrue(endpointTtlMillis >= 0, "Endpoint TTL must not be negative");
+        this.endpointTtlMillis = endpointTtlMillis;
+        this.clock = Validate.notNull(clock);
+    }
+
+    /**
+     * @param streamName name of the KVS stream
+     * @return GetMedia endpoint of the stream, from the cache unless it has expired
+     */
+    public String getDataEndpoint(String streamName) {
+        long now = clock.getAsLong();
+        CachedEndpoint cachedEndpoint = endpoints.get(streamName);
+        if (cachedEndpoint != null && now < cachedEndpoint.expiresAt) {
+            logger.info("Reusing data endpoint {} of stream {}", cachedEndpoint.endpoint, streamName);
+            return cachedEndpoint.endpoint;
+        }
+
+        String endpoint = getControlPlaneClient().getDataEndpoint(new GetDataEndpointRequest()
+                .withAPIName(APIName.GET_MEDIA)
+                .withStreamName(streamName)).getDataEndpoint();
+        endpoints.put(streamName, new CachedEndpoint(endpoint, now + endpointTtlMillis));
+        return endpoint;
+    }
+
+    /**
+     * @return media client of the given endpoint, built on first use
+     */
+    public AmazonKinesisVideoMedia getMediaClient(String endpoint, Regions region, AWSCredentialsProvider awsCredentialsProvider) {
+        return mediaClients.computeIfAbsent(Arrays.asList(endpoint, region, awsCredentialsProvider),
+                key -> mediaClientFactory.create(endpoint, region, awsCredentialsProvider));
+    }
+
+    /**
+     * Forgets the endpoint of a stream and the media client of that endpoint, after a request to them failed
+     */
+    public void invalidate(String streamName, String endpoint, Regions region, AWSCredentialsProvider awsCredentialsProvider) {
+        logger.info("Invalidating data endpoint {} of stream {}", endpoint, streamName);
+        endpoints.remove(streamName);
+        AmazonKinesisVideoMedia mediaClient = mediaClients.remove(Arrays.asList(endpoint, region, awsCredentialsProvider));
+        if (mediaClient != null) {
+            mediaClient.shutdown();
+        }
+    }
+
+    private AmazonKinesisVideo getControlPlaneClient() {
+        if (controlPlaneClient == null) {
+            synchronized (this) {
+                if (controlPlaneClient == null) {
+                    controlPlaneClient = controlPlaneClientFactory.get();
+                }
+            }
+        }
+        return controlPlaneClient;
+    }
+
+    private static class CachedEndpoint {
+        private final String endpoint;
+        private final long expiresAt;
+
+        private CachedEndpoint(String endpoint, long expiresAt) {
+            this.endpoint = endpoint;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
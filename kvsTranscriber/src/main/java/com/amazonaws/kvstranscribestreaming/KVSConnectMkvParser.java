@@ -0,0 +1,372 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import com.amazonaws.kinesisvideo.parser.utilities.MkvTag;
+import com.amazonaws.kinesisvideo.parser.utilities.MkvTrackMetadata;
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Streaming MKV parser specialised for the audio streams Amazon Connect writes to KVS.
+ *
+ * Connect streams only use a few elements: the EBML header, Segment, Tracks, Tags, Cluster and SimpleBlock. Master
+ * elements are read through, track entries and tags are decoded when they arrive, SimpleBlocks are returned as slices
+ * of the read buffer and every other element is skipped. Element ids and sizes are decoded in place from a reusable
+ * buffer, so unlike the generic {@link com.amazonaws.kinesisvideo.parser.mkv.StreamingMkvReader} no object is created
+ * per element. The frames returned for each track are reused too: a frame is only valid until the next call.
+ */
+public class KVSConnectMkvParser implements KVSFrameSource {
+    private static final int EBML = 0x1A45DFA3;
+    private static final int SEGMENT = 0x18538067;
+    private static final int CLUSTER = 0x1F43B675;
+    private static final int CLUSTER_TIMECODE = 0xE7;
+    private static final int TRACKS = 0x1654AE6B;
+    private static final int TRACK_ENTRY = 0xAE;
+    private static final int TRACK_NUMBER = 0xD7;
+    private static final int TRACK_UID = 0x73C5;
+    private static final int NAME = 0x536E;
+    private static final int CODEC_ID = 0x86;
+    private static final int AUDIO = 0xE1;
+    private static final int SAMPLING_FREQUENCY = 0xB5;
+    private static final int CHANNELS = 0x9F;
+    private static final int BIT_DEPTH = 0x6264;
+    private static final int TAGS = 0x1254C367;
+    private static final int TAG = 0x7373;
+    private static final int SIMPLE_TAG = 0x67C8;
+    private static final int TAG_NAME = 0x45A3;
+    private static final int TAG_STRING = 0x4487;
+    private static final int SIMPLE_BLOCK = 0xA3;
+
+    private static final long UNKNOWN_SIZE = -1;
+    private static final String KINESIS_VIDEO_TAG_PREFIX = "AWS_KINESISVIDEO";
+    private static final String FRAGMENT_NUMBER_TAG = "AWS_KINESISVIDEO_FRAGMENT_NUMBER";
+    // Connect streams have two tracks, numbered 1 and 2
+    private static final int MAX_TRACK_NUMBER = 8;
+
+    private final InputStream inputStream;
+    private final BlockingParserByteSource byteSource;
+    private final KVSTagIndex tagIndex;
+    private final MkvTrackMetadata[] trackMetadata = new MkvTrackMetadata[MAX_TRACK_NUMBER];
+    private final KVSAudioFrame[] frames = new KVSAudioFrame[MAX_TRACK_NUMBER];
+    private byte[] framesBuffer;
+    private String fragmentNumber;
+    private long clusterTimecodeMs = KVSAudioFrame.UNKNOWN_TIMECODE;
+
+    // position of the element being decoded from the buffer
+    private int cursor;
+
+    public KVSConnectMkvParser(InputStream inputStream, KVSTagIndex tagIndex) {
+        this.inputStream = Validate.notNull(inputStream);
+        this.byteSource = new BlockingParserByteSource(inputStream);
+        this.tagIndex = Validate.notNull(tagIndex);
+    }
+
+    @Override
+    public KVSAudioFrame nextFrame(String contactId) throws MkvElementVisitException {
+        try {
+            while (byteSource.ensureAvailable(1)) {
+                int headerLength = readElementHeaderLength();
+                if (headerLength < 0 || !byteSource.ensureAvailable(headerLength)) {
+                    break;
+                }
+                cursor = byteSource.getPosition();
+                int id = readId();
+                long size = readSize();
+                byteSource.skip(cursor - byteSource.getPosition());
+
+                switch (id) {
+                    case EBML:
+                        // Validate that we are reading data only for the expected contactId at start of every fragment
+                        String contactIdFromStream = tagIndex.getTagValue(KVSTagIndex.CONTACT_ID);
+                        if (contactIdFromStream != null && !contactIdFromStream.equals(contactId)) {
+                            return null;
+                        }
+                        // the tracks are written again for the new fragment
+                        clearTracks();
+                        if (!byteSource.skip(size)) {
+                            return null;
+                        }
+                        break;
+                    case SEGMENT:
+                    case CLUSTER:
+                    case TRACKS:
+                    case TAGS:
+                    case TAG:
+                        // read through master elements, their children are handled as they come
+                        break;
+                    case TRACK_ENTRY:
+                        if (!readElement(size)) {
+                            return null;
+                        }
+                        readTrackEntry(cursor + (int) size);
+                        byteSource.skip(size);
+                        break;
+                    case CLUSTER_TIMECODE:
+                        if (!readElement(size)) {
+                            return null;
+                        }
+                        clusterTimecodeMs = readUnsigned((int) size);
+                        byteSource.skip(size);
+                        break;
+                    case SIMPLE_TAG:
+                        if (!readElement(size)) {
+                            return null;
+                        }
+                        readSimpleTag(cursor + (int) size);
+                        byteSource.skip(size);
+                        break;
+                    case SIMPLE_BLOCK:
+                        if (tagIndex.isStopStreaming() || !readElement(size)) {
+                            return null;
+                        }
+                        KVSAudioFrame frame = readSimpleBlock(cursor + (int) size);
+                        byteSource.skip(size);
+                        if (frame != null) {
+                            return frame;
+                        }
+                        break;
+                    default:
+                        Validate.isTrue(size != UNKNOWN_SIZE, "Unexpected element of unknown size %x", id);
+                        if (!byteSource.skip(size)) {
+                            return null;
+                        }
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new MkvElementVisitException("Failed to parse KVS stream for contact " + contactId, e);
+        }
+        return null;
+    }
+
+    @Override
+    public String getFragmentNumber() {
+        return fragmentNumber;
+    }
+
+    @Override
+    public long getIdleWakeups() {
+        return byteSource.getIdleWakeups();
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    /**
+     * @return number of bytes of the id and size of the element at the current position, decoded from the length
+     * markers of their first bytes, or -1 if the stream ended before
+     */
+    private int readElementHeaderLength() {
+        byte[] buffer = byteSource.getBuffer();
+        int position = byteSource.getPosition();
+        int idLength = vintLength(buffer[position]);
+        Validate.isTrue(idLength <= 4, "Invalid element id");
+        if (!byteSource.ensureAvailable(idLength + 1)) {
+            return -1;
+        }
+        buffer = byteSource.getBuffer();
+        position = byteSource.getPosition();
+        return idLength + vintLength(buffer[position + idLength]);
+    }
+
+    /**
+     * Makes sure the data of the element at the cursor is buffered, the cursor then points to it in the new buffer
+     */
+    private boolean readElement(long size) {
+        Validate.isTrue(size != UNKNOWN_SIZE && size <= Integer.MAX_VALUE, "Invalid element size");
+        if (!byteSource.ensureAvailable((int) size)) {
+            return false;
+        }
+        cursor = byteSource.getPosition();
+        return true;
+    }
+
+    private void readTrackEntry(int end) {
+        MkvTrackMetadata.MkvTrackMetadataBuilder builder = MkvTrackMetadata.builder()
+                .trackUID(Optional.empty())
+                .samplingFrequency(Optional.empty())
+                .channels(Optional.empty())
+                .bitDepth(Optional.empty());
+        long trackNumber = -1;
+        while (cursor < end) {
+            int id = readId();
+            int size = (int) readSize();
+            int dataEnd = cursor + size;
+            switch (id) {
+                case TRACK_NUMBER:
+                    trackNumber = readUnsigned(size);
+                    builder.trackNumber(BigInteger.valueOf(trackNumber));
+                    break;
+                case TRACK_UID:
+                    builder.trackUID(Optional.of(BigInteger.valueOf(readUnsigned(size))));
+                    break;
+                case NAME:
+                    builder.trackName(readString(size));
+                    break;
+                case CODEC_ID:
+                    builder.codecId(readString(size));
+                    break;
+                case AUDIO:
+                    // the children of the audio settings are handled as they come
+                    continue;
+                case SAMPLING_FREQUENCY:
+                    builder.samplingFrequency(Optional.of(readFloat(size)));
+                    break;
+                case CHANNELS:
+                    builder.channels(Optional.of(BigInteger.valueOf(readUnsigned(size))));
+                    break;
+                case BIT_DEPTH:
+                    builder.bitDepth(Optional.of(BigInteger.valueOf(readUnsigned(size))));
+                    break;
+                default:
+                    break;
+            }
+            cursor = dataEnd;
+        }
+        if (trackNumber >= 0 && trackNumber < MAX_TRACK_NUMBER) {
+            trackMetadata[(int) trackNumber] = builder.build();
+            frames[(int) trackNumber] = null;
+        }
+    }
+
+    private void readSimpleTag(int end) {
+        String tagName = null;
+        String tagValue = null;
+        while (cursor < end) {
+            int id = readId();
+            int size = (int) readSize();
+            int dataEnd = cursor + size;
+            if (id == TAG_NAME) {
+                tagName = readString(size);
+            } else if (id == TAG_STRING) {
+                tagValue = readString(size);
+            }
+            cursor = dataEnd;
+        }
+        if (tagName == null) {
+            return;
+        }
+        if (tagName.startsWith(KINESIS_VIDEO_TAG_PREFIX)) {
+            // same as the generic parser, the tags added by Kinesis Video are not indexed
+            if (FRAGMENT_NUMBER_TAG.equals(tagName)) {
+                fragmentNumber = tagValue;
+            }
+        } else {
+            tagIndex.process(new MkvTag(tagName, tagValue), Optional.empty());
+        }
+    }
+
+    /**
+     * @return the frame of the SimpleBlock at the cursor, or null if it belongs to an unknown track
+     */
+    private KVSAudioFrame readSimpleBlock(int end) {
+        long trackNumber = readSize();
+        byte[] buffer = byteSource.getBuffer();
+        // 16-bit relative timecode and flags
+        short relativeTimecode = (short) (((buffer[cursor] & 0xFF) << 8) | (buffer[cursor + 1] & 0xFF));
+        cursor += 3;
+        if (trackNumber < 0 || trackNumber >= MAX_TRACK_NUMBER || trackMetadata[(int) trackNumber] == null) {
+            return null;
+        }
+
+        if (buffer != framesBuffer) {
+            // the buffer was replaced by a bigger one, the frames must point to the new one
+            clearFrames();
+            framesBuffer = buffer;
+        }
+        KVSAudioFrame frame = frames[(int) trackNumber];
+        if (frame == null) {
+            MkvTrackMetadata metadata = trackMetadata[(int) trackNumber];
+            frame = new KVSAudioFrame(KVSTrackCache.resolveTrackName(metadata.getTrackName()), metadata, ByteBuffer.wrap(buffer));
+            frames[(int) trackNumber] = frame;
+        }
+        ByteBuffer frameData = frame.getFrameData();
+        frameData.clear();
+        frameData.position(cursor);
+        frameData.limit(end);
+        frame.setTimecodeMs(clusterTimecodeMs == KVSAudioFrame.UNKNOWN_TIMECODE
+                ? KVSAudioFrame.UNKNOWN_TIMECODE : clusterTimecodeMs + relativeTimecode);
+        return frame;
+    }
+
+    private void clearTracks() {
+        for (int i = 0; i < MAX_TRACK_NUMBER; i++) {
+            trackMetadata[i] = null;
+        }
+        clearFrames();
+    }
+
+    private void clearFrames() {
+        for (int i = 0; i < MAX_TRACK_NUMBER; i++) {
+            frames[i] = null;
+        }
+    }
+
+    private static int vintLength(byte firstByte) {
+        int value = firstByte & 0xFF;
+        Validate.isTrue(value != 0, "Invalid variable size integer");
+        return Integer.numberOfLeadingZeros(value) - 23;
+    }
+
+    /**
+     * Reads an element id at the cursor, keeping its length marker as ids are usually written
+     */
+    private int readId() {
+        byte[] buffer = byteSource.getBuffer();
+        int length = vintLength(buffer[cursor]);
+        int id = 0;
+        for (int i = 0; i < length; i++) {
+            id = (id << 8) | (buffer[cursor++] & 0xFF);
+        }
+        return id;
+    }
+
+    /**
+     * Reads a variable size integer at the cursor, such as an element size or a track number
+     *
+     * @return the value, or UNKNOWN_SIZE if all its bits are set
+     */
+    private long readSize() {
+        byte[] buffer = byteSource.getBuffer();
+        int length = vintLength(buffer[cursor]);
+        long value = buffer[cursor++] & (0xFF >> length);
+        boolean allOnes = value == (0xFF >> length);
+        for (int i = 1; i < length; i++) {
+            int b = buffer[cursor++] & 0xFF;
+            allOnes &= b == 0xFF;
+            value = (value << 8) | b;
+        }
+        return allOnes ? UNKNOWN_SIZE : value;
+    }
+
+    private long readUnsigned(int size) {
+        byte[] buffer = byteSource.getBuffer();
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (buffer[cursor + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private double readFloat(int size) {
+        long bits = readUnsigned(size);
+        return size == 4 ? Float.intBitsToFloat((int) bits) : Double.longBitsToDouble(bits);
+    }
+
+    private String readString(int size) {
+        byte[] buffer = byteSource.getBuffer();
+        int length = 0;
+        // strings may be padded with zeros
+        while (length < size && buffer[cursor + length] != 0) {
+            length++;
+        }
+        return new String(buffer, cursor, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,31 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+
+import java.io.Closeable;
+
+/**
+ * Source of the audio frames of a KVS stream, whichever MKV parser reads it
+ */
+public interface KVSFrameSource extends Closeable {
+
+    /**
+     * Fetches the next audio frame from the KVS stream, whichever track it belongs to. The frame data is only valid
+     * until the next call.
+     *
+     * @param contactId contact the stream is read for, the stream ends when it moves on to another contact
+     * @return next audio frame from the KVS stream, or null when the stream has ended
+     * @throws MkvElementVisitException
+     */
+    KVSAudioFrame nextFrame(String contactId) throws MkvElementVisitException;
+
+    /**
+     * @return number of the KVS fragment being read, or null before the first fragment
+     */
+    String getFragmentNumber();
+
+    /**
+     * @return number of times the parser had to wait for data from the stream
+     */
+    long getIdleWakeups();
+}
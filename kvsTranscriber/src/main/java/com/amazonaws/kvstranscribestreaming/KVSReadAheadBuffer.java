@@ -0,0 +1,275 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Parses the KVS stream ahead of demand, so that jitter on the KVS connection does not turn into gaps in the audio
+ * sent to Transcribe.
+ *
+ * A dedicated thread drives the {@link KVSTrackDemultiplexer} and publishes the chunks of each track into a bounded
+ * {@link AudioChunkRing}, which the subscription of the track drains whenever Transcribe asks for audio. The chunks
+ * are handed over to the subscription as they are, and never go back to the parser thread.
+ *
+ * When the ring of a track is full its chunks wait in the demultiplexer, within the same bounds as before, and the
+ * parser only waits once the rings of all the tracks are full. The occupancy of the rings, the times the parser had
+ * to leave chunks behind (stalls) and the times a subscription found no audio ready (starvations) are recorded per
+ * track, to size the rings for the jitter of the KVS stream.
+ */
+public class KVSReadAheadBuffer implements KVSAudioChunkSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(KVSReadAheadBuffer.class);
+
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long CLOSE_TIMEOUT_MS = 1000;
+
+    private final KVSTrackDemultiplexer demultiplexer;
+    private final String contactId;
+    private final MetricsUtil metricsUtil;
+    private final Map<String, TrackRing> tracks = new HashMap<>();
+    private volatile Thread parserThread;
+    private volatile Thread waitingParser;
+    private volatile boolean closed = false;
+    private volatile Exception failure;
+
+    /**
+     * @param demultiplexer demultiplexer of the stream, only read by this buffer afterwards
+     * @param contactId
+     * @param trackNames    tracks read from this buffer
+     * @param capacity      number of chunks read ahead per track
+     * @param metricsUtil
+     */
+    public KVSReadAheadBuffer(KVSTrackDemultiplexer demultiplexer, String contactId, Collection<String> trackNames,
+                              int capacity, MetricsUtil metricsUtil) {
+        this.demultiplexer = Validate.notNull(demultiplexer);
+        this.contactId = Validate.notNull(contactId);
+        this.metricsUtil = Validate.notNull(metricsUtil);
+        for (String trackName : Validate.notEmpty(trackNames)) {
+            tracks.put(trackName, new TrackRing(capacity));
+        }
+    }
+
+    /**
+     * Starts parsing the stream on a dedicated thread
+     */
+    public void start() {
+        Validate.isTrue(parserThread == null, "Read-ahead already started");
+        parserThread = new Thread(this::parse, "kvs-read-ahead-" + contactId);
+        parserThread.setDaemon(true);
+        parserThread.start();
+    }
+
+    /**
+     * Stops the parser thread, for calls that end before all the audio has been read. The KVS stream is closed, so
+     * that a parser blocked on it is woken up, and the parser thread is waited for a bounded time
+     */
+    public void close() {
+        closed = true;
+        Thread parser = parserThread;
+        if (parser == null) {
+            demultiplexer.close();
+            return;
+        }
+        LockSupport.unpark(parser);
+        demultiplexer.close();
+        try {
+            parser.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (parser.isAlive()) {
+            logger.warn("Read-ahead of contact {} still running {} ms after it was closed", contactId, CLOSE_TIMEOUT_MS);
+        }
+    }
+
+    @Override
+    public ByteBuffer getByteBufferFromStream(String track) throws MkvElementVisitException {
+        TrackRing trackRing = Validate.notNull(tracks.get(track), "Unknown track " + track);
+
+        boolean starved = false;
+        while (true) {
+            int occupancy = trackRing.ready.size();
+            ByteBuffer chunk = trackRing.ready.poll();
+            if (chunk != null) {
+                trackRing.recordOccupancy(occupancy);
+                if (starved && trackRing.emittedChunks > 0) {
+                    trackRing.starvations++;
+                }
+                trackRing.emittedChunks++;
+                wakeUpParser();
+                return chunk;
+            }
+
+            if (trackRing.endOfStream) {
+                // the parser publishes all the audio of the track before flagging the end of its stream
+                chunk = trackRing.ready.poll();
+                if (chunk != null) {
+                    trackRing.emittedChunks++;
+                    return chunk;
+                }
+                if (failure != null) {
+                    throw new MkvElementVisitException("Failed to read KVS stream ahead for contact " + contactId, failure);
+                }
+                recordMetrics(track, trackRing);
+                return ByteBuffer.allocate(0);
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                // the subscription reading the track has been cancelled
+                throw new MkvElementVisitException("Interrupted while waiting for audio of track " + track, new InterruptedException());
+            }
+            starved = true;
+            trackRing.waitingReader = Thread.currentThread();
+            if (trackRing.ready.size() == 0 && !trackRing.endOfStream) {
+                LockSupport.parkNanos(this, MAX_WAIT_NANOS);
+            }
+            trackRing.waitingReader = null;
+        }
+    }
+
+    /**
+     * Body of the parser thread
+     */
+    private void parse() {
+        try {
+            boolean moreAudio = true;
+            while (moreAudio && !closed) {
+                moreAudio = demultiplexer.readAhead();
+                while (!publishReadyChunks(!moreAudio) && !closed) {
+                    // all the rings are full, or the stream has ended with chunks left to publish
+                    waitForReaders();
+                }
+            }
+        } catch (Exception e) {
+            if (closed) {
+                logger.info("Stopped reading KVS stream ahead for contact {}: {}", contactId, e.getMessage());
+            } else {
+                logger.error("Failed to read KVS stream ahead for contact " + contactId, e);
+            }
+            failure = e;
+        } finally {
+            for (TrackRing trackRing : tracks.values()) {
+                trackRing.endOfStream = true;
+                LockSupport.unpark(trackRing.waitingReader);
+            }
+        }
+    }
+
+    /**
+     * Moves the ready chunks of every track into its ring
+     *
+     * @return false when the parser has to wait for readers before going on: once the rings of all the tracks are
+     * full, or at the end of the stream until all the chunks are published. The end of the stream is flagged for each
+     * track as soon as all its chunks are published, so that it does not depend on the readers of the other tracks
+     */
+    private boolean publishReadyChunks(boolean endOfStreamReached) {
+        boolean canReadMore = false;
+        boolean chunksLeft = false;
+        for (Map.Entry<String, TrackRing> track : tracks.entrySet()) {
+            TrackRing trackRing = track.getValue();
+            boolean published = false;
+            boolean drained = false;
+            while (!trackRing.ready.isFull()) {
+                ByteBuffer chunk = demultiplexer.takeChunk(track.getKey());
+                if (chunk == null) {
+                    drained = true;
+                    break;
+                }
+                trackRing.ready.offer(chunk);
+                published = true;
+            }
+            if (drained && endOfStreamReached) {
+                trackRing.endOfStream = true;
+            }
+            if (published || trackRing.endOfStream) {
+                LockSupport.unpark(trackRing.waitingReader);
+            }
+
+            if (drained) {
+                trackRing.stalled = false;
+                canReadMore = true;
+            } else {
+                chunksLeft = true;
+                if (!trackRing.stalled) {
+                    trackRing.stalled = true;
+                    trackRing.producerStalls++;
+                }
+            }
+        }
+        return endOfStreamReached ? !chunksLeft : canReadMore;
+    }
+
+    private void waitForReaders() {
+        waitingParser = Thread.currentThread();
+        LockSupport.parkNanos(this, MAX_WAIT_NANOS);
+        waitingParser = null;
+    }
+
+    private void wakeUpParser() {
+        Thread parser = waitingParser;
+        if (parser != null) {
+            LockSupport.unpark(parser);
+        }
+    }
+
+    private void recordMetrics(String track, TrackRing trackRing) {
+        if (trackRing.metricsRecorded) {
+            return;
+        }
+        trackRing.metricsRecorded = true;
+        demultiplexer.recordMetrics(track);
+        logger.info("Track {} of contact {}: read-ahead ring of {} chunks, {} average and {} max occupancy, {} stalls, {} starvations",
+                track, contactId, trackRing.ready.getCapacity(), trackRing.getAverageOccupancy(), trackRing.maxOccupancy,
+                trackRing.producerStalls, trackRing.starvations);
+        metricsUtil.recordMetric("ReadAheadAverageOccupancy", trackRing.getAverageOccupancy());
+        metricsUtil.recordMetric("ReadAheadMaxOccupancy", trackRing.maxOccupancy);
+        metricsUtil.recordMetric("ReadAheadProducerStalls", trackRing.producerStalls);
+        metricsUtil.recordMetric("ReadAheadConsumerStarvations", trackRing.starvations);
+    }
+
+    /**
+     * Rings of a track. The counters are only written by their side of the ring, one thread at a time. The reader
+     * side moves between the pump threads of the subscription from one drain to the next, so its state is volatile,
+     * for each pump to see what the previous one left without relying on how the pumps are handed over
+     */
+    private static class TrackRing {
+        private final AudioChunkRing ready;
+        private volatile Thread waitingReader;
+        private volatile boolean endOfStream = false;
+
+        // reader side
+        private volatile boolean metricsRecorded = false;
+        private volatile long emittedChunks = 0;
+        private volatile long starvations = 0;
+        private volatile long totalOccupancy = 0;
+        private volatile long occupancySamples = 0;
+        private volatile int maxOccupancy = 0;
+
+        // parser side
+        private volatile long producerStalls = 0;
+        private boolean stalled = false;
+
+        private TrackRing(int capacity) {
+            this.ready = new AudioChunkRing(capacity);
+        }
+
+        private void recordOccupancy(int occupancy) {
+            totalOccupancy += occupancy;
+            occupancySamples++;
+            maxOccupancy = Math.max(maxOccupancy, occupancy);
+        }
+
+        private long getAverageOccupancy() {
+            return occupancySamples == 0 ? 0 : totalOccupancy / occupancySamples;
+        }
+    }
+}
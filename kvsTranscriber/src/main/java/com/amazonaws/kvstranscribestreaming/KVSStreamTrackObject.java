@@ -1,13 +1,17 @@
 package com.amazonaws.kvstranscribestreaming;
 
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
 import com.amazonaws.kinesisvideo.parser.mkv.StreamingMkvReader;
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadata;
 import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 
 /**
- * KVS StreamTrackObject to save KVS streams
+ * KVS StreamTrackObject to save KVS streams. A single object is shared by all the tracks of the stream, which it
+ * reads with the generic MKV parser of the Kinesis Video parser library
  *
  * <p>Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.</p>
  *
@@ -25,40 +29,77 @@ import java.nio.file.Path;
  * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 
-public class KVSStreamTrackObject {
+public class KVSStreamTrackObject implements KVSFrameSource {
     private InputStream inputStream;
+    private BlockingParserByteSource byteSource;
     private StreamingMkvReader streamingMkvReader;
-    private FragmentMetadataVisitor.BasicMkvTagProcessor tagProcessor;
+    private KVSTagIndex tagIndex;
     private FragmentMetadataVisitor fragmentVisitor;
-    private String trackName;
+    private KVSTrackCache trackCache;
+    private long clusterTimecodeMs = KVSAudioFrame.UNKNOWN_TIMECODE;
 
-    public KVSStreamTrackObject(InputStream inputStream, StreamingMkvReader streamingMkvReader,
-                                FragmentMetadataVisitor.BasicMkvTagProcessor tagProcessor, FragmentMetadataVisitor fragmentVisitor,
-                                String trackName) {
+    public KVSStreamTrackObject(InputStream inputStream, BlockingParserByteSource byteSource, StreamingMkvReader streamingMkvReader,
+                                KVSTagIndex tagIndex, FragmentMetadataVisitor fragmentVisitor, KVSTrackCache trackCache) {
         this.inputStream = inputStream;
+        this.byteSource = byteSource;
         this.streamingMkvReader = streamingMkvReader;
-        this.tagProcessor = tagProcessor;
+        this.tagIndex = tagIndex;
         this.fragmentVisitor = fragmentVisitor;
-        this.trackName = trackName;
+        this.trackCache = trackCache;
     }
 
     public InputStream getInputStream() {
         return inputStream;
     }
 
+    public BlockingParserByteSource getByteSource() {
+        return byteSource;
+    }
+
     public StreamingMkvReader getStreamingMkvReader() {
         return streamingMkvReader;
     }
 
-    public FragmentMetadataVisitor.BasicMkvTagProcessor getTagProcessor() {
-        return tagProcessor;
+    public KVSTagIndex getTagIndex() {
+        return tagIndex;
     }
 
     public FragmentMetadataVisitor getFragmentVisitor() {
         return fragmentVisitor;
     }
 
-    public String getTrackName() {
-        return trackName;
+    public KVSTrackCache getTrackCache() {
+        return trackCache;
+    }
+
+    /**
+     * @return timecode of the cluster being read, which the timecodes of its blocks are relative to
+     */
+    public long getClusterTimecodeMs() {
+        return clusterTimecodeMs;
+    }
+
+    public void setClusterTimecodeMs(long clusterTimecodeMs) {
+        this.clusterTimecodeMs = clusterTimecodeMs;
+    }
+
+    @Override
+    public KVSAudioFrame nextFrame(String contactId) throws MkvElementVisitException {
+        return KVSUtils.getAudioFrameFromStream(this, contactId);
+    }
+
+    @Override
+    public String getFragmentNumber() {
+        return fragmentVisitor.getCurrentFragmentMetadata().map(FragmentMetadata::getFragmentNumberString).orElse(null);
+    }
+
+    @Override
+    public long getIdleWakeups() {
+        return byteSource.getIdleWakeups();
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
     }
 }
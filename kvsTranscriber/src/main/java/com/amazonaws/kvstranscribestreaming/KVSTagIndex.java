@@ -0,0 +1,50 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadata;
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
+import com.amazonaws.kinesisvideo.parser.utilities.MkvTag;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Tag processor keeping the latest value of every MKV tag of the stream, keyed by tag name.
+ *
+ * The index is updated only when tag elements are parsed, so looking up a tag for every audio frame costs the same
+ * however many tags Connect attaches to the fragments. The STOP_STREAMING flag is kept apart as it is checked for
+ * every frame.
+ */
+public class KVSTagIndex implements FragmentMetadataVisitor.MkvTagProcessor {
+    public static final String CONTACT_ID = "ContactId";
+    public static final String STOP_STREAMING = "STOP_STREAMING";
+
+    private final Map<String, String> tagValues = new HashMap<>();
+    private boolean stopStreaming = false;
+
+    @Override
+    public void process(MkvTag mkvTag, Optional<FragmentMetadata> currentFragmentMetadata) {
+        tagValues.put(mkvTag.getTagName(), mkvTag.getTagValue());
+        if (STOP_STREAMING.equals(mkvTag.getTagName())) {
+            stopStreaming = "true".equals(mkvTag.getTagValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        tagValues.clear();
+        stopStreaming = false;
+    }
+
+    /**
+     * @param tagName name of the tag
+     * @return latest value of the tag in the stream, or null if the tag has not been seen
+     */
+    public String getTagValue(String tagName) {
+        return tagValues.get(tagName);
+    }
+
+    public boolean isStopStreaming() {
+        return stopStreaming;
+    }
+}
@@ -0,0 +1,74 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
+import com.amazonaws.kinesisvideo.parser.utilities.MkvTrackMetadata;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Caches the metadata and the name of the tracks of the stream by track number, so that the track of every audio
+ * frame is resolved without a lookup in the fragment visitor, which boxes the track number into a BigInteger.
+ *
+ * The fragment visitor collects the tracks again for every fragment, so the cache must be invalidated at the start
+ * of each fragment.
+ */
+public class KVSTrackCache {
+    // Connect streams have two tracks, numbered 1 and 2
+    private static final int MAX_CACHED_TRACK_NUMBER = 8;
+
+    private final FragmentMetadataVisitor fragmentVisitor;
+    private final MkvTrackMetadata[] trackMetadata = new MkvTrackMetadata[MAX_CACHED_TRACK_NUMBER];
+    private final String[] trackNames = new String[MAX_CACHED_TRACK_NUMBER];
+
+    public KVSTrackCache(FragmentMetadataVisitor fragmentVisitor) {
+        this.fragmentVisitor = Validate.notNull(fragmentVisitor);
+    }
+
+    public void invalidate() {
+        for (int i = 0; i < MAX_CACHED_TRACK_NUMBER; i++) {
+            trackMetadata[i] = null;
+            trackNames[i] = null;
+        }
+    }
+
+    /**
+     * @param trackNumber number of the track in the stream
+     * @return metadata of the track, or null if the track is unknown
+     */
+    public MkvTrackMetadata getTrackMetadata(long trackNumber) {
+        if (trackNumber < 0 || trackNumber >= MAX_CACHED_TRACK_NUMBER) {
+            return fragmentVisitor.getMkvTrackMetadata(trackNumber);
+        }
+        int index = (int) trackNumber;
+        if (trackMetadata[index] == null) {
+            trackMetadata[index] = fragmentVisitor.getMkvTrackMetadata(trackNumber);
+        }
+        return trackMetadata[index];
+    }
+
+    /**
+     * @param trackNumber number of the track in the stream
+     * @return name of the track, as used to select the tracks to transcribe, or null if the track is unknown
+     */
+    public String getTrackName(long trackNumber) {
+        if (trackNumber < 0 || trackNumber >= MAX_CACHED_TRACK_NUMBER) {
+            return resolveTrackName(fragmentVisitor.getMkvTrackMetadata(trackNumber));
+        }
+        int index = (int) trackNumber;
+        if (trackNames[index] == null) {
+            trackNames[index] = resolveTrackName(getTrackMetadata(trackNumber));
+        }
+        return trackNames[index];
+    }
+
+    private static String resolveTrackName(MkvTrackMetadata metadata) {
+        return metadata == null ? null : resolveTrackName(metadata.getTrackName());
+    }
+
+    static String resolveTrackName(String trackName) {
+        if ("Track_audio/L16".equals(trackName)) {
+            // backwards compatibility
+            return KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName();
+        }
+        return trackName;
+    }
+}
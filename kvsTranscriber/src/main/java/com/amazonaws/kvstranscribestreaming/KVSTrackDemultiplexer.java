@@ -0,0 +1,264 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads and parses a KVS stream once and splits its audio frames by track, so that all the tracks of a call
+ * (AUDIO_FROM_CUSTOMER and AUDIO_TO_CUSTOMER) can be transcribed from a single GetMedia call.
+ *
+ * Each track pulls its own chunks, at the pace of its own subscriber. Whichever track needs data drives the parser,
+ * and chunks assembled along the way for the other tracks are queued for them. A track that stops pulling cannot
+ * stall the parser for the others: its queue is bounded and the oldest chunks are dropped, with a warning, once
+ * it is full.
+ *
+ * When the tracks are aligned, a track whose frames stop coming, or have not started yet, is filled with silence as
+ * soon as the frames of the other tracks are more than MAX_TRACK_SKEW_MS ahead of it. A reader waiting for both
+ * tracks, such as {@link DualChannelInterleaver}, then gets chunks of the late track at the pace of the other one,
+ * rather than waiting while the other one fills up its queue. Frames of the late track that arrive afterwards are
+ * placed at their timecodes, less the part already filled with silence.
+ *
+ * Frames are copied exactly once, from the parser's buffer straight into the fixed-duration chunks of their track
+ * (see {@link AudioChunkAssembler}). Each chunk is a new buffer handed over to its reader, and never written to
+ * again, so that it goes as it is into the audio event sent to Transcribe and into the {@link AudioReplayBuffer}.
+ *
+ * The parsing can also be driven ahead of demand by a single thread, with {@link #readAhead()}, taking the chunks
+ * with {@link #takeChunk(String)} (see {@link KVSReadAheadBuffer}).
+ */
+public class KVSTrackDemultiplexer implements KVSAudioChunkSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(KVSTrackDemultiplexer.class);
+
+    private static final int MAX_QUEUED_AUDIO_MS = 16000;
+    // how far a track may lag behind the frames of the other tracks before it is filled with silence
+    private static final int MAX_TRACK_SKEW_MS = 2000;
+    // gaps in the timecodes of a track shorter than this are jitter rather than missing audio
+    private static final int MIN_GAP_MS = 20;
+
+    private final KVSFrameSource frameSource;
+    private final String contactId;
+    private final MetricsUtil metricsUtil;
+    private final Map<String, AudioChunkAssembler> assemblers = new HashMap<>();
+    // end of the silence filling each late track, from the start of the stream
+    private final Map<String, Long> skewPaddedMs = new HashMap<>();
+    private final Map<String, Long> trimmedMs = new HashMap<>();
+    private final boolean alignTracks;
+    private long originTimecodeMs = KVSAudioFrame.UNKNOWN_TIMECODE;
+    private boolean endOfStream = false;
+    private final AtomicBoolean sourceClosed = new AtomicBoolean(false);
+
+    public KVSTrackDemultiplexer(KVSFrameSource frameSource, String contactId,
+                                 Collection<String> trackNames, int chunkDurationMs, MetricsUtil metricsUtil) {
+        this(frameSource, contactId, trackNames, chunkDurationMs, false, metricsUtil);
+    }
+
+    /**
+     * @param alignTracks whether the chunks of the tracks are aligned on the timecodes of the frames, from the first
+     *                    frame of the stream, with silence where a track has no frames. The n-th chunks of all the
+     *                    tracks then cover the same time of the call
+     */
+    public KVSTrackDemultiplexer(KVSFrameSource frameSource, String contactId, Collection<String> trackNames,
+                                 int chunkDurationMs, boolean alignTracks, MetricsUtil metricsUtil) {
+        this.frameSource = Validate.notNull(frameSource);
+        this.contactId = Validate.notNull(contactId);
+        this.metricsUtil = Validate.notNull(metricsUtil);
+        this.alignTracks = alignTracks;
+        for (String trackName : Validate.notEmpty(trackNames)) {
+            assemblers.put(trackName, new AudioChunkAssembler(chunkDurationMs, MAX_QUEUED_AUDIO_MS));
+        }
+    }
+
+    /**
+     * Fetches the next chunk of audio for the given track.
+     *
+     * The returned buffer is handed over to the caller: the demultiplexer does not write to it again.
+     *
+     * @param track name of the track to read
+     * @return ByteBuffer with the audio of the track, empty once the stream has ended
+     * @throws MkvElementVisitException
+     */
+    @Override
+    public synchronized ByteBuffer getByteBufferFromStream(String track) throws MkvElementVisitException {
+        AudioChunkAssembler assembler = Validate.notNull(assemblers.get(track), "Unknown track " + track);
+
+        while (!assembler.hasReadyChunk() && !endOfStream) {
+            readFrame();
+        }
+
+        ByteBuffer chunk = assembler.take();
+        if (chunk == null) {
+            recordMetrics(track, assembler);
+            return ByteBuffer.allocate(0);
+        }
+        return chunk;
+    }
+
+    /**
+     * Reads the next frame from the stream, for readers parsing ahead of demand
+     *
+     * @return false once the stream has ended, and all the remaining audio is ready to be taken
+     * @throws MkvElementVisitException
+     */
+    public synchronized boolean readAhead() throws MkvElementVisitException {
+        if (!endOfStream) {
+            readFrame();
+        }
+        return !endOfStream;
+    }
+
+    /**
+     * Hands the next ready chunk of a track over to the caller
+     *
+     * @return next chunk of the track, or null if there is none yet
+     */
+    public synchronized ByteBuffer takeChunk(String track) {
+        return assemblers.get(track).take();
+    }
+
+    /**
+     * @return duration of the audio of a track read from the stream so far, including the silence of alignment
+     */
+    public synchronized long getAudioMs(String track) {
+        return assemblers.get(track).getAppendedMs();
+    }
+
+    /**
+     * Records the chunking metrics of a track read with {@link #takeChunk(String)}, once all its audio has been read
+     */
+    public synchronized void recordMetrics(String track) {
+        recordMetrics(track, assemblers.get(track));
+    }
+
+    /**
+     * Reads the next frame from the stream and copies it into the chunks of its track
+     *
+     * @throws MkvElementVisitException
+     */
+    private void readFrame() throws MkvElementVisitException {
+        KVSAudioFrame frame = frameSource.nextFrame(contactId);
+        if (frame == null) {
+            onEndOfStream();
+            return;
+        }
+
+        AudioChunkAssembler assembler = assemblers.get(frame.getTrackName());
+        if (assembler == null) {
+            // track is not transcribed
+            return;
+        }
+        if (alignTracks && frame.getTimecodeMs() != KVSAudioFrame.UNKNOWN_TIMECODE) {
+            if (originTimecodeMs == KVSAudioFrame.UNKNOWN_TIMECODE) {
+                originTimecodeMs = frame.getTimecodeMs();
+            }
+            long frameMs = frame.getTimecodeMs() - originTimecodeMs;
+            padGap(frame.getTrackName(), assembler, frame, frameMs);
+            padLateTracks(frame, frameMs);
+        }
+
+        long droppedChunks = assembler.getDroppedChunks();
+        assembler.append(frame.getFrameData(), frame.getTrackMetadata());
+        if (droppedChunks == 0 && assembler.getDroppedChunks() > 0) {
+            logger.warn("Track {} of contact {} is not read, dropping its oldest audio beyond {} ms",
+                    frame.getTrackName(), contactId, MAX_QUEUED_AUDIO_MS);
+        }
+    }
+
+    /**
+     * Appends silence to the track for the time between the end of its audio and the timecode of the frame, of any
+     * length. The part of the frame that overlaps the silence filling a late track is skipped instead
+     */
+    private void padGap(String track, AudioChunkAssembler assembler, KVSAudioFrame frame, long frameMs) {
+        long gapMs = frameMs - assembler.getAppendedMs();
+        if (gapMs >= MIN_GAP_MS) {
+            assembler.appendSilence(gapMs, frame.getTrackMetadata());
+            return;
+        }
+
+        long overlapMs = skewPaddedMs.getOrDefault(track, 0L) - frameMs;
+        if (overlapMs > 0) {
+            ByteBuffer frameData = frame.getFrameData();
+            int skipped = Math.min(frameData.remaining(), AudioChunkAssembler.getChunkSizeInBytes(frame.getTrackMetadata(), (int) overlapMs));
+            frameData.position(frameData.position() + skipped);
+            trimmedMs.merge(track, skipped * 1000L / AudioChunkAssembler.getChunkSizeInBytes(frame.getTrackMetadata(), 1000), Long::sum);
+        }
+    }
+
+    /**
+     * Fills with silence the tracks lagging more than MAX_TRACK_SKEW_MS behind the timecode of the frame.
+     * The tracks of a call share their format, so a track without audio yet is filled in the format of the frame
+     */
+    private void padLateTracks(KVSAudioFrame frame, long frameMs) {
+        for (Map.Entry<String, AudioChunkAssembler> track : assemblers.entrySet()) {
+            if (track.getKey().equals(frame.getTrackName())) {
+                continue;
+            }
+            long lagMs = frameMs - MAX_TRACK_SKEW_MS - track.getValue().getAppendedMs();
+            if (lagMs >= MIN_GAP_MS) {
+                if (!skewPaddedMs.containsKey(track.getKey())) {
+                    logger.info("Track {} of contact {} lags more than {} ms behind track {}, filling it with silence",
+                            track.getKey(), contactId, MAX_TRACK_SKEW_MS, frame.getTrackName());
+                }
+                track.getValue().appendSilence(lagMs, frame.getTrackMetadata());
+                skewPaddedMs.put(track.getKey(), track.getValue().getAppendedMs());
+            }
+        }
+    }
+
+    private void onEndOfStream() {
+        endOfStream = true;
+        for (AudioChunkAssembler assembler : assemblers.values()) {
+            assembler.flush();
+        }
+        long idleWakeups = frameSource.getIdleWakeups();
+        logger.info("End of KVS stream for contact {}, waited {} times for data", contactId, idleWakeups);
+        metricsUtil.recordMetric("KVSReaderIdleWakeups", idleWakeups);
+        close();
+    }
+
+    /**
+     * Closes the frame source, from any thread, also to unblock a read waiting on the stream
+     */
+    public void close() {
+        if (!sourceClosed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            frameSource.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close KVS stream for contact " + contactId, e);
+        }
+    }
+
+    /**
+     * Records the chunking metrics of a track once all its audio has been read
+     */
+    private void recordMetrics(String track, AudioChunkAssembler assembler) {
+        if (assembler.getTakenChunks() == 0 && assembler.getDroppedChunks() == 0) {
+            return;
+        }
+        logger.info("Track {} of contact {}: {} chunks of {} ms, {} dropped, {} ms average assembly latency",
+                track, contactId, assembler.getTakenChunks(), assembler.getChunkDurationMs(), assembler.getDroppedChunks(),
+                assembler.getAverageAssemblyLatencyMs());
+        metricsUtil.recordMetric("AudioChunkDurationMs", assembler.getChunkDurationMs());
+        metricsUtil.recordMetric("AudioChunksSent", assembler.getTakenChunks());
+        metricsUtil.recordMetric("AudioChunkAssemblyLatencyMs", assembler.getAverageAssemblyLatencyMs());
+        if (assembler.getDroppedChunks() > 0) {
+            metricsUtil.recordMetric("DemultiplexerDroppedAudioMs", assembler.getDroppedChunks() * assembler.getChunkDurationMs());
+        }
+        if (assembler.getPaddedMs() > 0) {
+            metricsUtil.recordMetric("DemultiplexerPaddedAudioMs", assembler.getPaddedMs());
+        }
+        if (trimmedMs.containsKey(track)) {
+            metricsUtil.recordMetric("DemultiplexerTrimmedAudioMs", trimmedMs.get(track));
+        }
+    }
+}
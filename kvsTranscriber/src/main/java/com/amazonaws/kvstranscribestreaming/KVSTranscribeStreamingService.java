@@ -2,15 +2,16 @@ package com.amazonaws.kvstranscribestreaming;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
-import com.amazonaws.kinesisvideo.parser.ebml.InputStreamParserByteSource;
 import com.amazonaws.kinesisvideo.parser.mkv.StreamingMkvReader;
 import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.cloudwatch.AmazonCloudWatchClientBuilder;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.transcribestreaming.AudioPumpExecutor;
 import com.amazonaws.transcribestreaming.KVSByteToAudioEventSubscription;
 import com.amazonaws.transcribestreaming.StreamTranscriptionBehaviorImpl;
+import com.amazonaws.transcribestreaming.TranscribeStreamingClientProvider;
 import com.amazonaws.transcribestreaming.TranscribeStreamingRetryClient;
 import com.salesforce.scv.SCVLoggingUtil;
 
@@ -23,6 +24,7 @@ import software.amazon.awssdk.services.transcribestreaming.model.LanguageCode;
 import software.amazon.awssdk.services.transcribestreaming.model.Specialty;
 import software.amazon.awssdk.services.transcribestreaming.model.VocabularyFilterMethod;
 import software.amazon.awssdk.services.transcribestreaming.model.MediaEncoding;
+import software.amazon.awssdk.services.transcribestreaming.model.PartialResultsStability;
 import software.amazon.awssdk.services.transcribestreaming.model.TranscribeStreamingRequest;
 import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
 import software.amazon.awssdk.services.transcribestreaming.model.StartMedicalStreamTranscriptionRequest;
@@ -33,14 +35,17 @@ import java.nio.file.Paths;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Date;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeoutException;
 
 public class KVSTranscribeStreamingService implements RequestHandler<TranscriptionRequest, String> {
@@ -49,6 +54,65 @@ public class KVSTranscribeStreamingService implements RequestHandler<Transcripti
     private static final Regions TRANSCRIBE_REGION = Regions.fromName(System.getenv("TRANSCRIBE_REGION"));
     private static final String TRANSCRIBE_ENDPOINT = "https://transcribestreaming." + TRANSCRIBE_REGION.getName() + ".amazonaws.com";
     private static final String START_SELECTOR_TYPE = System.getenv("START_SELECTOR_TYPE");
+    // Settings of the HTTP/2 client shared by the Transcribe streams of all the invocations of the container
+    private static final int TRANSCRIBE_EVENT_LOOP_THREADS = Integer.parseInt(Optional.ofNullable(System.getenv("TRANSCRIBE_EVENT_LOOP_THREADS")).orElse("2"));
+    private static final int TRANSCRIBE_MAX_HTTP2_STREAMS = Integer.parseInt(Optional.ofNullable(System.getenv("TRANSCRIBE_MAX_HTTP2_STREAMS")).orElse("10"));
+    private static final long TRANSCRIBE_CONNECTION_ACQUISITION_TIMEOUT_MS = Long.parseLong(Optional.ofNullable(System.getenv("TRANSCRIBE_CONNECTION_ACQUISITION_TIMEOUT_MS")).orElse("10000"));
+    private static final long TRANSCRIBE_HEALTH_CHECK_PING_MS = Long.parseLong(Optional.ofNullable(System.getenv("TRANSCRIBE_HEALTH_CHECK_PING_MS")).orElse("5000"));
+    private static final TranscribeStreamingClientProvider TRANSCRIBE_CLIENT = TranscribeStreamingClientProvider.create(
+            getTranscribeCredentials(), TRANSCRIBE_ENDPOINT, TRANSCRIBE_REGION, TRANSCRIBE_EVENT_LOOP_THREADS,
+            TRANSCRIBE_MAX_HTTP2_STREAMS, Duration.ofMillis(TRANSCRIBE_CONNECTION_ACQUISITION_TIMEOUT_MS),
+            Duration.ofMillis(TRANSCRIBE_HEALTH_CHECK_PING_MS));
+    // MKV parser reading the KVS stream: GENERIC (Kinesis Video parser library) or CONNECT (specialised for Connect audio)
+    private static final String MKV_PARSER = Optional.ofNullable(System.getenv("MKV_PARSER")).orElse("GENERIC");
+    private static final String MKV_PARSER_CONNECT = "CONNECT";
+    // Number of times a call may resume its KVS stream after the GetMedia connection broke
+    private static final int KVS_MAX_RECONNECTS = Integer.parseInt(Optional.ofNullable(System.getenv("KVS_MAX_RECONNECTS")).orElse("3"));
+    // Duration of the audio chunks sent to Transcribe, e.g. 50, 100 or 200 ms
+    private static final int AUDIO_CHUNK_DURATION_MS = Integer.parseInt(Optional.ofNullable(System.getenv("AUDIO_CHUNK_DURATION_MS")).orElse("100"));
+    // Number of chunks per track parsed ahead of Transcribe, to absorb the jitter of the KVS stream
+    private static final int READ_AHEAD_CHUNKS = Integer.parseInt(Optional.ofNullable(System.getenv("READ_AHEAD_CHUNKS")).orElse("20"));
+    // Silence gating: silent stretches longer than the hold time are not sent to Transcribe, but for a keep-alive
+    // chunk every few seconds (Transcribe ends streams that receive no audio for 15 seconds)
+    private static final boolean SILENCE_GATING = Boolean.parseBoolean(Optional.ofNullable(System.getenv("SILENCE_GATING")).orElse("false"));
+    private static final int SILENCE_GATE_RMS_THRESHOLD = Integer.parseInt(Optional.ofNullable(System.getenv("SILENCE_GATE_RMS_THRESHOLD")).orElse("150"));
+    private static final long SILENCE_GATE_HOLD_MS = Long.parseLong(Optional.ofNullable(System.getenv("SILENCE_GATE_HOLD_MS")).orElse("1000"));
+    private static final long SILENCE_GATE_KEEP_ALIVE_MS = Long.parseLong(Optional.ofNullable(System.getenv("SILENCE_GATE_KEEP_ALIVE_MS")).orElse("5000"));
+    // Both tracks of a call transcribed by a single Transcribe session, as the two channels of a stereo stream,
+    // rather than by one session per track
+    private static final boolean DUAL_CHANNEL_TRANSCRIPTION = Boolean.parseBoolean(Optional.ofNullable(System.getenv("DUAL_CHANNEL_TRANSCRIPTION")).orElse("false"));
+    // Stable partial results sent to SCRT ahead of the final ones, a revision of a result at most every interval
+    // (standard engine only, medical streams do not stabilize partial results)
+    private static final boolean PARTIAL_RESULTS_STABILIZATION = Boolean.parseBoolean(Optional.ofNullable(System.getenv("PARTIAL_RESULTS_STABILIZATION")).orElse("false"));
+    private static final String PARTIAL_RESULTS_STABILITY = Optional.ofNullable(System.getenv("PARTIAL_RESULTS_STABILITY")).orElse("high");
+    private static final long PARTIAL_RESULT_INTERVAL_MS = Long.parseLong(Optional.ofNullable(System.getenv("PARTIAL_RESULT_INTERVAL_MS")).orElse("1000"));
+    // Duration of the recent audio of each track sent again to Transcribe when a stream is retried
+    private static final long REPLAY_BUFFER_MS = Long.parseLong(Optional.ofNullable(System.getenv("REPLAY_BUFFER_MS")).orElse("5000"));
+    // Calls still going shortly before the Lambda time limit are handed over to a new invocation, this long before it
+    private static final boolean CONTINUATION_ENABLED = Boolean.parseBoolean(Optional.ofNullable(System.getenv("CONTINUATION_ENABLED")).orElse("false"));
+    private static final long CONTINUATION_MARGIN_MS = Long.parseLong(Optional.ofNullable(System.getenv("CONTINUATION_MARGIN_MS")).orElse("20000"));
+    // Time kept after the deadline of the invocation, before its time limit, to close the streams of the call
+    private static final long DEADLINE_RESERVE_MS = Long.parseLong(Optional.ofNullable(System.getenv("DEADLINE_RESERVE_MS")).orElse("5000"));
+    // Time held back after the deadline of the invocation to deliver the transcript segments still queued, even when the tracks timed out
+    private static final long FLUSH_RESERVE_MS = Long.parseLong(Optional.ofNullable(System.getenv("FLUSH_RESERVE_MS")).orElse("3000"));
+    // The KVS stream is no longer read this long before the deadline, for Transcribe to send the final results of the audio already sent
+    private static final long INGESTION_STOP_MARGIN_MS = Long.parseLong(Optional.ofNullable(System.getenv("INGESTION_STOP_MARGIN_MS")).orElse("10000"));
+    // Transcript segments of a call waiting for delivery to SCRT, beyond which the overflow policy drops one of them
+    private static final int SCRT_DELIVERY_QUEUE_CAPACITY = Integer.parseInt(Optional.ofNullable(System.getenv("SCRT_DELIVERY_QUEUE_CAPACITY")).orElse("256"));
+    private static final ScrtDeliveryPipeline.OverflowPolicy SCRT_DELIVERY_OVERFLOW_POLICY = ScrtDeliveryPipeline.OverflowPolicy.valueOf(
+            Optional.ofNullable(System.getenv("SCRT_DELIVERY_OVERFLOW_POLICY")).orElse("DROP_OLDEST"));
+    // Segments of a call queued together are coalesced into a request to the bulk messages API of SCRT, of at most
+    // SCRT_BATCH_MAX_SIZE segments, each of which waits at most SCRT_BATCH_MAX_DELAY_MS for the others
+    private static final boolean SCRT_BATCHING = Boolean.parseBoolean(Optional.ofNullable(System.getenv("SCRT_BATCHING")).orElse("false"));
+    private static final int SCRT_BATCH_MAX_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("SCRT_BATCH_MAX_SIZE")).orElse("10"));
+    private static final long SCRT_BATCH_MAX_DELAY_MS = Long.parseLong(Optional.ofNullable(System.getenv("SCRT_BATCH_MAX_DELAY_MS")).orElse("300"));
+    // Time since their submission during which the segments throttled by SCRT are sent again
+    private static final long SCRT_RETRY_MAX_AGE_MS = Long.parseLong(Optional.ofNullable(System.getenv("SCRT_RETRY_MAX_AGE_MS")).orElse("30000"));
+    // Segments SCRT failed to take kept in an outbox on the local storage of the container, and sent again later
+    private static final boolean SCRT_OUTBOX_ENABLED = Boolean.parseBoolean(Optional.ofNullable(System.getenv("SCRT_OUTBOX_ENABLED")).orElse("false"));
+    // Threads shared by the audio pumps of all the tracks and invocations of the container
+    private static final int AUDIO_PUMP_THREADS = Integer.parseInt(Optional.ofNullable(System.getenv("AUDIO_PUMP_THREADS")).orElse("8"));
+    private static final AudioPumpExecutor AUDIO_PUMPS = new AudioPumpExecutor(AUDIO_PUMP_THREADS);
     public static final MetricsUtil metricsUtil = new MetricsUtil(AmazonCloudWatchClientBuilder.defaultClient());
     private static final DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
     private TranscribedSegmentWriter fromCustomerSegmentWriter = null;
@@ -73,7 +137,7 @@ public class KVSTranscribeStreamingService implements RequestHandler<Transcripti
 
             startKVSToTranscribeStreaming(request.getInstanceARN(), request.getStreamARN(), request.getStartFragmentNum(), request.getVoiceCallId(), request.getLanguageCode(),
                     request.getAudioStartTimestamp(), request.getCustomerPhoneNumber(), request.isStreamAudioFromCustomer(), request.isStreamAudioToCustomer(), request.getEngine(),
-                    request.getVocabularyName(), request.getVocabularyFilterName(), request.getVocabularyFilterMethod(), request.getSpecialty());
+                    request.getVocabularyName(), request.getVocabularyFilterName(), request.getVocabularyFilterMethod(), request.getSpecialty(), request, context);
             SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.handleRequest", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "End Handle Request", loggingContext);
 
             return "{ \"result\": \"Success\" }";
@@ -91,110 +155,285 @@ public class KVSTranscribeStreamingService implements RequestHandler<Transcripti
      * @param startFragmentNum
      * @param voiceCallId
      * @param languageCode
+     * @param request           request of the invocation, continued by the next one for calls outlasting it
+     * @param context           context of the invocation, which gives the deadline shared by all its tracks
      * @throws Exception
      */
     private void startKVSToTranscribeStreaming(String instanceARN, String streamARN, String startFragmentNum, String voiceCallId, Optional<String> languageCode,
                                                long audioStartTimestamp, String customerPhoneNumber, boolean isStreamAudioFromCustomerEnabled, boolean isStreamAudioToCustomerEnabled, String engine,
-                                               Optional<String> vocabularyName, Optional<String> vocabularyFilterName, Optional<String> vocabularyFilterMethod, Optional<String> specialty) throws Exception {
+                                               Optional<String> vocabularyName, Optional<String> vocabularyFilterName, Optional<String> vocabularyFilterMethod, Optional<String> specialty,
+                                               TranscriptionRequest request, Context context) throws Exception {
     	SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.startKVSToTranscribeStreaming", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "START KVS Transcribe Streaming", null);
-        fromCustomerSegmentWriter = new TranscribedSegmentWriter(instanceARN, voiceCallId, true, audioStartTimestamp, customerPhoneNumber);
-        toCustomerSegmentWriter = new TranscribedSegmentWriter(instanceARN, voiceCallId, false, audioStartTimestamp, customerPhoneNumber);
-
     	String streamName = streamARN.substring(streamARN.indexOf("/") + 1, streamARN.lastIndexOf("/"));
+        InvocationDeadline deadline = InvocationDeadline.fromContext(context, DEADLINE_RESERVE_MS, FLUSH_RESERVE_MS);
+        // connect to Transcribe while GetMedia is set up
+        TRANSCRIBE_CLIENT.connect();
 
-        KVSStreamTrackObject kvsStreamTrackObjectFromCustomer = null;
-        KVSStreamTrackObject kvsStreamTrackObjectToCustomer = null;
-
+        boolean dualChannel = DUAL_CHANNEL_TRANSCRIPTION && isStreamAudioFromCustomerEnabled && isStreamAudioToCustomerEnabled;
+        List<String> trackNames = new ArrayList<>();
         if (isStreamAudioFromCustomerEnabled) {
-            kvsStreamTrackObjectFromCustomer = getKVSStreamTrackObject(streamName, startFragmentNum, KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName(), voiceCallId);
+            trackNames.add(KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName());
         }
         if (isStreamAudioToCustomerEnabled) {
-            kvsStreamTrackObjectToCustomer = getKVSStreamTrackObject(streamName, startFragmentNum, KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName(), voiceCallId);
+            trackNames.add(KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName());
+        }
+
+        // Both tracks are read from a single GetMedia call and demultiplexed
+        KVSReadAheadBuffer readAheadBuffer = null;
+        ResumableKVSFrameSource frameSource = null;
+        KVSTrackDemultiplexer demultiplexer = null;
+        if (!trackNames.isEmpty()) {
+            frameSource = new ResumableKVSFrameSource(
+                    (fragmentNumber, startSelectorType) -> getKVSFrameSource(streamName, fragmentNumber, startSelectorType),
+                    startFragmentNum, request.getStartSelectorType().orElse(START_SELECTOR_TYPE), KVS_MAX_RECONNECTS, metricsUtil);
+            if (request.getContinuation() > 0) {
+                frameSource.setHandoffTimestamp(request.getHandoffTimestamp());
+            }
+            demultiplexer = new KVSTrackDemultiplexer(frameSource, voiceCallId, trackNames, AUDIO_CHUNK_DURATION_MS,
+                    dualChannel, metricsUtil);
+            readAheadBuffer = new KVSReadAheadBuffer(demultiplexer, voiceCallId, trackNames, READ_AHEAD_CHUNKS, metricsUtil);
+            readAheadBuffer.start();
         }
+
+        // Each track is read through its own silence gate and replay buffer, which also time its transcripts.
+        // In dual-channel mode, the tracks are interleaved and share them
+        SilenceGate fromCustomerGate = null;
+        SilenceGate toCustomerGate = null;
+        AudioReplayBuffer fromCustomerReplay = null;
+        AudioReplayBuffer toCustomerReplay = null;
+        if (dualChannel) {
+            DualChannelInterleaver interleaver = new DualChannelInterleaver(readAheadBuffer,
+                    KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName(), KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName());
+            fromCustomerGate = new SilenceGate(interleaver, DualChannelInterleaver.DUAL_CHANNEL_TRACK, 2, SILENCE_GATING,
+                    SILENCE_GATE_RMS_THRESHOLD, SILENCE_GATE_HOLD_MS, SILENCE_GATE_KEEP_ALIVE_MS, metricsUtil);
+            fromCustomerReplay = new AudioReplayBuffer(fromCustomerGate, DualChannelInterleaver.DUAL_CHANNEL_TRACK, 2, REPLAY_BUFFER_MS, metricsUtil);
+            toCustomerGate = fromCustomerGate;
+            toCustomerReplay = fromCustomerReplay;
+        } else if (isStreamAudioFromCustomerEnabled) {
+            fromCustomerGate = getSilenceGate(readAheadBuffer, KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName());
+            fromCustomerReplay = new AudioReplayBuffer(fromCustomerGate, KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName(), REPLAY_BUFFER_MS, metricsUtil);
+        }
+        if (isStreamAudioToCustomerEnabled && !dualChannel) {
+            toCustomerGate = getSilenceGate(readAheadBuffer, KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName());
+            toCustomerReplay = new AudioReplayBuffer(toCustomerGate, KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName(), REPLAY_BUFFER_MS, metricsUtil);
+        }
+        boolean partialResults = PARTIAL_RESULTS_STABILIZATION && !engine.equals("medical");
+        PartialResultDebouncer fromCustomerPartials = partialResults ? new PartialResultDebouncer(PARTIAL_RESULT_INTERVAL_MS) : null;
+        PartialResultDebouncer toCustomerPartials = partialResults ? new PartialResultDebouncer(PARTIAL_RESULT_INTERVAL_MS) : null;
+        ScrtOutbox outbox = SCRT_OUTBOX_ENABLED ? ScrtOutbox.getDefault() : null;
+        ScrtMessageDeduplicator deduplicator = ScrtMessageDeduplicator.getDefault();
+        // the token is shared by the container, and signed while Transcribe starts on a cold one
+        ScrtTokenProvider.getDefault().prefetch();
+        // the segments of both tracks are delivered to SCRT in order, off the threads of the Transcribe responses
+        ScrtDeliveryPipeline delivery = ScrtDeliveryPipeline.newBuilder()
+                .setVoiceCallId(voiceCallId)
+                .setInstanceARN(instanceARN)
+                .setClient(ScrtClient.getDefault())
+                .setTokenProvider(ScrtTokenProvider.getDefault())
+                .setCapacity(SCRT_DELIVERY_QUEUE_CAPACITY)
+                .setOverflowPolicy(SCRT_DELIVERY_OVERFLOW_POLICY)
+                .setMaxBatchSize(SCRT_BATCHING ? SCRT_BATCH_MAX_SIZE : 1)
+                .setMaxBatchDelayMs(SCRT_BATCH_MAX_DELAY_MS)
+                .setRateLimiter(ScrtRateLimiter.getDefault())
+                .setRetryMaxAgeMs(SCRT_RETRY_MAX_AGE_MS)
+                .setOutbox(outbox)
+                .setDeduplicator(deduplicator)
+                .build();
+        fromCustomerSegmentWriter = TranscribedSegmentWriter.newBuilder()
+                .setInstanceARN(instanceARN)
+                .setVoiceCallId(voiceCallId)
+                .setFromCustomer(true)
+                .setAudioStartTimestamp(audioStartTimestamp)
+                .setCustomerPhoneNumber(customerPhoneNumber)
+                .setSilenceGate(fromCustomerGate)
+                .setReplayBuffer(fromCustomerReplay)
+                .setPartialResults(fromCustomerPartials)
+                .setDelivery(delivery)
+                .build();
+        toCustomerSegmentWriter = TranscribedSegmentWriter.newBuilder()
+                .setInstanceARN(instanceARN)
+                .setVoiceCallId(voiceCallId)
+                .setFromCustomer(false)
+                .setAudioStartTimestamp(audioStartTimestamp)
+                .setCustomerPhoneNumber(customerPhoneNumber)
+                .setSilenceGate(toCustomerGate)
+                .setReplayBuffer(toCustomerReplay)
+                .setPartialResults(toCustomerPartials)
+                .setDelivery(delivery)
+                .build();
+        fromCustomerSegmentWriter.resumeFrom(request.getFromCustomerAudioOffsetMs(), request.getFromCustomerLastEndTime());
+        toCustomerSegmentWriter.resumeFrom(request.getToCustomerAudioOffsetMs(), request.getToCustomerLastEndTime());
+        ContinuationHandoff handoff = null;
+        if (CONTINUATION_ENABLED && frameSource != null) {
+            handoff = new ContinuationHandoff(request, demultiplexer, fromCustomerSegmentWriter, toCustomerSegmentWriter,
+                    new LambdaContinuationInvoker(context.getInvokedFunctionArn(), getTranscribeCredentials()), metricsUtil);
+            handoff.schedule(frameSource, deadline, CONTINUATION_MARGIN_MS);
+        }
+        ScheduledFuture<?> ingestionStop = frameSource == null ? null : scheduleIngestionStop(frameSource, deadline, voiceCallId);
+        // a publisher per Transcribe session: the interleaved stream in dual-channel mode, a track otherwise
+        KVSAudioStreamPublisher fromCustomerPublisher = fromCustomerReplay == null ? null : new KVSAudioStreamPublisher(fromCustomerReplay,
+                dualChannel ? DualChannelInterleaver.DUAL_CHANNEL_TRACK : KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName());
+        KVSAudioStreamPublisher toCustomerPublisher = isStreamAudioToCustomerEnabled && !dualChannel
+                ? new KVSAudioStreamPublisher(toCustomerReplay, KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName()) : null;
         SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.startKVSToTranscribeStreaming", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "START Initialize Transcribe client ", null);
 
-        try (TranscribeStreamingRetryClient client = new TranscribeStreamingRetryClient(getTranscribeCredentials(), TRANSCRIBE_ENDPOINT, TRANSCRIBE_REGION, metricsUtil)) {
+        try (TranscribeStreamingRetryClient client = new TranscribeStreamingRetryClient(TRANSCRIBE_CLIENT.get(), metricsUtil)) {
             CompletableFuture<Void> fromCustomerResult = null;
             CompletableFuture<Void> toCustomerResult = null;
             SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.startKVSToTranscribeStreaming", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "END Initialize Transcribe client ", null);
 
-            if (kvsStreamTrackObjectFromCustomer != null) {
+            if (dualChannel) {
+                // the single stream of the call, whose metrics are recorded with those of FROM_CUSTOMER
+                SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.getStartStreamingTranscriptionFuture", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "START Get Transcribing Future for dual-channel stream", null);
+                Map<String, TranscribedSegmentWriter> channelWriters = new HashMap<>();
+                channelWriters.put(DualChannelInterleaver.LEFT_CHANNEL_ID, fromCustomerSegmentWriter);
+                channelWriters.put(DualChannelInterleaver.RIGHT_CHANNEL_ID, toCustomerSegmentWriter);
+                fromCustomerResult = getStartStreamingTranscriptionFuture(fromCustomerPublisher,
+                        languageCode, voiceCallId, client, new StreamTranscriptionBehaviorImpl(channelWriters), DualChannelInterleaver.DUAL_CHANNEL_TRACK, engine, vocabularyName, vocabularyFilterName, vocabularyFilterMethod, specialty, true);
+                SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.getStartStreamingTranscriptionFuture", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "END Get Transcribing Future for dual-channel stream", null);
+            } else if (isStreamAudioFromCustomerEnabled) {
             	SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.getStartStreamingTranscriptionFuture", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "START Get Transcribing Future for FROM_CUSTOMER stream", null);
-                fromCustomerResult = getStartStreamingTranscriptionFuture(kvsStreamTrackObjectFromCustomer,
-                        languageCode, voiceCallId, client, fromCustomerSegmentWriter, KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName(), engine, vocabularyName, vocabularyFilterName, vocabularyFilterMethod, specialty);
+                fromCustomerResult = getStartStreamingTranscriptionFuture(fromCustomerPublisher,
+                        languageCode, voiceCallId, client, new StreamTranscriptionBehaviorImpl(fromCustomerSegmentWriter), KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName(), engine, vocabularyName, vocabularyFilterName, vocabularyFilterMethod, specialty, false);
                 SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.getStartStreamingTranscriptionFuture", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "START Get Transcribing Future for FROM_CUSTOMER stream", null);
             }
 
-            if (kvsStreamTrackObjectToCustomer != null) {
+            if (isStreamAudioToCustomerEnabled && !dualChannel) {
             	SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.getStartStreamingTranscriptionFuture", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "START Get Transcribing Future for TO_CUSTOMER stream", null);
-                toCustomerResult = getStartStreamingTranscriptionFuture(kvsStreamTrackObjectToCustomer,
-                        languageCode, voiceCallId, client, toCustomerSegmentWriter, KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName(), engine, vocabularyName, vocabularyFilterName, vocabularyFilterMethod, specialty);
+                toCustomerResult = getStartStreamingTranscriptionFuture(toCustomerPublisher,
+                        languageCode, voiceCallId, client, new StreamTranscriptionBehaviorImpl(toCustomerSegmentWriter), KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName(), engine, vocabularyName, vocabularyFilterName, vocabularyFilterMethod, specialty, false);
                 SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.getStartStreamingTranscriptionFuture", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "START Get Transcribing Future for TO_CUSTOMER stream", null);
             }
 
             // Synchronous wait for stream to close, and close client connection
-            // Timeout of 890 seconds because the Lambda function can be run for at most 15 mins (~890 secs)
+            // Both tracks are waited for until the deadline of the invocation, ahead of the time limit of the function
             if (null != fromCustomerResult) {
-                fromCustomerResult.get(890, TimeUnit.SECONDS);
+                deadline.await(fromCustomerResult);
+                fromCustomerGate.recordMetrics();
+                fromCustomerReplay.recordMetrics();
             }
 
             if (null != toCustomerResult) {
-                toCustomerResult.get(890, TimeUnit.SECONDS);
+                deadline.await(toCustomerResult);
+                toCustomerGate.recordMetrics();
+                toCustomerReplay.recordMetrics();
             }
         } catch (TimeoutException e) {
+            metricsUtil.recordMetric("InvocationDeadlineExceeded", 1);
          	SCVLoggingUtil.error("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.startKVSToTranscribeStreaming", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION, e.getMessage(), null);
         } catch (Exception e) {
          	SCVLoggingUtil.error("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.startKVSToTranscribeStreaming", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION, e.getMessage(), null);
             throw e;
+        } finally {
+            // no pump of this call outlives it, even when a transcription timed out
+            if (handoff != null) {
+                handoff.cancel();
+            }
+            if (ingestionStop != null) {
+                ingestionStop.cancel(false);
+            }
+            if (fromCustomerPublisher != null) {
+                fromCustomerPublisher.close();
+            }
+            if (toCustomerPublisher != null) {
+                toCustomerPublisher.close();
+            }
+            if (readAheadBuffer != null) {
+                readAheadBuffer.close();
+            }
+            // the segments still queued are delivered within the flush reserve, which leaves its own reserve to the rest of the cleanup
+            delivery.flush(deadline.getFlushRemainingMs());
+            delivery.recordMetrics(metricsUtil);
+            if (outbox != null) {
+                // the outbox is synced, and what SCRT takes of it sent before the container may be frozen
+                if (!outbox.drain(deadline.getFlushRemainingMs())) {
+                    SCVLoggingUtil.warn("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.startKVSToTranscribeStreaming", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION,
+                            outbox.getBytes() + " bytes of the SCRT outbox left to the next invocations", null);
+                }
+                outbox.recordMetrics(metricsUtil);
+            }
+            deduplicator.recordMetrics(metricsUtil);
+            AUDIO_PUMPS.recordMetrics(metricsUtil);
+            if (partialResults) {
+                recordPartialResultMetrics(fromCustomerPartials);
+                recordPartialResultMetrics(toCustomerPartials);
+            }
         }
         SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.startKVSToTranscribeStreaming", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "END KVS Transcribe Streaming", null);
     }
 
     /**
-     * Create all objects necessary for KVS streaming from each track
+     * Stops reading the KVS stream shortly before the deadline, for calls still going then. The tracks end as with the
+     * end of the call: the audio already read is sent, then the Transcribe streams are completed, and wait for the
+     * final results of that audio to be sent
+     */
+    private ScheduledFuture<?> scheduleIngestionStop(ResumableKVSFrameSource frameSource, InvocationDeadline deadline, String voiceCallId) {
+        return deadline.runBefore(INGESTION_STOP_MARGIN_MS, () -> {
+            SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.scheduleIngestionStop", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE,
+                    "Invocation deadline near, stopping KVS stream of contact " + voiceCallId, null);
+            metricsUtil.recordMetric("InvocationDeadlineIngestionStops", 1);
+            frameSource.stop();
+        });
+    }
+
+    /**
+     * @return gate dropping the long silences of a track when SILENCE_GATING is enabled, measuring them otherwise
+     */
+    private SilenceGate getSilenceGate(KVSAudioChunkSource audioChunkSource, String track) {
+        return new SilenceGate(audioChunkSource, track, SILENCE_GATING, SILENCE_GATE_RMS_THRESHOLD,
+                SILENCE_GATE_HOLD_MS, SILENCE_GATE_KEEP_ALIVE_MS, metricsUtil);
+    }
+
+    private void recordPartialResultMetrics(PartialResultDebouncer partialResults) {
+        metricsUtil.recordMetric("PartialResultRevisionsSent", partialResults.getSentRevisions());
+        metricsUtil.recordMetric("PartialResultRevisionsSkipped", partialResults.getSkippedRevisions());
+    }
+
+    /**
+     * Create all objects necessary for KVS streaming, shared by all the tracks of the stream
      *
      * @param streamName
      * @param startFragmentNum
-     * @param trackName
-     * @param contactId
-     * @return object necessary for KVS streaming from each track
-     * @throws FileNotFoundException
+     * @param startSelectorType
+     * @return source of the audio frames of the stream, parsed with the MKV parser selected by MKV_PARSER
      */
-    private KVSStreamTrackObject getKVSStreamTrackObject(String streamName, String startFragmentNum, String trackName,
-                                                         String contactId) throws FileNotFoundException {
-    	SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.getKVSStreamTrackObject", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "START Get KVS Stream Tracking Object for Track " + trackName, null);
-
-        InputStream kvsInputStream = KVSUtils.getInputStreamFromKVS(streamName, REGION, startFragmentNum, getAWSCredentials(), START_SELECTOR_TYPE);
-        StreamingMkvReader streamingMkvReader = StreamingMkvReader.createDefault(new InputStreamParserByteSource(kvsInputStream));
-
-        FragmentMetadataVisitor.BasicMkvTagProcessor tagProcessor = new FragmentMetadataVisitor.BasicMkvTagProcessor();
-        FragmentMetadataVisitor fragmentVisitor = FragmentMetadataVisitor.create(Optional.of(tagProcessor));
-        SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.getKVSStreamTrackObject", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "END Get KVS Stream Tracking Object for Track " + trackName, null);
+    private KVSFrameSource getKVSFrameSource(String streamName, String startFragmentNum, String startSelectorType) {
+    	SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.getKVSFrameSource", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "START Get KVS Frame Source with " + MKV_PARSER + " parser", null);
+
+        InputStream kvsInputStream = KVSUtils.getInputStreamFromKVS(streamName, REGION, startFragmentNum, getAWSCredentials(), startSelectorType);
+        KVSTagIndex tagIndex = new KVSTagIndex();
+        KVSFrameSource frameSource;
+        if (MKV_PARSER_CONNECT.equalsIgnoreCase(MKV_PARSER)) {
+            frameSource = new KVSConnectMkvParser(kvsInputStream, tagIndex);
+        } else {
+            BlockingParserByteSource byteSource = new BlockingParserByteSource(kvsInputStream);
+            StreamingMkvReader streamingMkvReader = StreamingMkvReader.createDefault(byteSource);
+            FragmentMetadataVisitor fragmentVisitor = FragmentMetadataVisitor.create(Optional.of(tagIndex));
+            frameSource = new KVSStreamTrackObject(kvsInputStream, byteSource, streamingMkvReader, tagIndex, fragmentVisitor,
+                    new KVSTrackCache(fragmentVisitor));
+        }
+        SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.KVSTranscribeStreamingService.getKVSFrameSource", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "END Get KVS Frame Source", null);
 
-        return new KVSStreamTrackObject(kvsInputStream, streamingMkvReader, tagProcessor, fragmentVisitor, trackName);
+        return frameSource;
     }
 
 
-    private CompletableFuture<Void> getStartStreamingTranscriptionFuture(KVSStreamTrackObject kvsStreamTrackObject, Optional<String> languageCodeOptional, String contactId, TranscribeStreamingRetryClient client,
-                                                                         TranscribedSegmentWriter transcribedSegmentWriter, String channel, String engine, Optional<String> vocabularyName,
-                                                                         Optional<String> vocabularyFilterName, Optional<String> vocabularyFilterMethod, Optional<String> specialty) {
+    private CompletableFuture<Void> getStartStreamingTranscriptionFuture(KVSAudioStreamPublisher publisher, Optional<String> languageCodeOptional, String contactId, TranscribeStreamingRetryClient client,
+                                                                         StreamTranscriptionBehaviorImpl responseHandler, String channel, String engine, Optional<String> vocabularyName,
+                                                                         Optional<String> vocabularyFilterName, Optional<String> vocabularyFilterMethod, Optional<String> specialty,
+                                                                         boolean dualChannel) {
     	String languageCode = languageCodeOptional.isPresent() ? languageCodeOptional.get() : LanguageCode.EN_US.toString();
         TranscribeStreamingRequest request;
         if (engine.equals("medical")) {
-            request = getMedicalRequest(languageCode, specialty, vocabularyName);
+            request = getMedicalRequest(languageCode, specialty, vocabularyName, dualChannel);
         } else {
-            request = getStandardRequest(languageCode, vocabularyName, vocabularyFilterName, vocabularyFilterMethod);
+            request = getStandardRequest(languageCode, vocabularyName, vocabularyFilterName, vocabularyFilterMethod, dualChannel);
         }
 
         return client.startStreamTranscription(
                 request,
-                new KVSAudioStreamPublisher(
-                        kvsStreamTrackObject.getStreamingMkvReader(),
-                        contactId,
-                        kvsStreamTrackObject.getTagProcessor(),
-                        kvsStreamTrackObject.getFragmentVisitor(),
-                        kvsStreamTrackObject.getTrackName()),
-                new StreamTranscriptionBehaviorImpl(transcribedSegmentWriter),
+                publisher,
+                responseHandler,
                 channel,
                 engine
         );
@@ -223,9 +462,11 @@ public class KVSTranscribeStreamingService implements RequestHandler<Transcripti
      * @param vocabularyName (optional) the name of a custom vocabulary to improve transcription
      * @param vocabularyFilterName (optional) the name of list of words to be filtered from the transcription
      * @param vocabularyFilterMethod (optional) how words should be filted, used with vocabularyFilterName
+     * @param dualChannel whether the audio holds both tracks of the call, as two channels to be transcribed separately
      * @return StartStreamTranscriptionRequest to be used to open a stream to transcription service
      */
-    private static StartStreamTranscriptionRequest getStandardRequest(String languageCode, Optional<String> vocabularyName, Optional<String> vocabularyFilterName, Optional<String> vocabularyFilterMethod) {
+    private static StartStreamTranscriptionRequest getStandardRequest(String languageCode, Optional<String> vocabularyName, Optional<String> vocabularyFilterName, Optional<String> vocabularyFilterMethod,
+                                                                      boolean dualChannel) {
         StartStreamTranscriptionRequest.Builder builder = StartStreamTranscriptionRequest.builder();
         builder.languageCode(languageCode);
         builder.mediaEncoding(MediaEncoding.PCM);
@@ -238,6 +479,14 @@ public class KVSTranscribeStreamingService implements RequestHandler<Transcripti
             builder.vocabularyFilterName(vocabularyFilterName.get());
             builder.vocabularyFilterMethod(VocabularyFilterMethod.fromValue(vocabularyFilterMethod.isPresent() ? vocabularyFilterMethod.get() : VocabularyFilterMethod.MASK.toString()));
         }
+        if (dualChannel) {
+            builder.enableChannelIdentification(true);
+            builder.numberOfChannels(2);
+        }
+        if (PARTIAL_RESULTS_STABILIZATION) {
+            builder.enablePartialResultsStabilization(true);
+            builder.partialResultsStability(PartialResultsStability.fromValue(PARTIAL_RESULTS_STABILITY.toLowerCase()));
+        }
         return builder.build();
     }
 
@@ -247,9 +496,11 @@ public class KVSTranscribeStreamingService implements RequestHandler<Transcripti
      * @param languageCode the language code to be used for transcription
      * @param specialty (optional) the area of medicine being talked about
      * @param vocabularyName (optional) the name of a custom vocabulary to improve transcription
+     * @param dualChannel whether the audio holds both tracks of the call, as two channels to be transcribed separately
      * @return StartMedicalStreamTranscriptionRequest to be used to open a stream to transcription service
      */
-    private static StartMedicalStreamTranscriptionRequest getMedicalRequest(String languageCode, Optional<String> specialty, Optional<String> vocabularyName) {
+    private static StartMedicalStreamTranscriptionRequest getMedicalRequest(String languageCode, Optional<String> specialty, Optional<String> vocabularyName,
+                                                                            boolean dualChannel) {
         StartMedicalStreamTranscriptionRequest.Builder builder = StartMedicalStreamTranscriptionRequest.builder();
         builder.languageCode(languageCode);
         builder.mediaEncoding(MediaEncoding.PCM);
@@ -260,34 +511,54 @@ public class KVSTranscribeStreamingService implements RequestHandler<Transcripti
         if (vocabularyName.isPresent()){
             builder.vocabularyName(vocabularyName.get());
         }
+        if (dualChannel) {
+            builder.enableChannelIdentification(true);
+            builder.numberOfChannels(2);
+        }
         return builder.build();
     }
 
     /**
      * KVSAudioStreamPublisher implements audio stream publisher.
-     * It emits audio events from a KVS stream asynchronously in a separate thread
+     * It emits audio events of a single track from a KVS stream asynchronously on the shared audio pumps.
+     * Each Transcribe retry subscribes again, which cancels the subscription of the previous attempt and starts
+     * the new one with the audio kept for replay
      */
     private static class KVSAudioStreamPublisher implements Publisher<AudioStream> {
-        private final StreamingMkvReader streamingMkvReader;
-        private String contactId;
-        private OutputStream outputStream;
-        private FragmentMetadataVisitor.BasicMkvTagProcessor tagProcessor;
-        private FragmentMetadataVisitor fragmentVisitor;
-        private String track;
-
-        private KVSAudioStreamPublisher(StreamingMkvReader streamingMkvReader, String contactId,
-                                        FragmentMetadataVisitor.BasicMkvTagProcessor tagProcessor, FragmentMetadataVisitor fragmentVisitor,
-                                        String track) {
-            this.streamingMkvReader = streamingMkvReader;
-            this.contactId = contactId;
-            this.tagProcessor = tagProcessor;
-            this.fragmentVisitor = fragmentVisitor;
+        private final AudioReplayBuffer replayBuffer;
+        private final String track;
+        private KVSByteToAudioEventSubscription subscription;
+        private boolean closed = false;
+
+        private KVSAudioStreamPublisher(AudioReplayBuffer replayBuffer, String track) {
+            this.replayBuffer = replayBuffer;
             this.track = track;
         }
 
         @Override
         public void subscribe(Subscriber<? super AudioStream> s) {
-            s.onSubscribe(new KVSByteToAudioEventSubscription(s, streamingMkvReader, contactId, tagProcessor, fragmentVisitor, track));
+            KVSByteToAudioEventSubscription newSubscription;
+            synchronized (this) {
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+                newSubscription = new KVSByteToAudioEventSubscription(s, replayBuffer.startSession(), track, AUDIO_PUMPS);
+                subscription = newSubscription;
+                if (closed) {
+                    newSubscription.cancel();
+                }
+            }
+            s.onSubscribe(newSubscription);
+        }
+
+        /**
+         * Cancels the current subscription at the end of the invocation
+         */
+        private synchronized void close() {
+            closed = true;
+            if (subscription != null) {
+                subscription.cancel();
+            }
         }
     }
-}
+}
\ No newline at end of file
@@ -3,23 +3,15 @@ package com.amazonaws.kvstranscribestreaming;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.kinesisvideo.parser.ebml.MkvTypeInfos;
-import com.amazonaws.kinesisvideo.parser.mkv.Frame;
 import com.amazonaws.kinesisvideo.parser.mkv.MkvDataElement;
 import com.amazonaws.kinesisvideo.parser.mkv.MkvElement;
 import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
 import com.amazonaws.kinesisvideo.parser.mkv.MkvStartMasterElement;
-import com.amazonaws.kinesisvideo.parser.mkv.MkvValue;
 import com.amazonaws.kinesisvideo.parser.mkv.StreamingMkvReader;
-import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
-import com.amazonaws.kinesisvideo.parser.utilities.MkvTag;
-import com.amazonaws.kinesisvideo.parser.utilities.MkvTrackMetadata;
 import com.amazonaws.regions.Regions;
-import com.amazonaws.services.kinesisvideo.AmazonKinesisVideo;
 import com.amazonaws.services.kinesisvideo.AmazonKinesisVideoClientBuilder;
 import com.amazonaws.services.kinesisvideo.AmazonKinesisVideoMedia;
 import com.amazonaws.services.kinesisvideo.AmazonKinesisVideoMediaClientBuilder;
-import com.amazonaws.services.kinesisvideo.model.APIName;
-import com.amazonaws.services.kinesisvideo.model.GetDataEndpointRequest;
 import com.amazonaws.services.kinesisvideo.model.GetMediaRequest;
 import com.amazonaws.services.kinesisvideo.model.GetMediaResult;
 import com.amazonaws.services.kinesisvideo.model.StartSelector;
@@ -31,6 +23,7 @@ import org.slf4j.LoggerFactory;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static com.amazonaws.util.StringUtils.isNullOrEmpty;
 
@@ -71,137 +64,122 @@ public final class KVSUtils {
 
     private static final Logger logger = LoggerFactory.getLogger(KVSUtils.class);
 
-    /**
-     * Iterates thorugh all the tags and retrieves the Tag value for "ContactId" tag
-     *
-     * @param tagProcessor
-     * @return
-     */
-    private static String getTagFromStream(FragmentMetadataVisitor.BasicMkvTagProcessor tagProcessor, final String tagName) {
-        Iterator iter = tagProcessor.getTags().iterator();
-        while (iter.hasNext()) {
-            MkvTag tag = (MkvTag) iter.next();
-            if (tagName.equals(tag.getTagName())) {
-                return tag.getTagValue();
-            }
-        }
-        return null;
-    }
+    // How long the GetMedia endpoint of a stream is reused by warm invocations
+    private static final long KVS_ENDPOINT_CACHE_TTL_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("KVS_ENDPOINT_CACHE_TTL_SECONDS")).orElse("300"));
+
+    private static final KVSClientCache clientCache = new KVSClientCache(
+            () -> AmazonKinesisVideoClientBuilder.standard().build(),
+            (endpoint, region, awsCredentialsProvider) -> AmazonKinesisVideoMediaClientBuilder.standard()
+                    .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, region.getName()))
+                    .withCredentials(awsCredentialsProvider)
+                    .build(),
+            TimeUnit.SECONDS.toMillis(KVS_ENDPOINT_CACHE_TTL_SECONDS));
 
     /**
-     * Fetches the next ByteBuffer of size 1024 bytes from the KVS stream by parsing the frame from the MkvElement
-     * Each frame has a ByteBuffer having size 1024
+     * Fetches the next audio frame from the KVS stream by parsing the frame from the MkvElement, whichever track it
+     * belongs to. The track name of the frame is resolved from the track metadata collected by the fragment visitor.
+     *
+     * The frame data is not copied: it is a slice of the parser's buffer, which is only valid until the next element
+     * is read from the stream. Callers must consume or copy it before reading the next frame.
      *
-     * @param streamingMkvReader
-     * @param fragmentVisitor
-     * @param tagProcessor
+     * @param kvsStreamTrackObject objects reading the KVS stream
      * @param contactId
-     * @return next ByteBuffer of size 1024 bytes from the KVS stream 
+     * @return next audio frame from the KVS stream, or null when the stream has ended
      * @throws MkvElementVisitException
      */
-    public static ByteBuffer getByteBufferFromStream(StreamingMkvReader streamingMkvReader,
-                                                     FragmentMetadataVisitor fragmentVisitor,
-                                                     FragmentMetadataVisitor.BasicMkvTagProcessor tagProcessor,
-                                                     String contactId, String track) throws MkvElementVisitException {
+    public static KVSAudioFrame getAudioFrameFromStream(KVSStreamTrackObject kvsStreamTrackObject,
+                                                        String contactId) throws MkvElementVisitException {
+        StreamingMkvReader streamingMkvReader = kvsStreamTrackObject.getStreamingMkvReader();
+        BlockingParserByteSource byteSource = kvsStreamTrackObject.getByteSource();
+        KVSTagIndex tagIndex = kvsStreamTrackObject.getTagIndex();
+        KVSTrackCache trackCache = kvsStreamTrackObject.getTrackCache();
+
         while (streamingMkvReader.mightHaveNext()) {
-            Optional<MkvElement> mkvElementOptional = null;
+            Optional<MkvElement> mkvElementOptional;
             try {
                 mkvElementOptional = streamingMkvReader.nextIfAvailable();
-            } catch (Exception e) {
-                // do nothing
+                // the bytes received so far do not hold a whole element: wait for the stream instead of spinning
+                if (!mkvElementOptional.isPresent() && byteSource.available() == 0 && !byteSource.awaitMoreData()) {
+                    break;
+                }
+            } catch (RuntimeException e) {
+                throw new MkvElementVisitException("Failed to read KVS stream for contact " + contactId, e);
             }
-            
-            if (mkvElementOptional != null && mkvElementOptional.isPresent()) {
+
+            if (mkvElementOptional.isPresent()) {
                 MkvElement mkvElement = mkvElementOptional.get();
-                mkvElement.accept(fragmentVisitor);
+                mkvElement.accept(kvsStreamTrackObject.getFragmentVisitor());
                 // Validate that we are reading data only for the expected contactId at start of every mkv master element
                 if (MkvTypeInfos.EBML.equals(mkvElement.getElementMetaData().getTypeInfo())) {
                     if (mkvElement instanceof MkvStartMasterElement) {
-                        String contactIdFromStream = getTagFromStream(tagProcessor, "ContactId");
+                        String contactIdFromStream = tagIndex.getTagValue(KVSTagIndex.CONTACT_ID);
                         if (contactIdFromStream != null && !contactIdFromStream.equals(contactId)) {
-                            //expected Connect ContactId does not match the actual ContactId. End the streaming by returning an empty ByteBuffer
-                            return ByteBuffer.allocate(0);
+                            //expected Connect ContactId does not match the actual ContactId. End the streaming
+                            return null;
                         }
+                        // the tracks are collected again for the new fragment
+                        trackCache.invalidate();
                     }
+                } else if (MkvTypeInfos.TIMECODE.equals(mkvElement.getElementMetaData().getTypeInfo())) {
+                    kvsStreamTrackObject.setClusterTimecodeMs(readUnsigned(((MkvDataElement) mkvElement).getDataBuffer()));
                 } else if (MkvTypeInfos.SIMPLEBLOCK.equals(mkvElement.getElementMetaData().getTypeInfo())) {
-                    MkvDataElement dataElement = (MkvDataElement) mkvElement;
-                    Frame frame = ((MkvValue<Frame>) dataElement.getValueCopy()).getVal();
-                    ByteBuffer audioBuffer = frame.getFrameData();
-
-                    String isStopStreaming = getTagFromStream(tagProcessor, "STOP_STREAMING");
-                    if ("true".equals(isStopStreaming)) {
-                        return ByteBuffer.allocate(0);
+                    if (tagIndex.isStopStreaming()) {
+                        return null;
                     }
 
-                    long trackNumber = frame.getTrackNumber();
-                    MkvTrackMetadata metadata = fragmentVisitor.getMkvTrackMetadata(trackNumber);
-                    if (track.equals(metadata.getTrackName())) {
-                        return audioBuffer;
-                    } else if ("Track_audio/L16".equals(metadata.getTrackName()) && TrackName.AUDIO_FROM_CUSTOMER.getName().equals(track)) {
-                        // backwards compatibility
-                        return audioBuffer;
-                    }
-
-                    // do nothing
+                    // The frame is read in place from the parser's buffer instead of copying the whole element
+                    ByteBuffer audioBuffer = ((MkvDataElement) mkvElement).getDataBuffer().duplicate();
+                    audioBuffer.rewind();
+                    long trackNumber = readSimpleBlockTrackNumber(audioBuffer);
+                    long timecodeMs = kvsStreamTrackObject.getClusterTimecodeMs() == KVSAudioFrame.UNKNOWN_TIMECODE
+                            ? KVSAudioFrame.UNKNOWN_TIMECODE
+                            : kvsStreamTrackObject.getClusterTimecodeMs() + audioBuffer.getShort();
+                    // flags
+                    audioBuffer.get();
+
+                    return new KVSAudioFrame(trackCache.getTrackName(trackNumber), trackCache.getTrackMetadata(trackNumber), audioBuffer, timecodeMs);
                 }
             }
         }
 
-        return ByteBuffer.allocate(0);
+        return null;
     }
 
     /**
-     * Fetches ByteBuffer of provided size from the KVS stream by repeatedly calling {@link KVSUtils#getByteBufferFromStream}
-     * and concatenating the ByteBuffers to create a single chunk
+     * Reads the track number of a SimpleBlock, leaving the buffer positioned at its 16-bit relative timecode, followed
+     * by the flags and the frame data
      *
-     * @param streamingMkvReader
-     * @param fragmentVisitor
-     * @param tagProcessor
-     * @param contactId
-     * @param chunkSizeInKB
-     * @return ByteBuffer of provided size 
-     * @throws MkvElementVisitException
+     * @param simpleBlock data of the SimpleBlock element, positioned at its start
+     * @return track number of the frame
      */
-    public static ByteBuffer getByteBufferFromStream(StreamingMkvReader streamingMkvReader,
-                                                     FragmentMetadataVisitor fragmentVisitor,
-                                                     FragmentMetadataVisitor.BasicMkvTagProcessor tagProcessor,
-                                                     String contactId,
-                                                     int chunkSizeInKB,
-                                                     String track) throws MkvElementVisitException {
-
-        List<ByteBuffer> byteBufferList = new ArrayList<ByteBuffer>();
-
-        for (int i = 0; i < chunkSizeInKB; i++) {
-            ByteBuffer byteBuffer = KVSUtils.getByteBufferFromStream(streamingMkvReader, fragmentVisitor, tagProcessor, contactId, track);
-            if (byteBuffer.remaining() > 0) {
-                byteBufferList.add(byteBuffer);
-            } else {
-                break;
-            }
-        }
-
-        int length = 0;
-
-        for (ByteBuffer bb : byteBufferList) {
-            length += bb.remaining();
-        }
-
-        if (length == 0) {
-            return ByteBuffer.allocate(0);
+    private static long readSimpleBlockTrackNumber(ByteBuffer simpleBlock) {
+        int firstByte = simpleBlock.get() & 0xFF;
+        Validate.isTrue(firstByte != 0, "Invalid track number in SimpleBlock");
+        int length = Integer.numberOfLeadingZeros(firstByte) - 23;
+        long trackNumber = firstByte & (0xFF >> length);
+        for (int i = 1; i < length; i++) {
+            trackNumber = (trackNumber << 8) | (simpleBlock.get() & 0xFF);
         }
+        return trackNumber;
+    }
 
-        ByteBuffer combinedByteBuffer = ByteBuffer.allocate(length);
-
-        for (ByteBuffer bb : byteBufferList) {
-            combinedByteBuffer.put(bb);
+    /**
+     * @param data data of an unsigned integer element
+     * @return value of the element
+     */
+    private static long readUnsigned(ByteBuffer data) {
+        ByteBuffer value = data.duplicate();
+        value.rewind();
+        long result = 0;
+        while (value.hasRemaining()) {
+            result = (result << 8) | (value.get() & 0xFF);
         }
-
-        combinedByteBuffer.flip();
-        return combinedByteBuffer;
+        return result;
     }
 
     /**
-     * Makes a GetMedia call to KVS and retrieves the InputStream corresponding to the given streamName and startFragmentNum
+     * Makes a GetMedia call to KVS and retrieves the InputStream corresponding to the given streamName and startFragmentNum.
+     * The KVS clients and the data endpoint of the stream are reused across invocations, see {@link KVSClientCache}
      *
      * @param streamName
      * @param region
@@ -219,16 +197,8 @@ public final class KVSUtils {
         Validate.notNull(startFragmentNum);
         Validate.notNull(awsCredentialsProvider);
 
-        AmazonKinesisVideo amazonKinesisVideo = (AmazonKinesisVideo) AmazonKinesisVideoClientBuilder.standard().build();
-
-        String endPoint = amazonKinesisVideo.getDataEndpoint(new GetDataEndpointRequest()
-                .withAPIName(APIName.GET_MEDIA)
-                .withStreamName(streamName)).getDataEndpoint();
-
-        AmazonKinesisVideoMediaClientBuilder amazonKinesisVideoMediaClientBuilder = AmazonKinesisVideoMediaClientBuilder.standard()
-                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endPoint, region.getName()))
-                .withCredentials(awsCredentialsProvider);
-        AmazonKinesisVideoMedia amazonKinesisVideoMedia = amazonKinesisVideoMediaClientBuilder.build();
+        String endPoint = clientCache.getDataEndpoint(streamName);
+        AmazonKinesisVideoMedia amazonKinesisVideoMedia = clientCache.getMediaClient(endPoint, region, awsCredentialsProvider);
 
         StartSelector startSelector;
         startSelectorType = isNullOrEmpty(startSelectorType) ? "NOW" : startSelectorType;
@@ -247,9 +217,15 @@ public final class KVSUtils {
                 break;
         }
 
-        GetMediaResult getMediaResult = amazonKinesisVideoMedia.getMedia(new GetMediaRequest()
-                .withStreamName(streamName)
-                .withStartSelector(startSelector));
+        GetMediaResult getMediaResult;
+        try {
+            getMediaResult = amazonKinesisVideoMedia.getMedia(new GetMediaRequest()
+                    .withStreamName(streamName)
+                    .withStartSelector(startSelector));
+        } catch (RuntimeException e) {
+            clientCache.invalidate(streamName, endPoint, region, awsCredentialsProvider);
+            throw e;
+        }
 
         logger.info("GetMedia called on stream {} response {} requestId {}", streamName,
                 getMediaResult.getSdkHttpMetadata().getHttpStatusCode(),
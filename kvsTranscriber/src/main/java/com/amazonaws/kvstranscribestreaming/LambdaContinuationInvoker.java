@@ -0,0 +1,60 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.apache.commons.lang3.Validate;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.lambda.LambdaClient;
+import software.amazon.awssdk.services.lambda.model.InvocationType;
+import software.amazon.awssdk.services.lambda.model.InvokeRequest;
+import software.amazon.awssdk.services.lambda.model.InvokeResponse;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Starts the invocation continuing a call as an asynchronous invocation of the function running this one, through the
+ * Lambda Invoke API, with the credentials of the function.
+ *
+ * The function is addressed by its invoked ARN, so that the call carries on with the same version or alias.
+ */
+public class LambdaContinuationInvoker implements ContinuationHandoff.Invoker {
+
+    private static final Duration INVOKE_TIMEOUT = Duration.ofSeconds(5);
+
+    private final String functionArn;
+    private final Region region;
+    private final AwsCredentialsProvider credentialsProvider;
+
+    /**
+     * @param functionArn         invoked ARN of the function
+     * @param credentialsProvider credentials of the function
+     */
+    public LambdaContinuationInvoker(String functionArn, AwsCredentialsProvider credentialsProvider) {
+        this.functionArn = Validate.notNull(functionArn);
+        // arn:aws:lambda:<region>:<account>:function:<name>[:<qualifier>]
+        String[] arnParts = functionArn.split(":");
+        Validate.isTrue(arnParts.length >= 7, "Invalid function ARN " + functionArn);
+        this.region = Region.of(arnParts[3]);
+        this.credentialsProvider = Validate.notNull(credentialsProvider);
+    }
+
+    @Override
+    public void invoke(String payload) throws IOException {
+        // built for the hand-off only, which happens once per invocation at most
+        try (LambdaClient lambdaClient = LambdaClient.builder()
+                .region(region)
+                .credentialsProvider(credentialsProvider)
+                .overrideConfiguration(configuration -> configuration.apiCallTimeout(INVOKE_TIMEOUT))
+                .build()) {
+            InvokeResponse response = lambdaClient.invoke(InvokeRequest.builder()
+                    .functionName(functionArn)
+                    .invocationType(InvocationType.EVENT)
+                    .payload(SdkBytes.fromUtf8String(payload))
+                    .build());
+            if (response.statusCode() != 202) {
+                throw new IOException("Lambda invoke failed with status " + response.statusCode());
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.amazonaws.kvstranscribestreaming;
+
+/**
+ * Distribution of a non-negative value, such as a latency or a queue depth, in buckets of powers of two, recorded as
+ * its percentiles once the values of a call are in.
+ *
+ * A percentile is reported as the upper bound of its bucket, so it is at most twice the actual value, and at most the
+ * largest value recorded.
+ */
+public class MetricHistogram {
+    private static final int BUCKETS = 64;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long max = 0;
+
+    public synchronized void record(long value) {
+        value = Math.max(0, value);
+        counts[BUCKETS - Long.numberOfLeadingZeros(value)]++;
+        count++;
+        max = Math.max(max, value);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket of the percentile, 0 when no value was recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= Math.max(1, rank) && counts[bucket] > 0) {
+                long upperBound = bucket == 0 ? 0 : (1L << bucket) - 1;
+                return Math.min(upperBound, max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Records the 50th, 90th and 99th percentiles and the maximum, as metrics named after the histogram
+     */
+    public void recordMetrics(MetricsUtil metricsUtil, String name) {
+        if (getCount() == 0) {
+            return;
+        }
+        metricsUtil.recordMetric(name + "P50", getPercentile(50));
+        metricsUtil.recordMetric(name + "P90", getPercentile(90));
+        metricsUtil.recordMetric(name + "P99", getPercentile(99));
+        metricsUtil.recordMetric(name + "Max", getMax());
+    }
+}
@@ -0,0 +1,104 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.apache.commons.lang3.Validate;
+import software.amazon.awssdk.services.transcribestreaming.model.Item;
+import software.amazon.awssdk.services.transcribestreaming.model.ItemType;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which partial results of a track are sent to SCRT ahead of the final one, with partial-results
+ * stabilization enabled on the Transcribe stream.
+ *
+ * Only the stable words at the start of a partial result are sent, since Transcribe no longer changes them, and a
+ * revision of a result is sent at most once per interval, and only when its stable text grew. The final result is
+ * sent under the same message id, so that it replaces the last revision.
+ */
+public class PartialResultDebouncer {
+
+    // results whose final version never came are forgotten beyond this number
+    private static final int MAX_OPEN_RESULTS = 64;
+
+    private final long intervalMs;
+    private final Map<String, Revision> revisions = new LinkedHashMap<String, Revision>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Revision> eldest) {
+            return size() > MAX_OPEN_RESULTS;
+        }
+    };
+    private long sentRevisions = 0;
+    private long skippedRevisions = 0;
+
+    /**
+     * @param intervalMs minimum time between two revisions of the same result
+     */
+    public PartialResultDebouncer(long intervalMs) {
+        Validate.isTrue(intervalMs >= 0, "Partial result interval must not be negative");
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * @param resultId   id of the partial result
+     * @param stableText stable text of the result
+     * @param nowMs      current time
+     * @return whether the stable text is to be sent as a revision of the result
+     */
+    public synchronized boolean shouldSendPartial(String resultId, String stableText, long nowMs) {
+        if (stableText.isEmpty()) {
+            return false;
+        }
+        Revision last = revisions.get(resultId);
+        if (last != null && (stableText.equals(last.text) || nowMs - last.sentAtMs < intervalMs)) {
+            skippedRevisions++;
+            return false;
+        }
+        revisions.put(resultId, new Revision(stableText, nowMs));
+        sentRevisions++;
+        return true;
+    }
+
+    /**
+     * Forgets the revisions of a result once its final version is sent
+     */
+    public synchronized void onFinal(String resultId) {
+        revisions.remove(resultId);
+    }
+
+    public synchronized long getSentRevisions() {
+        return sentRevisions;
+    }
+
+    public synchronized long getSkippedRevisions() {
+        return skippedRevisions;
+    }
+
+    /**
+     * @param items items of the first alternative of a partial result
+     * @return text of the stable items at the start of the result
+     */
+    public static String getStableText(List<Item> items) {
+        StringBuilder text = new StringBuilder();
+        for (Item item : items) {
+            if (!Boolean.TRUE.equals(item.stable())) {
+                break;
+            }
+            if (text.length() > 0 && item.type() != ItemType.PUNCTUATION) {
+                text.append(' ');
+            }
+            text.append(item.content());
+        }
+        return text.toString();
+    }
+
+    private static class Revision {
+        private final String text;
+        private final long sentAtMs;
+
+        private Revision(String text, long sentAtMs) {
+            this.text = text;
+            this.sentAtMs = sentAtMs;
+        }
+    }
+}
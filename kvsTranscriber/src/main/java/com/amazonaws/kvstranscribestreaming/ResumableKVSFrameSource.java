@@ -0,0 +1,289 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Frame source that survives a broken GetMedia connection: when reading the stream fails, it calls GetMedia again
+ * from the last fragment it read audio from, using the FRAGMENT_NUMBER start selector, and carries on with the same
+ * track readers and Transcribe sessions.
+ *
+ * GetMedia restarts at the beginning of that fragment, so the frames of the fragment that were already returned
+ * before the failure are read again and dropped. The end of the stream, STOP_STREAMING and a change of contact are
+ * not failures, and end the source as before.
+ *
+ * For calls outlasting the invocation, {@link #stopAtNextFragment(Function)} ends the source at the start of the next
+ * fragment, once its number has been handed over to the invocation continuing the call from there, and
+ * {@link #stop()} ends it at the next frame, when the invocation runs out of time. The hand-off completes off the
+ * reading thread: the frames read in the meantime are held back, and dropped once the call is handed over, or
+ * returned when the hand-off fails.
+ */
+public class ResumableKVSFrameSource implements KVSFrameSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResumableKVSFrameSource.class);
+
+    private static final long RECONNECT_BACKOFF_MS = 200;
+    private static final String FRAGMENT_NUMBER_SELECTOR = "FRAGMENT_NUMBER";
+
+    /**
+     * Calls GetMedia and parses its payload
+     */
+    public interface Connector {
+        KVSFrameSource connect(String startFragmentNumber, String startSelectorType);
+    }
+
+    private final Connector connector;
+    private final String startFragmentNumber;
+    private final String startSelectorType;
+    private final int maxReconnects;
+    private final MetricsUtil metricsUtil;
+    private KVSFrameSource frameSource;
+
+    private String lastFragmentNumber;
+    private long framesReadInFragment = 0;
+    private String skippedFragmentNumber;
+    private long framesToSkip = 0;
+
+    private int reconnects = 0;
+    private long duplicateFrames = 0;
+    private long closedSourcesIdleWakeups = 0;
+    private long failureNanos = 0;
+
+    private volatile Function<String, CompletableFuture<Boolean>> handOff;
+    private CompletableFuture<Boolean> pendingHandOff;
+    private String handOffFragmentNumber;
+    private final ArrayDeque<KVSAudioFrame> heldFrames = new ArrayDeque<>();
+    private boolean ended = false;
+    private boolean handedOff = false;
+    private long handoffTimestamp = 0;
+    private volatile boolean stopped = false;
+
+    /**
+     * Connects to the stream right away
+     *
+     * @param connector           opens the stream from a given fragment
+     * @param startFragmentNumber fragment to start from on the first connection
+     * @param startSelectorType   start selector of the first connection
+     * @param maxReconnects       number of reconnections allowed over the life of the source
+     * @param metricsUtil
+     */
+    public ResumableKVSFrameSource(Connector connector, String startFragmentNumber, String startSelectorType,
+                                   int maxReconnects, MetricsUtil metricsUtil) {
+        this.connector = Validate.notNull(connector);
+        this.startFragmentNumber = startFragmentNumber;
+        this.startSelectorType = startSelectorType;
+        Validate.isTrue(maxReconnects >= 0, "Reconnect count must not be negative");
+        this.maxReconnects = maxReconnects;
+        this.metricsUtil = Validate.notNull(metricsUtil);
+        this.frameSource = connector.connect(startFragmentNumber, startSelectorType);
+    }
+
+    @Override
+    public KVSAudioFrame nextFrame(String contactId) throws MkvElementVisitException {
+        while (!handedOff && !stopped) {
+            if (pendingHandOff != null && (pendingHandOff.isDone() || ended)) {
+                completeHandOff(contactId);
+                continue;
+            }
+            if (pendingHandOff == null && !heldFrames.isEmpty()) {
+                return heldFrames.poll();
+            }
+            if (ended) {
+                return null;
+            }
+            KVSAudioFrame frame = readFrame(contactId);
+            if (frame == null) {
+                ended = true;
+            } else if (pendingHandOff == null) {
+                return frame;
+            } else {
+                heldFrames.add(frame);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the next frame of the stream, reconnecting when reading fails, and starts the hand-off at the start of
+     * the next fragment once asked to
+     */
+    private KVSAudioFrame readFrame(String contactId) throws MkvElementVisitException {
+        while (true) {
+            KVSAudioFrame frame;
+            try {
+                frame = frameSource.nextFrame(contactId);
+            } catch (MkvElementVisitException e) {
+                reconnect(e);
+                continue;
+            }
+            if (frame == null || stopped) {
+                return null;
+            }
+
+            String fragmentNumber = frameSource.getFragmentNumber();
+            if (framesToSkip > 0 && Objects.equals(fragmentNumber, skippedFragmentNumber)) {
+                framesToSkip--;
+                duplicateFrames++;
+                continue;
+            }
+            framesToSkip = 0;
+            if (failureNanos != 0) {
+                long gapMs = (System.nanoTime() - failureNanos) / 1_000_000;
+                logger.info("Resumed KVS stream for contact {} from fragment {} after {} ms", contactId, fragmentNumber, gapMs);
+                metricsUtil.recordMetric("KVSReconnectGapMs", gapMs);
+                failureNanos = 0;
+            }
+
+            if (handoffTimestamp != 0) {
+                long gapMs = System.currentTimeMillis() - handoffTimestamp;
+                logger.info("Continued contact {} from fragment {}, {} ms after the previous invocation stopped", contactId, fragmentNumber, gapMs);
+                metricsUtil.recordMetric("ContinuationHandoffGapMs", gapMs);
+                handoffTimestamp = 0;
+            }
+
+            if (!Objects.equals(fragmentNumber, lastFragmentNumber)) {
+                Function<String, CompletableFuture<Boolean>> handOff = this.handOff;
+                if (handOff != null && lastFragmentNumber != null) {
+                    this.handOff = null;
+                    handOffFragmentNumber = fragmentNumber;
+                    pendingHandOff = handOff.apply(fragmentNumber);
+                }
+                lastFragmentNumber = fragmentNumber;
+                framesReadInFragment = 0;
+            }
+            framesReadInFragment++;
+            return frame;
+        }
+    }
+
+    @Override
+    public String getFragmentNumber() {
+        return lastFragmentNumber;
+    }
+
+    @Override
+    public long getIdleWakeups() {
+        return closedSourcesIdleWakeups + frameSource.getIdleWakeups();
+    }
+
+    /**
+     * Ends the source at the start of the next fragment, if the hand-off of the call from that fragment succeeds
+     *
+     * @param handOff called on the reading thread with the number of the next fragment, starts the hand-off without
+     *                waiting for it, and returns whether the call was handed over once it completes
+     */
+    public void stopAtNextFragment(Function<String, CompletableFuture<Boolean>> handOff) {
+        this.handOff = Validate.notNull(handOff);
+    }
+
+    /**
+     * Ends the source at the next frame, from any thread, for the audio already read to be transcribed before the
+     * invocation ends
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @param handoffTimestamp time the previous invocation of the call stopped reading the stream, to measure the gap
+     *                         until this source reads its first frame
+     */
+    public void setHandoffTimestamp(long handoffTimestamp) {
+        this.handoffTimestamp = handoffTimestamp;
+    }
+
+    public int getReconnects() {
+        return reconnects;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // a read failing on the closed stream is not reconnected
+        stopped = true;
+        if (reconnects > 0) {
+            logger.info("KVS stream reconnected {} times, {} duplicate frames dropped", reconnects, duplicateFrames);
+        }
+        metricsUtil.recordMetric("KVSReconnects", reconnects);
+        frameSource.close();
+    }
+
+    /**
+     * Ends the source if the pending hand-off succeeded, waiting for it when the stream has ended first, or returns the
+     * frames held back since it started otherwise
+     */
+    private void completeHandOff(String contactId) {
+        boolean handedOver;
+        try {
+            handedOver = pendingHandOff.join();
+        } catch (CompletionException e) {
+            logger.warn("Hand-off of contact {} failed", contactId, e.getCause());
+            handedOver = false;
+        }
+        pendingHandOff = null;
+        if (handedOver) {
+            logger.info("Handed contact {} over from fragment {}, {} frames read since left to it", contactId,
+                    handOffFragmentNumber, heldFrames.size());
+            handedOff = true;
+            heldFrames.clear();
+        }
+    }
+
+    /**
+     * Opens the stream again from the fragment being read, giving up once all the reconnections have been used
+     *
+     * @param cause failure of the current connection
+     * @throws MkvElementVisitException cause, when no reconnection is left
+     */
+    private void reconnect(MkvElementVisitException cause) throws MkvElementVisitException {
+        if (failureNanos == 0) {
+            failureNanos = System.nanoTime();
+        }
+        closeQuietly(frameSource);
+
+        while (true) {
+            if (stopped || reconnects >= maxReconnects) {
+                throw cause;
+            }
+            reconnects++;
+            logger.warn("KVS stream failed, reconnecting from fragment {} (attempt {} of {})",
+                    lastFragmentNumber, reconnects, maxReconnects, cause);
+            sleep(RECONNECT_BACKOFF_MS * reconnects);
+            try {
+                frameSource = lastFragmentNumber == null
+                        ? connector.connect(startFragmentNumber, startSelectorType)
+                        : connector.connect(lastFragmentNumber, FRAGMENT_NUMBER_SELECTOR);
+                skippedFragmentNumber = lastFragmentNumber;
+                framesToSkip = framesReadInFragment;
+                return;
+            } catch (RuntimeException e) {
+                logger.warn("Failed to reconnect to KVS stream", e);
+            }
+        }
+    }
+
+    private void closeQuietly(KVSFrameSource source) {
+        closedSourcesIdleWakeups += source.getIdleWakeups();
+        try {
+            source.close();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to close broken KVS stream", e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.apache.commons.lang3.Validate;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends requests to the Telephony Integration service on SCRT 2.0 without blocking the caller.
+ *
+ * A single client is shared by all the calls of the container, so that warm invocations reuse its connections: it
+ * speaks HTTP/2 where SCRT offers it, multiplexing the requests of all the calls over one kept-alive connection, and
+ * falls back to pooled HTTP/1.1 connections otherwise.
+ */
+public class ScrtClient {
+    private static final String SCRT_ENDPOINT_BASE = System.getenv("SCRT_ENDPOINT_BASE");
+    // Time an SCRT request may take, from sending it to receiving its response
+    private static final long SCRT_REQUEST_TIMEOUT_MS = Long.parseLong(Optional.ofNullable(System.getenv("SCRT_REQUEST_TIMEOUT_MS")).orElse("5000"));
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+
+    private static ScrtClient defaultClient; // guarded by ScrtClient.class
+
+    private final HttpClient httpClient;
+    private final Executor executor;
+    private final String endpointBase;
+    private final Duration requestTimeout;
+
+    /**
+     * @param httpClient     HTTP client sending the requests
+     * @param executor       executor of the HTTP client, which also runs the handling of the responses
+     * @param endpointBase   base URL of the SCRT API
+     * @param requestTimeout time a request may take
+     */
+    public ScrtClient(HttpClient httpClient, Executor executor, String endpointBase, Duration requestTimeout) {
+        this.httpClient = Validate.notNull(httpClient);
+        this.executor = Validate.notNull(executor);
+        this.endpointBase = Validate.notNull(endpointBase);
+        this.requestTimeout = Validate.notNull(requestTimeout);
+    }
+
+    /**
+     * @return the client shared by the process, built on first use
+     */
+    public static synchronized ScrtClient getDefault() {
+        if (defaultClient == null) {
+            AtomicInteger threads = new AtomicInteger();
+            ExecutorService executor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "scrt-delivery-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(CONNECT_TIMEOUT)
+                    .executor(executor)
+                    .build();
+            defaultClient = new ScrtClient(httpClient, executor, String.valueOf(SCRT_ENDPOINT_BASE),
+                    Duration.ofMillis(SCRT_REQUEST_TIMEOUT_MS));
+        }
+        return defaultClient;
+    }
+
+    /**
+     * Posts messages of a voice call
+     *
+     * @param voiceCallId
+     * @param body        payload of the request, in JSON
+     * @param jwtToken    token authenticating the request
+     * @return response of SCRT, completed on the executor of the client
+     */
+    public CompletableFuture<HttpResponse<String>> postMessages(String voiceCallId, String body, String jwtToken) {
+        return post(getMessagesEndpoint(voiceCallId), body, jwtToken);
+    }
+
+    /**
+     * Posts messages of any voice calls to the bulk messages API
+     *
+     * @param body     payload of the request, in JSON, with the messages grouped by voice call
+     * @param jwtToken token authenticating the request
+     * @return response of SCRT, completed on the executor of the client
+     */
+    public CompletableFuture<HttpResponse<String>> postBulkMessages(String body, String jwtToken) {
+        return post(getBulkMessagesEndpoint(), body, jwtToken);
+    }
+
+    public String getMessagesEndpoint(String voiceCallId) {
+        return endpointBase + "/voiceCalls/" + voiceCallId + "/messages/";
+    }
+
+    public String getBulkMessagesEndpoint() {
+        return endpointBase + "/voiceCalls/messages";
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    private CompletableFuture<HttpResponse<String>> post(String endpoint, String body, String jwtToken) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(endpoint))
+                .timeout(requestTimeout)
+                .header("Authorization", "Bearer " + jwtToken)
+                .header("Content-Type", "application/json; utf-8")
+                .header("Accept", "application/json")
+                .header("Telephony-Provider-Name", "amazon-connect")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,656 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.salesforce.scv.SCVLoggingUtil;
+import org.apache.commons.lang3.Validate;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import software.amazon.awssdk.services.connect.ConnectClient;
+import software.amazon.awssdk.services.connect.model.UpdateContactAttributesRequest;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpResponse;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Delivers the transcript segments of a call to SCRT in the order they were submitted, off the threads handling the
+ * Transcribe events, so that a slow SCRT response no longer holds up the transcription of a track.
+ *
+ * The segments of all the tracks of the call wait in one bounded queue, and are posted one request at a time through
+ * the {@link ScrtClient} shared by the container, the next one as soon as the response to the previous one is in. When the
+ * queue is full, the overflow policy decides which segment is dropped. The depth of the queue and the time from
+ * submission to response of each segment are recorded as histograms.
+ *
+ * With batching, the segments queued are coalesced into one request to the bulk messages API, of up to the maximum
+ * batch size. A segment waits at most the maximum batch delay for others to join it, and no longer once the batch is
+ * full or the call is being flushed. The segments keep their message ids, times and order within the batch, which is
+ * delivered, or fails, as a whole.
+ *
+ * With a rate limiter, each request waits for its slot in the rate shared by the container. The segments of a request
+ * throttled by SCRT go back to the head of the queue, to be sent again once the limiter lets requests through, unless
+ * they were submitted longer than the maximum retry age ago. The first throttled request of the call sets its
+ * transcription status contact attribute, through the Connect client shared by the container.
+ *
+ * With an outbox, the segments whose delivery failed because SCRT was unreachable, failing, or still throttling them
+ * past their retry age, are kept in the outbox of the container to be sent again later, rather than lost. Those of a
+ * request that timed out or broke once sent are not, as SCRT may have taken them.
+ *
+ * With a deduplicator, the segments SCRT already took are dropped from a batch right before it is posted, whether they
+ * were submitted again or went back to the queue after a throttled request.
+ */
+public class ScrtDeliveryPipeline {
+
+    /**
+     * Segment dropped when a segment is submitted to a full queue
+     */
+    public enum OverflowPolicy {
+        // the oldest queued segment, so that the transcript stays live
+        DROP_OLDEST,
+        // the submitted segment, so that the transcript has no gap before it
+        DROP_NEWEST
+    }
+
+    private final String voiceCallId;
+    private final String instanceARN;
+    private final ScrtClient client;
+    private final ScrtTokenProvider tokenProvider;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+
+    private final int maxBatchSize;
+    private final long maxBatchDelayMs;
+    private final ScrtRateLimiter rateLimiter;
+    private final long retryMaxAgeMs;
+    private final Supplier<ConnectClient> connectClient;
+    private final ScrtOutbox outbox;
+    private final ScrtMessageDeduplicator deduplicator;
+    private final long createdNanos = System.nanoTime();
+
+    private final ArrayDeque<ScrtMessage> queue = new ArrayDeque<>(); // guarded by this
+    private State state = State.IDLE; // guarded by this
+    private long sendGeneration = 0; // guarded by this, tells the scheduled send of the batch being waited for
+    private boolean flushing = false; // guarded by this
+    private long requests = 0; // guarded by this
+    private long deliveredMessages = 0; // guarded by this
+    private long failedMessages = 0; // guarded by this
+    private long droppedMessages = 0; // guarded by this
+    private long retriedMessages = 0; // guarded by this
+    private long throttledRequests = 0; // guarded by this
+    private long outboxedMessages = 0; // guarded by this
+    private int sendingMessages = 0; // guarded by this, segments of the batch being sent
+    private long abandonedMessages = 0; // guarded by this
+    private boolean statusAttributeWritten = false; // guarded by this
+    private final MetricHistogram queueDepth = new MetricHistogram();
+    private final MetricHistogram deliveryLatency = new MetricHistogram();
+    private final MetricHistogram batchSize = new MetricHistogram();
+
+    private static ConnectClient sharedConnectClient; // guarded by ScrtDeliveryPipeline.class
+
+    private enum State {
+        IDLE,
+        // a send is scheduled for when the batch at the head of the queue is due
+        WAITING,
+        // a batch is taken from the queue, until its response is in
+        SENDING
+    }
+
+    private ScrtDeliveryPipeline(Builder builder) {
+        this.voiceCallId = Validate.notNull(builder.voiceCallId);
+        this.instanceARN = builder.instanceARN;
+        this.client = Validate.notNull(builder.client);
+        this.tokenProvider = Validate.notNull(builder.tokenProvider);
+        Validate.isTrue(builder.capacity > 0, "Delivery queue capacity must be positive");
+        this.capacity = builder.capacity;
+        this.overflowPolicy = Validate.notNull(builder.overflowPolicy);
+        Validate.isTrue(builder.maxBatchSize > 0, "Batch size must be positive");
+        Validate.isTrue(builder.maxBatchDelayMs >= 0, "Batch delay must not be negative");
+        this.maxBatchSize = builder.maxBatchSize;
+        this.maxBatchDelayMs = builder.maxBatchDelayMs;
+        this.rateLimiter = builder.rateLimiter;
+        Validate.isTrue(builder.retryMaxAgeMs >= 0, "Retry age must not be negative");
+        this.retryMaxAgeMs = builder.retryMaxAgeMs;
+        this.connectClient = Validate.notNull(builder.connectClient);
+        this.outbox = builder.outbox;
+        this.deduplicator = builder.deduplicator;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Pipeline of a call, sending its segments one at a time, as soon as they are queued, and dropping those that fail
+     * unless configured otherwise
+     */
+    public static final class Builder {
+        private String voiceCallId;
+        private String instanceARN;
+        private ScrtClient client;
+        private ScrtTokenProvider tokenProvider;
+        private int capacity;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        private int maxBatchSize = 1;
+        private long maxBatchDelayMs = 0;
+        private ScrtRateLimiter rateLimiter;
+        private long retryMaxAgeMs = 0;
+        private Supplier<ConnectClient> connectClient = ScrtDeliveryPipeline::getSharedConnectClient;
+        private ScrtOutbox outbox;
+        private ScrtMessageDeduplicator deduplicator;
+
+        private Builder() {}
+
+        /**
+         * @param val voice call the segments are posted to
+         */
+        public Builder setVoiceCallId(String val) {
+            voiceCallId = val;
+            return this;
+        }
+
+        /**
+         * @param val Connect instance of the call
+         */
+        public Builder setInstanceARN(String val) {
+            instanceARN = val;
+            return this;
+        }
+
+        /**
+         * @param val client sending the requests
+         */
+        public Builder setClient(ScrtClient val) {
+            client = val;
+            return this;
+        }
+
+        /**
+         * @param val token authenticating the requests
+         */
+        public Builder setTokenProvider(ScrtTokenProvider val) {
+            tokenProvider = val;
+            return this;
+        }
+
+        /**
+         * @param val number of segments waiting for delivery, beyond which the overflow policy applies
+         */
+        public Builder setCapacity(int val) {
+            capacity = val;
+            return this;
+        }
+
+        /**
+         * @param val segment dropped when the queue is full
+         */
+        public Builder setOverflowPolicy(OverflowPolicy val) {
+            overflowPolicy = val;
+            return this;
+        }
+
+        /**
+         * @param val number of segments sent in one request at most
+         */
+        public Builder setMaxBatchSize(int val) {
+            maxBatchSize = val;
+            return this;
+        }
+
+        /**
+         * @param val time a segment waits for others to join its batch at most
+         */
+        public Builder setMaxBatchDelayMs(long val) {
+            maxBatchDelayMs = val;
+            return this;
+        }
+
+        /**
+         * @param val limiter giving the slots of the requests, or null to send them as soon as they are due
+         */
+        public Builder setRateLimiter(ScrtRateLimiter val) {
+            rateLimiter = val;
+            return this;
+        }
+
+        /**
+         * @param val time since its submission after which a throttled segment is no longer retried
+         */
+        public Builder setRetryMaxAgeMs(long val) {
+            retryMaxAgeMs = val;
+            return this;
+        }
+
+        /**
+         * @param val client updating the contact attributes of the call
+         */
+        public Builder setConnectClient(Supplier<ConnectClient> val) {
+            connectClient = val;
+            return this;
+        }
+
+        /**
+         * @param val outbox of the container, or null to drop the segments that failed
+         */
+        public Builder setOutbox(ScrtOutbox val) {
+            outbox = val;
+            return this;
+        }
+
+        /**
+         * @param val deduplicator of the container, or null to send every segment
+         */
+        public Builder setDeduplicator(ScrtMessageDeduplicator val) {
+            deduplicator = val;
+            return this;
+        }
+
+        public ScrtDeliveryPipeline build() {
+            return new ScrtDeliveryPipeline(this);
+        }
+    }
+
+    /**
+     * @return the Connect client shared by the process, built on first use
+     */
+    public static synchronized ConnectClient getSharedConnectClient() {
+        if (sharedConnectClient == null) {
+            sharedConnectClient = ConnectClient.create();
+        }
+        return sharedConnectClient;
+    }
+
+    /**
+     * Queues a segment for delivery, without waiting for it
+     *
+     * @return false if the segment was dropped because the queue is full
+     */
+    public boolean submit(ScrtMessage message) {
+        synchronized (this) {
+            if (queue.size() >= capacity) {
+                droppedMessages++;
+                ScrtMessage dropped = overflowPolicy == OverflowPolicy.DROP_NEWEST ? message : queue.poll();
+                SCVLoggingUtil.warn("com.amazonaws.kvstranscribestreaming.ScrtDeliveryPipeline.submit", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION,
+                        "Delivery queue of voice call " + voiceCallId + " full, dropped message " + dropped.getMessageId(), null);
+                if (dropped == message) {
+                    return false;
+                }
+            }
+            queue.offer(message);
+            queueDepth.record(queue.size());
+        }
+        scheduleSend();
+        return true;
+    }
+
+    /**
+     * Waits until all the submitted segments have been delivered, or have failed
+     *
+     * @param timeoutMs time to wait at most
+     * @return false if segments were still waiting at the end of the timeout
+     */
+    public boolean flush(long timeoutMs) throws InterruptedException {
+        synchronized (this) {
+            flushing = true;
+        }
+        // the batch waiting at the head of the queue is sent right away
+        scheduleSend();
+        return awaitDelivery(timeoutMs);
+    }
+
+    private synchronized boolean awaitDelivery(long timeoutMs) throws InterruptedException {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (state != State.IDLE || !queue.isEmpty()) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (remainingMs <= 0) {
+                abandonedMessages = queue.size() + sendingMessages;
+                SCVLoggingUtil.warn("com.amazonaws.kvstranscribestreaming.ScrtDeliveryPipeline.flush", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION,
+                        abandonedMessages + " messages of voice call " + voiceCallId + " not delivered in time, abandoned", null);
+                return false;
+            }
+            wait(remainingMs);
+        }
+        return true;
+    }
+
+    public synchronized long getDeliveredMessages() {
+        return deliveredMessages;
+    }
+
+    public synchronized long getFailedMessages() {
+        return failedMessages;
+    }
+
+    public synchronized long getDroppedMessages() {
+        return droppedMessages;
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    public synchronized long getRetriedMessages() {
+        return retriedMessages;
+    }
+
+    public synchronized long getThrottledRequests() {
+        return throttledRequests;
+    }
+
+    public synchronized long getOutboxedMessages() {
+        return outboxedMessages;
+    }
+
+    /**
+     * @return the segments queued or in flight when the last flush timed out
+     */
+    public synchronized long getAbandonedMessages() {
+        return abandonedMessages;
+    }
+
+    /**
+     * Records the delivery metrics of the call, once it has been flushed
+     */
+    public void recordMetrics(MetricsUtil metricsUtil) {
+        synchronized (this) {
+            metricsUtil.recordMetric("ScrtMessagesDelivered", deliveredMessages);
+            metricsUtil.recordMetric("ScrtMessagesFailed", failedMessages);
+            metricsUtil.recordMetric("ScrtMessagesDropped", droppedMessages);
+            metricsUtil.recordMetric("ScrtRequests", requests);
+            metricsUtil.recordMetric("ScrtRequestsThrottled", throttledRequests);
+            metricsUtil.recordMetric("ScrtMessagesRetried", retriedMessages);
+            metricsUtil.recordMetric("ScrtMessagesAbandoned", abandonedMessages);
+            if (outbox != null) {
+                metricsUtil.recordMetric("ScrtMessagesOutboxed", outboxedMessages);
+            }
+            long callMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdNanos);
+            if (callMs > 0) {
+                metricsUtil.recordMetric("ScrtRequestsPerMinute", requests * 60000 / callMs);
+            }
+        }
+        queueDepth.recordMetrics(metricsUtil, "ScrtDeliveryQueueDepth");
+        deliveryLatency.recordMetrics(metricsUtil, "ScrtDeliveryLatencyMs");
+        if (maxBatchSize > 1) {
+            batchSize.recordMetrics(metricsUtil, "ScrtBatchSize");
+        }
+        if (rateLimiter != null) {
+            metricsUtil.recordMetric("ScrtRateLimitRps", (long) rateLimiter.getRps());
+        }
+    }
+
+    /**
+     * Sends the batch at the head of the queue once it is due, unless a batch is being sent, whose response sends the
+     * next one
+     */
+    private void scheduleSend() {
+        long delayMs;
+        long generation;
+        boolean sending;
+        synchronized (this) {
+            if (state == State.SENDING) {
+                return;
+            }
+            delayMs = getBatchDelayMs();
+            if (delayMs < 0) {
+                state = State.IDLE;
+                notifyAll();
+                return;
+            }
+            if (state == State.WAITING && delayMs > 0) {
+                // the send already scheduled is due no later
+                return;
+            }
+            generation = ++sendGeneration;
+            sending = delayMs == 0;
+            state = sending ? State.SENDING : State.WAITING;
+        }
+        if (sending && rateLimiter != null) {
+            // reserved outside the lock of the call, which the limiter shared by the container may hold up; the batch is
+            // taken from the queue in the slot of its request, with the segments queued meanwhile
+            delayMs = rateLimiter.reserve();
+        }
+        Executor executor = delayMs == 0 ? client.getExecutor()
+                : CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS, client.getExecutor());
+        executor.execute(() -> sendBatch(generation));
+    }
+
+    /**
+     * @return time until the batch at the head of the queue is due, -1 when the queue is empty
+     */
+    private long getBatchDelayMs() {
+        ScrtMessage head = queue.peek();
+        if (head == null) {
+            return -1;
+        }
+        if (maxBatchSize == 1 || flushing || queue.size() >= maxBatchSize) {
+            return 0;
+        }
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - head.getSubmittedNanos());
+        return Math.max(0, maxBatchDelayMs - waitedMs);
+    }
+
+    /**
+     * Posts the batch at the head of the queue, then schedules the next one once its response is in
+     *
+     * @param generation generation of the send, which is dropped when another send was scheduled since
+     */
+    private void sendBatch(long generation) {
+        List<ScrtMessage> batch = new ArrayList<>();
+        synchronized (this) {
+            if (generation != sendGeneration) {
+                return;
+            }
+            state = State.SENDING;
+            while (batch.size() < maxBatchSize && !queue.isEmpty()) {
+                batch.add(queue.poll());
+            }
+            sendingMessages = batch.size();
+        }
+        if (deduplicator != null) {
+            batch.removeIf(message -> deduplicator.isDuplicate(voiceCallId, message));
+        }
+        if (batch.isEmpty()) {
+            synchronized (this) {
+                state = State.IDLE;
+                sendingMessages = 0;
+            }
+            scheduleSend();
+            return;
+        }
+        synchronized (this) {
+            sendingMessages = batch.size();
+            requests++;
+        }
+        batchSize.record(batch.size());
+
+        CompletableFuture<HttpResponse<String>> response;
+        try {
+            SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.sendMessage", SCVLoggingUtil.EVENT_TYPE.PERFORMANCE, "START Send Messages " + getMessageIds(batch), null);
+            response = post(client, voiceCallId, batch, tokenProvider.getJWTToken());
+        } catch (Exception e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        // handled on the executor even when already complete, so that failures in a row do not nest
+        response.whenCompleteAsync((r, e) -> {
+            try {
+                onResponse(batch, r, e);
+            } finally {
+                synchronized (this) {
+                    state = State.IDLE;
+                    sendingMessages = 0;
+                }
+                scheduleSend();
+            }
+        }, client.getExecutor());
+    }
+
+    /**
+     * Posts a single segment to the messages of the voice call, and a batch to the bulk messages API
+     */
+    static CompletableFuture<HttpResponse<String>> post(ScrtClient client, String voiceCallId, List<ScrtMessage> batch, String jwtToken) {
+        if (batch.size() == 1) {
+            return client.postMessages(voiceCallId, batch.get(0).toJson().toJSONString(), jwtToken);
+        }
+        JSONArray messages = new JSONArray();
+        for (ScrtMessage message : batch) {
+            messages.add(message.toJson());
+        }
+        JSONObject entry = new JSONObject();
+        entry.put("vendorCallKey", voiceCallId);
+        entry.put("messages", messages);
+        JSONArray entries = new JSONArray();
+        entries.add(entry);
+        JSONObject bulkSendMessagesPayload = new JSONObject();
+        bulkSendMessagesPayload.put("entries", entries);
+        return client.postBulkMessages(bulkSendMessagesPayload.toJSONString(), jwtToken);
+    }
+
+    private static String getMessageIds(List<ScrtMessage> batch) {
+        return batch.stream().map(ScrtMessage::getMessageId).collect(Collectors.joining(","));
+    }
+
+    private void onResponse(List<ScrtMessage> batch, HttpResponse<String> response, Throwable failure) {
+        if (failure != null) {
+            recordLatency(batch);
+            synchronized (this) {
+                failedMessages += batch.size();
+            }
+            SCVLoggingUtil.error("com.amazonaws.kvstranscribestreaming.sendMessage", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION, failure.getMessage(), null);
+            if (!mayHaveBeenDelivered(failure)) {
+                keepInOutbox(batch);
+            }
+            return;
+        }
+
+        int code = response.statusCode();
+        List<ScrtMessage> retried = code == 429 ? retry(batch, response) : Collections.emptyList();
+        List<ScrtMessage> done = batch.stream().filter(message -> !retried.contains(message)).collect(Collectors.toList());
+        recordLatency(done);
+        synchronized (this) {
+            if (code < 300) {
+                deliveredMessages += done.size();
+            } else {
+                failedMessages += done.size();
+            }
+        }
+        if (code < 300) {
+            if (deduplicator != null) {
+                done.forEach(message -> deduplicator.onDelivered(voiceCallId, message));
+            }
+            if (rateLimiter != null) {
+                rateLimiter.onDelivered();
+            }
+        }
+        if (code == 429 || code >= 500) {
+            keepInOutbox(done);
+        }
+        if (code == 429) {
+            updateStatusAttribute();
+        }
+
+        // logging the response
+        HashMap<String, String> loggingContextMap = new HashMap<String, String>();
+        loggingContextMap.put(SCVLoggingUtil.TRANSCRIPTION_CONTEXT_KEY.RESPONSE_CODE.toString(),  String.valueOf(code));
+        loggingContextMap.put(SCVLoggingUtil.TRANSCRIPTION_CONTEXT_KEY.MESSAGE_ID.toString(),  getMessageIds(batch));
+        loggingContextMap.put(SCVLoggingUtil.TRANSCRIPTION_CONTEXT_KEY.START_TIME.toString(), String.valueOf(batch.get(0).getStartTime()));
+        loggingContextMap.put(SCVLoggingUtil.TRANSCRIPTION_CONTEXT_KEY.END_TIME.toString(), String.valueOf(batch.get(batch.size() - 1).getEndTime()));
+        loggingContextMap.put(SCVLoggingUtil.TRANSCRIPTION_CONTEXT_KEY.END_POINT.toString(),
+                batch.size() == 1 ? client.getMessagesEndpoint(voiceCallId) : client.getBulkMessagesEndpoint());
+        SCVLoggingUtil.info("com.amazonaws.kvstranscribestreaming.sendMessage", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION, response.body(), loggingContextMap);
+    }
+
+    /**
+     * Tells whether a request that failed without a response may still have been taken by SCRT, such as one that timed
+     * out or whose connection broke once it was sent, in which case its segments are not sent again
+     */
+    static boolean mayHaveBeenDelivered(Throwable failure) {
+        Throwable cause = failure;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof ConnectException || cause instanceof HttpConnectTimeoutException) {
+            return false;
+        }
+        return cause instanceof IOException;
+    }
+
+    private void keepInOutbox(List<ScrtMessage> messages) {
+        if (outbox == null) {
+            return;
+        }
+        long kept = messages.stream().filter(message -> outbox.append(voiceCallId, message)).count();
+        synchronized (this) {
+            outboxedMessages += kept;
+        }
+    }
+
+    private void recordLatency(List<ScrtMessage> messages) {
+        for (ScrtMessage message : messages) {
+            deliveryLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - message.getSubmittedNanos()));
+        }
+    }
+
+    /**
+     * Slows the rate limiter down, and puts the segments of a throttled batch that are young enough back at the head
+     * of the queue, in their order
+     *
+     * @return the segments to be sent again
+     */
+    private List<ScrtMessage> retry(List<ScrtMessage> batch, HttpResponse<String> response) {
+        if (rateLimiter != null) {
+            String retryAfter = response.headers() == null ? null : response.headers().firstValue("Retry-After").orElse(null);
+            rateLimiter.onThrottled(ScrtRateLimiter.parseRetryAfterMs(retryAfter, System.currentTimeMillis()));
+        }
+        long now = System.nanoTime();
+        List<ScrtMessage> retried = batch.stream()
+                .filter(message -> now - message.getSubmittedNanos() < TimeUnit.MILLISECONDS.toNanos(retryMaxAgeMs))
+                .collect(Collectors.toList());
+        synchronized (this) {
+            throttledRequests++;
+            for (int i = retried.size() - 1; i >= 0; i--) {
+                queue.addFirst(retried.get(i));
+            }
+            retriedMessages += retried.size();
+        }
+        return retried;
+    }
+
+    /**
+     * Sets the transcription status of the call, on its first throttled request
+     */
+    private void updateStatusAttribute() {
+        synchronized (this) {
+            if (statusAttributeWritten) {
+                return;
+            }
+            statusAttributeWritten = true;
+        }
+        try {
+            // Update the Contact Attribute with the specific limits error
+            Map<String, String> attribsMap = new HashMap<String, String>();
+            attribsMap.put("sf_realtime_transcription_status", "Exceeded Limits for creating messages in Transcription");
+
+            UpdateContactAttributesRequest updateContactAttributesRequest = UpdateContactAttributesRequest.builder()
+                    .initialContactId(voiceCallId)
+                    .instanceId(instanceARN)
+                    .attributes(attribsMap)
+                    .build();
+
+            connectClient.get().updateContactAttributes(updateContactAttributesRequest);
+        } catch (Exception e) {
+            SCVLoggingUtil.error("com.amazonaws.kvstranscribestreaming.sendMessage", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION, e.getMessage(), null);
+        }
+    }
+}
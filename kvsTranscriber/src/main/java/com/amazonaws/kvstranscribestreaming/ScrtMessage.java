@@ -0,0 +1,95 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.apache.commons.lang3.Validate;
+import org.json.simple.JSONObject;
+
+/**
+ * Transcript segment sent to SCRT as a message of the voice call
+ */
+public class ScrtMessage {
+    private final String participantId;
+    private final String senderType;
+    private final String messageId;
+    private final long startTime;
+    private final long endTime;
+    private final String content;
+    private final boolean partial;
+    private final long submittedNanos = System.nanoTime();
+
+    /**
+     * @param participantId : Phone number of the customer, or voice call id for the agent
+     * @param senderType    : END_USER or VIRTUAL_AGENT
+     * @param messageId     : A unique identifier for message segment
+     * @param startTime     : Message start time in milisecond
+     * @param endTime       : Message end time in milisecond
+     * @param content       : The message content body
+     */
+    public ScrtMessage(String participantId, String senderType, String messageId, long startTime, long endTime, String content) {
+        this(participantId, senderType, messageId, startTime, endTime, content, false);
+    }
+
+    /**
+     * @param partial       : Whether the message is a stable partial revision of its result, rather than its final version
+     */
+    public ScrtMessage(String participantId, String senderType, String messageId, long startTime, long endTime, String content,
+                       boolean partial) {
+        this.participantId = participantId;
+        this.senderType = Validate.notNull(senderType);
+        this.messageId = Validate.notNull(messageId);
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.content = Validate.notNull(content);
+        this.partial = partial;
+    }
+
+    /**
+     * @param json    : payload of the message in the SCRT API
+     * @param partial : Whether the message is a stable partial revision of its result
+     */
+    public static ScrtMessage fromJson(JSONObject json, boolean partial) {
+        return new ScrtMessage((String) json.get("participantId"), (String) json.get("senderType"), (String) json.get("messageId"),
+                ((Number) json.get("startTime")).longValue(), ((Number) json.get("endTime")).longValue(), (String) json.get("content"),
+                partial);
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * @return time the message was handed over for delivery, on the System.nanoTime() clock
+     */
+    public long getSubmittedNanos() {
+        return submittedNanos;
+    }
+
+    /**
+     * @return payload of the message in the SCRT API
+     */
+    public JSONObject toJson() {
+        JSONObject sendMessagePayload = new JSONObject();
+        sendMessagePayload.put("participantId", participantId);
+        sendMessagePayload.put("messageId", messageId);
+        sendMessagePayload.put("startTime", Long.valueOf(startTime));
+        sendMessagePayload.put("endTime", Long.valueOf(endTime));
+        sendMessagePayload.put("content", content);
+        sendMessagePayload.put("senderType", senderType);
+        return sendMessagePayload;
+    }
+}
@@ -0,0 +1,107 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Suppresses the transcript segments SCRT already took, so that a segment sent again, by a throttled request going
+ * back to the queue, by the outbox, or by a writer after a retry or a reconnect, costs no SCRT request and adds no line
+ * to the transcript.
+ *
+ * A segment is identified by its voice call, its message id, and whether it is the final version of its result. The
+ * stable partial revisions of a result share its message id: each of them is also identified by its text, and none is
+ * sent once the final version of the result was delivered.
+ *
+ * The delivery pipelines of the calls and the outbox of the container check the segments right before posting them,
+ * and record those SCRT took. The most recent segments are remembered in an LRU window of a bounded size: a segment
+ * that left the window is sent again.
+ */
+public class ScrtMessageDeduplicator {
+    // Number of the most recent segments delivered by the container that are remembered
+    private static final int SCRT_DEDUP_WINDOW = Integer.parseInt(Optional.ofNullable(System.getenv("SCRT_DEDUP_WINDOW")).orElse("1024"));
+
+    private static ScrtMessageDeduplicator defaultDeduplicator; // guarded by ScrtMessageDeduplicator.class
+
+    private final LinkedHashMap<String, Boolean> window;
+    private long checked = 0;
+    private long suppressed = 0;
+
+    /**
+     * @param windowSize number of the most recent segments delivered that are remembered
+     */
+    public ScrtMessageDeduplicator(int windowSize) {
+        Validate.isTrue(windowSize > 0, "Deduplication window must be positive");
+        this.window = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > windowSize;
+            }
+        };
+    }
+
+    /**
+     * @return the deduplicator shared by the process
+     */
+    public static synchronized ScrtMessageDeduplicator getDefault() {
+        if (defaultDeduplicator == null) {
+            defaultDeduplicator = new ScrtMessageDeduplicator(SCRT_DEDUP_WINDOW);
+        }
+        return defaultDeduplicator;
+    }
+
+    /**
+     * Checks a segment about to be posted
+     *
+     * @return true if SCRT already took the segment, or the final version of a partial one, which should not be sent
+     */
+    public synchronized boolean isDuplicate(String voiceCallId, ScrtMessage message) {
+        checked++;
+        String finalKey = getKey(voiceCallId, message.getMessageId());
+        boolean duplicate = window.get(finalKey) != null
+                || (message.isPartial() && window.get(getPartialKey(finalKey, message)) != null);
+        if (duplicate) {
+            suppressed++;
+        }
+        return duplicate;
+    }
+
+    /**
+     * Remembers a segment SCRT took
+     */
+    public synchronized void onDelivered(String voiceCallId, ScrtMessage message) {
+        String finalKey = getKey(voiceCallId, message.getMessageId());
+        window.put(message.isPartial() ? getPartialKey(finalKey, message) : finalKey, Boolean.TRUE);
+    }
+
+    public synchronized long getChecked() {
+        return checked;
+    }
+
+    public synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    /**
+     * Records the duplicates suppressed since the last time the metrics were recorded, and their share of the segments
+     * checked, per thousand
+     */
+    public synchronized void recordMetrics(MetricsUtil metricsUtil) {
+        metricsUtil.recordMetric("ScrtDuplicatesSuppressed", suppressed);
+        if (checked > 0) {
+            metricsUtil.recordMetric("ScrtDuplicatesPerThousand", suppressed * 1000 / checked);
+        }
+        checked = 0;
+        suppressed = 0;
+    }
+
+    private static String getKey(String voiceCallId, String messageId) {
+        return voiceCallId + "#" + messageId;
+    }
+
+    private static String getPartialKey(String finalKey, ScrtMessage message) {
+        return finalKey + "#partial#" + message.getContent();
+    }
+}
@@ -0,0 +1,639 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.salesforce.scv.SCVLoggingUtil;
+import org.apache.commons.lang3.Validate;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps the transcript segments SCRT could not take, in an append-only log on the local disk of the container, and
+ * sends them again in the background until SCRT takes them.
+ *
+ * The log is split into segment files of a bounded size. Each record is the length and CRC32C checksum of its payload,
+ * followed by the payload: the message, its voice call and when its delivery failed. Appends only write to the page
+ * cache, and are synced to the disk in batches every sync interval, so that a failed delivery costs little more than
+ * a write. A record torn by a crash, or failing its checksum, ends the reading of its segment.
+ *
+ * The drainer replays the segments oldest first, in the slots of the rate limiter, backing off while SCRT keeps
+ * failing. The consecutive records of a voice call are replayed together, as a batch of the bulk messages API
+ * delivered, or failed, as a whole, as in the delivery pipelines. A segment is deleted once all its records have been
+ * delivered, or discarded because SCRT rejected them, they are older than the maximum age, or their request timed out
+ * or broke once sent, as SCRT may have taken them. The position reached in a segment is kept in memory only, so a
+ * container restarting replays its segment from the start, skipping the records the deduplicator knows SCRT took.
+ *
+ * The background drainer runs in slices on the thread of the outbox, which never waits for a slot of the rate limiter:
+ * it comes back once the slot is due. The drain at the end of an invocation runs on the calling thread, the background
+ * drainer handing over to it at its next batch.
+ */
+public class ScrtOutbox {
+    // Directory of the segments, on the local storage of the container
+    private static final String SCRT_OUTBOX_DIR = Optional.ofNullable(System.getenv("SCRT_OUTBOX_DIR")).orElse("/tmp/scrt-outbox");
+    // Size of the outbox at most, beyond which failed segments are dropped
+    private static final long SCRT_OUTBOX_MAX_BYTES = Long.parseLong(Optional.ofNullable(System.getenv("SCRT_OUTBOX_MAX_BYTES")).orElse("52428800"));
+    // Time since their failure after which segments are no longer sent again
+    private static final long SCRT_OUTBOX_MAX_AGE_MS = Long.parseLong(Optional.ofNullable(System.getenv("SCRT_OUTBOX_MAX_AGE_MS")).orElse("3600000"));
+    private static final long SEGMENT_BYTES = 1024 * 1024;
+    private static final long SYNC_INTERVAL_MS = 100;
+    private static final long DRAIN_INTERVAL_MS = 1000;
+    private static final long DRAIN_SLICE_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30000;
+    private static final int REPLAY_BATCH_SIZE = 10;
+    private static final int HEADER_BYTES = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static ScrtOutbox defaultOutbox; // guarded by ScrtOutbox.class
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final long maxBytes;
+    private final long maxAgeMs;
+    private final ScrtClient client;
+    private final ScrtTokenProvider tokenProvider;
+    private final ScrtRateLimiter rateLimiter;
+    private final ScrtMessageDeduplicator deduplicator;
+    private final ScheduledExecutorService executor;
+
+    private FileChannel active = null; // guarded by this
+    private Path activePath = null; // guarded by this
+    private long activeSize = 0; // guarded by this
+    private long nextSegmentId = 0; // guarded by this
+    private boolean dirty = false; // guarded by this, records appended since the last sync
+    private long totalBytes = 0; // guarded by this
+    private long appended = 0; // guarded by this
+    private long replayed = 0; // guarded by this
+    private long discarded = 0; // guarded by this
+    private long overflowed = 0; // guarded by this
+    private MetricHistogram replayLag = new MetricHistogram(); // guarded by this
+
+    // held by the drainer replaying the segments, in the background or at the end of an invocation
+    private final ReentrantLock drainLock = new ReentrantLock();
+    // drains at the end of an invocation waiting for the background drainer to hand over
+    private final AtomicInteger finalDrains = new AtomicInteger();
+    private Path drainingPath = null; // guarded by drainLock
+    private long drainOffset = 0; // guarded by drainLock
+    private long backoffMs = DRAIN_INTERVAL_MS; // guarded by drainLock
+    private long slotDueNanos = 0; // guarded by drainLock, when the slot reserved for the next request is due, 0 when none is
+    private boolean replayFailed = false; // guarded by drainLock, whether the last replay was failed or throttled by SCRT
+
+    /**
+     * @param dir           directory of the segments, created if missing, whose segments left by a previous container
+     *                      are sent again
+     * @param segmentBytes  size of a segment file, beyond which a new one is started
+     * @param maxBytes      size of all the segments at most
+     * @param maxAgeMs      time since its failure after which a segment is discarded
+     * @param client        client sending the segments again
+     * @param tokenProvider token authenticating the requests
+     * @param rateLimiter   limiter giving the slots of the requests, or null to send them back to back
+     * @param deduplicator  deduplicator of the container, or null to send every segment again
+     */
+    public ScrtOutbox(Path dir, long segmentBytes, long maxBytes, long maxAgeMs, ScrtClient client,
+                      ScrtTokenProvider tokenProvider, ScrtRateLimiter rateLimiter,
+                      ScrtMessageDeduplicator deduplicator) throws IOException {
+        Validate.isTrue(segmentBytes > HEADER_BYTES && maxBytes >= segmentBytes, "Outbox must hold at least a segment");
+        this.dir = Files.createDirectories(dir);
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+        this.client = Validate.notNull(client);
+        this.tokenProvider = Validate.notNull(tokenProvider);
+        this.rateLimiter = rateLimiter;
+        this.deduplicator = deduplicator;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "scrt-outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Path segment : listSegments()) {
+            totalBytes += Files.size(segment);
+            nextSegmentId = Math.max(nextSegmentId, getSegmentId(segment) + 1);
+        }
+    }
+
+    /**
+     * @return the outbox shared by the process, draining in the background, or null when its directory cannot be used
+     */
+    public static synchronized ScrtOutbox getDefault() {
+        if (defaultOutbox == null) {
+            try {
+                defaultOutbox = new ScrtOutbox(Paths.get(SCRT_OUTBOX_DIR), SEGMENT_BYTES, SCRT_OUTBOX_MAX_BYTES, SCRT_OUTBOX_MAX_AGE_MS,
+                        ScrtClient.getDefault(), ScrtTokenProvider.getDefault(), ScrtRateLimiter.getDefault(),
+                        ScrtMessageDeduplicator.getDefault());
+                defaultOutbox.start();
+            } catch (IOException e) {
+                SCVLoggingUtil.error("com.amazonaws.kvstranscribestreaming.ScrtOutbox", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION,
+                        "Outbox unavailable: " + e.getMessage(), null);
+                return null;
+            }
+        }
+        return defaultOutbox;
+    }
+
+    /**
+     * Starts syncing the appends and draining the outbox in the background
+     */
+    public void start() {
+        executor.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        executor.schedule(this::drainInBackground, DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends a segment whose delivery failed, synced to the disk with the next batch
+     *
+     * @return false if the segment could not be kept, because the outbox is full or could not be written
+     */
+    public boolean append(String voiceCallId, ScrtMessage message) {
+        JSONObject record = new JSONObject();
+        record.put("voiceCallId", voiceCallId);
+        record.put("failedAtMs", System.currentTimeMillis());
+        record.put("message", message.toJson());
+        record.put("partial", message.isPartial());
+        byte[] payload = record.toJSONString().getBytes(StandardCharsets.UTF_8);
+        CRC32C checksum = new CRC32C();
+        checksum.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length).putInt((int) checksum.getValue()).put(payload).flip();
+        int recordBytes = buffer.remaining();
+
+        synchronized (this) {
+            if (totalBytes + recordBytes > maxBytes) {
+                overflowed++;
+                SCVLoggingUtil.warn("com.amazonaws.kvstranscribestreaming.ScrtOutbox.append", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION,
+                        "Outbox full, dropped message " + message.getMessageId() + " of voice call " + voiceCallId, null);
+                return false;
+            }
+            try {
+                if (active == null || (activeSize > 0 && activeSize + recordBytes > segmentBytes)) {
+                    startSegment();
+                }
+                while (buffer.hasRemaining()) {
+                    int written = active.write(buffer);
+                    activeSize += written;
+                    totalBytes += written;
+                }
+                dirty = true;
+                appended++;
+                return true;
+            } catch (IOException e) {
+                SCVLoggingUtil.error("com.amazonaws.kvstranscribestreaming.ScrtOutbox.append", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION, e.getMessage(), null);
+                // a torn record ends its segment, the next records go to a new one
+                sealActive();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Syncs the records appended since the last sync to the disk
+     */
+    public synchronized void sync() throws IOException {
+        if (dirty && active != null) {
+            active.force(false);
+        }
+        dirty = false;
+    }
+
+    /**
+     * Sends the outbox again until it is empty, SCRT fails, or the timeout passes, on the calling thread
+     *
+     * @param timeoutMs time to drain for at most
+     * @return true if the outbox is empty
+     */
+    public boolean drain(long timeoutMs) throws InterruptedException {
+        syncQuietly();
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        finalDrains.incrementAndGet();
+        try {
+            if (!drainLock.tryLock(Math.max(0, timeoutMs), TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            try {
+                drainUntil(deadlineNanos, true);
+            } catch (RuntimeException e) {
+                SCVLoggingUtil.error("com.amazonaws.kvstranscribestreaming.ScrtOutbox.drain", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION, e.getMessage(), null);
+            } finally {
+                drainLock.unlock();
+            }
+        } finally {
+            finalDrains.decrementAndGet();
+        }
+        return isEmpty();
+    }
+
+    public synchronized boolean isEmpty() {
+        return totalBytes == 0;
+    }
+
+    public synchronized long getBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getAppended() {
+        return appended;
+    }
+
+    public synchronized long getReplayed() {
+        return replayed;
+    }
+
+    public synchronized long getDiscarded() {
+        return discarded;
+    }
+
+    /**
+     * Records the size of the outbox, and what happened to it since the last time its metrics were recorded
+     */
+    public void recordMetrics(MetricsUtil metricsUtil) {
+        MetricHistogram lag;
+        synchronized (this) {
+            metricsUtil.recordMetric("ScrtOutboxBytes", totalBytes);
+            metricsUtil.recordMetric("ScrtOutboxAppended", appended);
+            metricsUtil.recordMetric("ScrtOutboxReplayed", replayed);
+            metricsUtil.recordMetric("ScrtOutboxDiscarded", discarded);
+            metricsUtil.recordMetric("ScrtOutboxOverflowed", overflowed);
+            appended = 0;
+            replayed = 0;
+            discarded = 0;
+            overflowed = 0;
+            lag = replayLag;
+            replayLag = new MetricHistogram();
+        }
+        lag.recordMetrics(metricsUtil, "ScrtOutboxReplayLagMs");
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            SCVLoggingUtil.error("com.amazonaws.kvstranscribestreaming.ScrtOutbox.sync", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION, e.getMessage(), null);
+        }
+    }
+
+    private void drainInBackground() {
+        long delayMs = DRAIN_INTERVAL_MS;
+        // a drain at the end of an invocation holding the outbox leaves it to the next slice
+        if (drainLock.tryLock()) {
+            try {
+                drainUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_SLICE_MS), false);
+            } catch (RuntimeException e) {
+                SCVLoggingUtil.error("com.amazonaws.kvstranscribestreaming.ScrtOutbox.drain", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION, e.getMessage(), null);
+                replayFailed = true;
+            } finally {
+                backoffMs = replayFailed ? Math.min(MAX_BACKOFF_MS, backoffMs * 2) : DRAIN_INTERVAL_MS;
+                delayMs = slotDueNanos != 0 && !replayFailed
+                        ? Math.max(0, TimeUnit.NANOSECONDS.toMillis(slotDueNanos - System.nanoTime())) : backoffMs;
+                drainLock.unlock();
+            }
+        }
+        executor.schedule(this::drainInBackground, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replays the segments oldest first, until the outbox is drained, a replay fails, or the deadline passes. A
+     * background drain also stops when the slot of its next request is not due yet, or a final drain is waiting.
+     *
+     * @param finalDrain whether this is the drain at the end of an invocation, which waits for the slots of its requests
+     */
+    private void drainUntil(long deadlineNanos, boolean finalDrain) {
+        replayFailed = false;
+        while (System.nanoTime() < deadlineNanos) {
+            Path segment = nextSegment();
+            if (segment == null) {
+                return;
+            }
+            try {
+                if (!drainSegment(segment, deadlineNanos, finalDrain)) {
+                    return;
+                }
+            } catch (IOException e) {
+                SCVLoggingUtil.error("com.amazonaws.kvstranscribestreaming.ScrtOutbox.drain", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION, e.getMessage(), null);
+                replayFailed = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the oldest segment, sealing it first when it is the one being appended to, null when there is none
+     */
+    private synchronized Path nextSegment() {
+        List<Path> segments;
+        try {
+            segments = listSegments();
+        } catch (IOException e) {
+            SCVLoggingUtil.error("com.amazonaws.kvstranscribestreaming.ScrtOutbox.drain", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION, e.getMessage(), null);
+            return null;
+        }
+        if (segments.isEmpty()) {
+            return null;
+        }
+        Path oldest = segments.get(0);
+        if (oldest.equals(activePath)) {
+            if (activeSize == 0) {
+                return null;
+            }
+            sealActive();
+        }
+        return oldest;
+    }
+
+    /**
+     * Replays the records of a segment from the position reached, in batches of the consecutive records of a voice
+     * call, and deletes it once they are all done
+     *
+     * @return false if the drain stopped before the end of the segment
+     */
+    private boolean drainSegment(Path segment, long deadlineNanos, boolean finalDrain) throws IOException {
+        long offset = segment.equals(drainingPath) ? drainOffset : 0;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            List<Record> batch = new ArrayList<>();
+            long readOffset = offset;
+            Record record;
+            do {
+                ByteBuffer payload = readRecord(channel, readOffset);
+                record = payload == null ? null : parseRecord(payload, readOffset + HEADER_BYTES + payload.capacity());
+                if (!batch.isEmpty() && (record == null || batch.size() >= REPLAY_BATCH_SIZE
+                        || !Objects.equals(record.voiceCallId, batch.get(0).voiceCallId))) {
+                    boolean stopped = System.nanoTime() >= deadlineNanos || (!finalDrain && finalDrains.get() > 0);
+                    int done = stopped ? 0 : replay(batch, deadlineNanos, finalDrain);
+                    if (done > 0) {
+                        offset = batch.get(done - 1).endOffset;
+                    }
+                    if (done < batch.size()) {
+                        drainingPath = segment;
+                        drainOffset = offset;
+                        return false;
+                    }
+                    batch.clear();
+                }
+                if (record != null) {
+                    batch.add(record);
+                    readOffset = record.endOffset;
+                }
+            } while (record != null);
+            if (offset < channel.size()) {
+                SCVLoggingUtil.warn("com.amazonaws.kvstranscribestreaming.ScrtOutbox.drain", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION,
+                        "Discarded " + (channel.size() - offset) + " torn or corrupt bytes at the end of " + segment, null);
+            }
+        }
+        long size = Files.size(segment);
+        Files.deleteIfExists(segment);
+        synchronized (this) {
+            totalBytes -= size;
+        }
+        drainingPath = null;
+        drainOffset = 0;
+        return true;
+    }
+
+    /**
+     * Sends the records of a voice call again, in one request, through the send path of the delivery pipelines
+     *
+     * @return number of the first records of the batch done, delivered or discarded, the others to be sent again later
+     */
+    private int replay(List<Record> batch, long deadlineNanos, boolean finalDrain) {
+        String voiceCallId = batch.get(0).voiceCallId;
+        List<ScrtMessage> messages = new ArrayList<>();
+        for (Record record : batch) {
+            if (record.message == null || record.ageMs > maxAgeMs) {
+                // a record of another format, or too old
+                synchronized (this) {
+                    discarded++;
+                }
+            } else if (deduplicator == null || !deduplicator.isDuplicate(voiceCallId, record.message)) {
+                messages.add(record.message);
+            }
+        }
+        if (messages.isEmpty()) {
+            return batch.size();
+        }
+
+        CompletableFuture<HttpResponse<String>> request = null;
+        HttpResponse<String> response;
+        try {
+            if (!awaitSlot(deadlineNanos, finalDrain)) {
+                return 0;
+            }
+            request = ScrtDeliveryPipeline.post(client, voiceCallId, messages, tokenProvider.getJWTToken());
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            response = request.get(Math.max(0, remainingMs), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } catch (TimeoutException e) {
+            // the records are kept, and the deduplicator told of those SCRT takes once the response is in
+            request.thenAccept(late -> {
+                if (late.statusCode() < 300 && deduplicator != null) {
+                    messages.forEach(message -> deduplicator.onDelivered(voiceCallId, message));
+                }
+            });
+            return 0;
+        } catch (Exception e) {
+            SCVLoggingUtil.error("com.amazonaws.kvstranscribestreaming.ScrtOutbox.replay", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION, e.getMessage(), null);
+            if (!ScrtDeliveryPipeline.mayHaveBeenDelivered(e)) {
+                replayFailed = true;
+                return 0;
+            }
+            synchronized (this) {
+                discarded += messages.size();
+            }
+            SCVLoggingUtil.warn("com.amazonaws.kvstranscribestreaming.ScrtOutbox.replay", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION,
+                    "Discarded " + messages.size() + " messages of voice call " + voiceCallId + " SCRT may have taken", null);
+            return batch.size();
+        }
+
+        int code = response.statusCode();
+        if (code == 429 || code >= 500) {
+            replayFailed = true;
+            if (code == 429 && rateLimiter != null) {
+                String retryAfter = response.headers() == null ? null : response.headers().firstValue("Retry-After").orElse(null);
+                rateLimiter.onThrottled(ScrtRateLimiter.parseRetryAfterMs(retryAfter, System.currentTimeMillis()));
+            }
+            // the position only moves past the records discarded or skipped before the first one sent
+            int done = 0;
+            while (batch.get(done).message != messages.get(0)) {
+                done++;
+            }
+            return done;
+        }
+        synchronized (this) {
+            if (code < 300) {
+                replayed += messages.size();
+                batch.stream().filter(record -> messages.contains(record.message)).forEach(record -> replayLag.record(record.ageMs));
+            } else {
+                discarded += messages.size();
+            }
+        }
+        if (code < 300) {
+            if (deduplicator != null) {
+                messages.forEach(message -> deduplicator.onDelivered(voiceCallId, message));
+            }
+            if (rateLimiter != null) {
+                rateLimiter.onDelivered();
+            }
+        } else {
+            SCVLoggingUtil.warn("com.amazonaws.kvstranscribestreaming.ScrtOutbox.replay", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION,
+                    "Discarded messages " + messages.stream().map(ScrtMessage::getMessageId).collect(Collectors.joining(","))
+                            + " of voice call " + voiceCallId + " rejected with " + code, null);
+        }
+        return batch.size();
+    }
+
+    /**
+     * Takes the slot of the next request from the rate limiter, keeping the slot reserved when it is not due yet. A
+     * final drain waits for its slot, a background drain comes back for it later.
+     *
+     * @return false if the slot is not due yet, or not before the deadline
+     */
+    private boolean awaitSlot(long deadlineNanos, boolean finalDrain) throws InterruptedException {
+        if (rateLimiter == null) {
+            return true;
+        }
+        if (slotDueNanos == 0) {
+            slotDueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(rateLimiter.reserve());
+        }
+        long waitNanos = slotDueNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            if (!finalDrain || slotDueNanos >= deadlineNanos) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        slotDueNanos = 0;
+        return true;
+    }
+
+    /**
+     * @param endOffset offset of the record following it in its segment
+     * @return the record, without a message when it is of another format
+     */
+    private static Record parseRecord(ByteBuffer payload, long endOffset) {
+        try {
+            JSONObject record = (JSONObject) new JSONParser().parse(new String(payload.array(), StandardCharsets.UTF_8));
+            String voiceCallId = Validate.notNull((String) record.get("voiceCallId"));
+            ScrtMessage message = ScrtMessage.fromJson(Validate.notNull((JSONObject) record.get("message")), Boolean.TRUE.equals(record.get("partial")));
+            long ageMs = System.currentTimeMillis() - (Long) record.get("failedAtMs");
+            return new Record(voiceCallId, message, ageMs, endOffset);
+        } catch (ParseException | RuntimeException e) {
+            return new Record(null, null, 0, endOffset);
+        }
+    }
+
+    /**
+     * @return payload of the record at the offset, null at the end of the segment or when the record is torn or corrupt
+     */
+    private ByteBuffer readRecord(FileChannel channel, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        if (!readFully(channel, header, offset)) {
+            return null;
+        }
+        header.flip();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (length <= 0 || length > segmentBytes) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        if (!readFully(channel, payload, offset + HEADER_BYTES)) {
+            return null;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(payload.array());
+        return (int) crc.getValue() == checksum ? payload : null;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void startSegment() throws IOException {
+        sealActive();
+        activePath = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+        active = FileChannel.open(activePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        activeSize = 0;
+    }
+
+    /**
+     * Syncs and closes the segment being appended to, the next append starts a new one
+     */
+    private void sealActive() {
+        if (active != null) {
+            try {
+                active.force(false);
+                active.close();
+            } catch (IOException e) {
+                SCVLoggingUtil.error("com.amazonaws.kvstranscribestreaming.ScrtOutbox", SCVLoggingUtil.EVENT_TYPE.TRANSCRIPTION, e.getMessage(), null);
+            }
+        }
+        active = null;
+        activePath = null;
+        activeSize = 0;
+        dirty = false;
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static long getSegmentId(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Record of a segment file, being replayed
+     */
+    private static final class Record {
+        private final String voiceCallId;
+        private final ScrtMessage message;
+        private final long ageMs;
+        private final long endOffset;
+
+        private Record(String voiceCallId, ScrtMessage message, long ageMs, long endOffset) {
+            this.voiceCallId = voiceCallId;
+            this.message = message;
+            this.ageMs = ageMs;
+            this.endOffset = endOffset;
+        }
+    }
+}
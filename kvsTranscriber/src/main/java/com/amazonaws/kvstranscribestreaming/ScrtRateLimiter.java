@@ -0,0 +1,128 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.apache.commons.lang3.Validate;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Spaces out the requests to SCRT of all the calls of the container, at a rate adapting to the throttling of SCRT.
+ *
+ * Each request reserves the next free slot at the current rate. A throttled request halves the rate, at most once per
+ * backoff period so that the requests already in flight do not halve it again, and blocks all the requests until the
+ * time given by the Retry-After header of the response, or for the backoff period when there is none. Each delivered
+ * request then raises the rate again by a fixed step, up to the maximum rate.
+ */
+public class ScrtRateLimiter {
+    // Requests per second to SCRT when the container starts, and at most
+    private static final double SCRT_RATE_LIMIT_INITIAL_RPS = Double.parseDouble(Optional.ofNullable(System.getenv("SCRT_RATE_LIMIT_INITIAL_RPS")).orElse("25"));
+    private static final double SCRT_RATE_LIMIT_MAX_RPS = Double.parseDouble(Optional.ofNullable(System.getenv("SCRT_RATE_LIMIT_MAX_RPS")).orElse("100"));
+    private static final double MIN_RPS = 1;
+    private static final double RPS_INCREASE = 0.5;
+    private static final long THROTTLE_BACKOFF_MS = 1000;
+
+    private static ScrtRateLimiter defaultLimiter; // guarded by ScrtRateLimiter.class
+
+    private final double maxRps;
+    private final LongSupplier nanoClock;
+    private double rps; // guarded by this
+    private long nextSlotNanos; // guarded by this
+    private long blockedUntilNanos; // guarded by this
+    private long lastDecreaseNanos; // guarded by this
+    private long throttles = 0; // guarded by this
+
+    /**
+     * @param initialRps requests per second until SCRT throttles them
+     * @param maxRps     requests per second at most
+     * @param nanoClock  clock of the slots, System.nanoTime outside of tests
+     */
+    public ScrtRateLimiter(double initialRps, double maxRps, LongSupplier nanoClock) {
+        Validate.isTrue(initialRps >= MIN_RPS && maxRps >= initialRps, "Rates must be at least 1 request per second, the initial one at most the maximum");
+        this.rps = initialRps;
+        this.maxRps = maxRps;
+        this.nanoClock = Validate.notNull(nanoClock);
+        long now = nanoClock.getAsLong();
+        this.nextSlotNanos = now;
+        this.blockedUntilNanos = now;
+        this.lastDecreaseNanos = now - TimeUnit.MILLISECONDS.toNanos(THROTTLE_BACKOFF_MS);
+    }
+
+    /**
+     * @return the limiter shared by the process
+     */
+    public static synchronized ScrtRateLimiter getDefault() {
+        if (defaultLimiter == null) {
+            defaultLimiter = new ScrtRateLimiter(SCRT_RATE_LIMIT_INITIAL_RPS, SCRT_RATE_LIMIT_MAX_RPS, System::nanoTime);
+        }
+        return defaultLimiter;
+    }
+
+    /**
+     * Reserves the next slot for a request
+     *
+     * @return time until the slot, when the request may be sent
+     */
+    public synchronized long reserve() {
+        long now = nanoClock.getAsLong();
+        long slot = Math.max(Math.max(now, nextSlotNanos), blockedUntilNanos);
+        nextSlotNanos = slot + (long) (TimeUnit.SECONDS.toNanos(1) / rps);
+        return TimeUnit.NANOSECONDS.toMillis(slot - now);
+    }
+
+    /**
+     * Raises the rate after a request was delivered
+     */
+    public synchronized void onDelivered() {
+        rps = Math.min(maxRps, rps + RPS_INCREASE);
+    }
+
+    /**
+     * Lowers the rate and holds the requests back after SCRT throttled one
+     *
+     * @param retryAfterMs time SCRT asked to wait for, -1 when it did not
+     */
+    public synchronized void onThrottled(long retryAfterMs) {
+        long now = nanoClock.getAsLong();
+        throttles++;
+        if (now - lastDecreaseNanos >= TimeUnit.MILLISECONDS.toNanos(THROTTLE_BACKOFF_MS)) {
+            rps = Math.max(MIN_RPS, rps / 2);
+            lastDecreaseNanos = now;
+        }
+        long waitMs = retryAfterMs >= 0 ? retryAfterMs : THROTTLE_BACKOFF_MS;
+        blockedUntilNanos = Math.max(blockedUntilNanos, now + TimeUnit.MILLISECONDS.toNanos(waitMs));
+    }
+
+    public synchronized double getRps() {
+        return rps;
+    }
+
+    public synchronized long getThrottles() {
+        return throttles;
+    }
+
+    /**
+     * @param retryAfter value of a Retry-After header, either seconds or an HTTP date
+     * @param nowMs      current time, in milliseconds since the epoch
+     * @return time to wait for, -1 when the value cannot be parsed
+     */
+    public static long parseRetryAfterMs(String retryAfter, long nowMs) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        String value = retryAfter.trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            // not a number of seconds, may be a date
+        }
+        try {
+            return Math.max(0, ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - nowMs);
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
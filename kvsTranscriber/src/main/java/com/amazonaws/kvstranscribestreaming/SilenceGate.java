@@ -0,0 +1,183 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Holds back the long silent stretches of a track instead of streaming them to Transcribe, such as hold periods or
+ * the side of the call that is listening.
+ *
+ * A chunk is silent when the RMS energy of its 16-bit PCM samples is below a threshold. Once a track has been silent
+ * for longer than the hold time, its silent chunks are dropped, except for one every keep-alive interval so that
+ * Transcribe does not time the stream out. Since Transcribe times the results on the audio it received, the gate
+ * keeps track of what it dropped, and {@link #toStreamTimeMs(double)} maps the times of the results back to the time
+ * of the call, as used with audioStartTimestamp.
+ *
+ * When gating is disabled, all the audio goes through, and only the bytes and the lag of the results are measured,
+ * so that both setups can be compared.
+ */
+public class SilenceGate implements KVSAudioChunkSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(SilenceGate.class);
+
+    // Connect streams 8 kHz, 16-bit mono PCM
+    static final int BYTES_PER_MS = 16;
+
+    private final int bytesPerMs;
+
+    private final KVSAudioChunkSource audioChunkSource;
+    private final String track;
+    private final boolean enabled;
+    private final long rmsThresholdSquared;
+    private final long holdMs;
+    private final long keepAliveMs;
+    private final MetricsUtil metricsUtil;
+
+    // times in ms of audio: read from the stream, sent to Transcribe, and dropped
+    private long streamMs = 0;
+    private long sentMs = 0;
+    private long suppressedMs = 0;
+    private long silentRunMs = 0;
+    private long suppressedSinceLastSendMs = 0;
+    private final TreeMap<Long, Long> suppressedMsBySentMs = new TreeMap<>();
+
+    private long bytesSent = 0;
+    private long bytesSuppressed = 0;
+    private long totalResultLagMs = 0;
+    private long results = 0;
+
+    /**
+     * @param audioChunkSource source of the chunks of the track
+     * @param track            name of the track
+     * @param enabled          whether silent stretches are dropped, or only measured
+     * @param rmsThreshold     RMS energy of the 16-bit samples below which a chunk is silent
+     * @param holdMs           duration of silence streamed in full before the gate closes
+     * @param keepAliveMs      interval of the silent chunks still sent while the gate is closed
+     * @param metricsUtil
+     */
+    public SilenceGate(KVSAudioChunkSource audioChunkSource, String track, boolean enabled, int rmsThreshold,
+                       long holdMs, long keepAliveMs, MetricsUtil metricsUtil) {
+        this(audioChunkSource, track, 1, enabled, rmsThreshold, holdMs, keepAliveMs, metricsUtil);
+    }
+
+    /**
+     * @param channels number of interleaved channels of the track, which is silent when all its channels are
+     */
+    public SilenceGate(KVSAudioChunkSource audioChunkSource, String track, int channels, boolean enabled, int rmsThreshold,
+                       long holdMs, long keepAliveMs, MetricsUtil metricsUtil) {
+        Validate.isTrue(channels > 0, "Number of channels must be positive");
+        this.bytesPerMs = BYTES_PER_MS * channels;
+        this.audioChunkSource = Validate.notNull(audioChunkSource);
+        this.track = Validate.notNull(track);
+        this.enabled = enabled;
+        Validate.isTrue(rmsThreshold >= 0, "RMS threshold must not be negative");
+        this.rmsThresholdSquared = (long) rmsThreshold * rmsThreshold;
+        this.holdMs = holdMs;
+        Validate.isTrue(keepAliveMs > 0, "Keep-alive interval must be positive");
+        this.keepAliveMs = keepAliveMs;
+        this.metricsUtil = Validate.notNull(metricsUtil);
+    }
+
+    @Override
+    public ByteBuffer getByteBufferFromStream(String track) throws MkvElementVisitException {
+        Validate.isTrue(this.track.equals(track), "Unknown track " + track);
+        while (true) {
+            ByteBuffer chunk = audioChunkSource.getByteBufferFromStream(track);
+            if (!chunk.hasRemaining() || onChunk(chunk)) {
+                return chunk;
+            }
+        }
+    }
+
+    /**
+     * Maps a time of a Transcribe result, counted on the audio sent, to the time of the call
+     *
+     * @param transcribeSeconds start or end time of a result
+     * @return time in ms from the start of the audio of the call
+     */
+    public long toStreamTimeMs(double transcribeSeconds) {
+        return toStreamTimeMs(Math.round(transcribeSeconds * 1000));
+    }
+
+    /**
+     * Maps a time of the audio sent to Transcribe to the time of the call
+     *
+     * @param transcribeMs time in ms, counted on the audio sent to Transcribe
+     * @return time in ms from the start of the audio of the call
+     */
+    public synchronized long toStreamTimeMs(long transcribeMs) {
+        Map.Entry<Long, Long> suppressedBefore = suppressedMsBySentMs.floorEntry(transcribeMs);
+        return transcribeMs + (suppressedBefore == null ? 0 : suppressedBefore.getValue());
+    }
+
+    /**
+     * Measures how far behind the audio read from the stream a final result arrives
+     *
+     * @param resultEndStreamMs end time of the result, as returned by {@link #toStreamTimeMs(double)}
+     */
+    public synchronized void recordResultLag(long resultEndStreamMs) {
+        totalResultLagMs += Math.max(0, streamMs - resultEndStreamMs);
+        results++;
+    }
+
+    /**
+     * Records the audio sent and dropped for the track, once its transcription has ended
+     */
+    public synchronized void recordMetrics() {
+        long averageResultLagMs = results == 0 ? 0 : totalResultLagMs / results;
+        logger.info("Track {}: {} bytes sent, {} bytes of silence dropped, {} ms average result lag",
+                track, bytesSent, bytesSuppressed, averageResultLagMs);
+        metricsUtil.recordMetric("SilenceGateBytesSent", bytesSent);
+        metricsUtil.recordMetric("SilenceGateBytesSuppressed", bytesSuppressed);
+        if (results > 0) {
+            metricsUtil.recordMetric("TranscriptResultLagMs", averageResultLagMs);
+        }
+    }
+
+    /**
+     * @return whether the chunk is sent to Transcribe
+     */
+    private synchronized boolean onChunk(ByteBuffer chunk) {
+        long chunkMs = chunk.remaining() / bytesPerMs;
+        streamMs += chunkMs;
+        silentRunMs = isSilent(chunk) ? silentRunMs + chunkMs : 0;
+
+        boolean send = !enabled || silentRunMs <= holdMs || suppressedSinceLastSendMs >= keepAliveMs;
+        if (!send) {
+            suppressedMs += chunkMs;
+            suppressedSinceLastSendMs += chunkMs;
+            bytesSuppressed += chunk.remaining();
+            return false;
+        }
+
+        if (suppressedSinceLastSendMs > 0) {
+            // audio sent from here on is that much later in the call
+            suppressedMsBySentMs.put(sentMs, suppressedMs);
+            suppressedSinceLastSendMs = 0;
+        }
+        sentMs += chunkMs;
+        bytesSent += chunk.remaining();
+        return true;
+    }
+
+    private boolean isSilent(ByteBuffer chunk) {
+        ByteBuffer samples = chunk.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int sampleCount = samples.remaining() / 2;
+        if (sampleCount == 0) {
+            return true;
+        }
+        long sumOfSquares = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            int sample = samples.getShort();
+            sumOfSquares += (long) sample * sample;
+        }
+        return sumOfSquares < rmsThresholdSquared * sampleCount;
+    }
+}
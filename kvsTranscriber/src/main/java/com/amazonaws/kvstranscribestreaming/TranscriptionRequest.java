@@ -1,6 +1,8 @@
 package com.amazonaws.kvstranscribestreaming;
 
 import java.util.Optional;
+
+import org.json.simple.JSONObject;
 import software.amazon.awssdk.services.transcribestreaming.model.LanguageCode;
 import software.amazon.awssdk.services.transcribestreaming.model.Specialty;
 import software.amazon.awssdk.services.transcribestreaming.model.VocabularyFilterMethod;
@@ -37,6 +39,14 @@ public class TranscriptionRequest {
     Optional<String> vocabularyFilterName = Optional.empty();
     Optional<String> vocabularyFilterMethod = Optional.empty();
     Optional<String> specialty = Optional.empty();
+    // set by the previous invocation of a call continued past the Lambda time limit
+    Optional<String> startSelectorType = Optional.empty();
+    int continuation = 0;
+    long fromCustomerAudioOffsetMs = 0;
+    long toCustomerAudioOffsetMs = 0;
+    long fromCustomerLastEndTime = 0;
+    long toCustomerLastEndTime = 0;
+    long handoffTimestamp = 0;
 
     public String getStreamARN() {
         return this.streamARN;
@@ -160,9 +170,96 @@ public class TranscriptionRequest {
         }
     }
 
+    public Optional<String> getStartSelectorType() {
+        return this.startSelectorType;
+    }
+
+    public void setStartSelectorType(String startSelectorType) {
+        if ((startSelectorType != null) && (startSelectorType.length() > 0)) {
+            this.startSelectorType = Optional.of(startSelectorType);
+        }
+    }
+
+    public int getContinuation() {
+        return this.continuation;
+    }
+
+    public void setContinuation(int continuation) {
+        this.continuation = continuation;
+    }
+
+    public long getFromCustomerAudioOffsetMs() {
+        return this.fromCustomerAudioOffsetMs;
+    }
+
+    public void setFromCustomerAudioOffsetMs(long fromCustomerAudioOffsetMs) {
+        this.fromCustomerAudioOffsetMs = fromCustomerAudioOffsetMs;
+    }
+
+    public long getToCustomerAudioOffsetMs() {
+        return this.toCustomerAudioOffsetMs;
+    }
+
+    public void setToCustomerAudioOffsetMs(long toCustomerAudioOffsetMs) {
+        this.toCustomerAudioOffsetMs = toCustomerAudioOffsetMs;
+    }
+
+    public long getFromCustomerLastEndTime() {
+        return this.fromCustomerLastEndTime;
+    }
+
+    public void setFromCustomerLastEndTime(long fromCustomerLastEndTime) {
+        this.fromCustomerLastEndTime = fromCustomerLastEndTime;
+    }
+
+    public long getToCustomerLastEndTime() {
+        return this.toCustomerLastEndTime;
+    }
+
+    public void setToCustomerLastEndTime(long toCustomerLastEndTime) {
+        this.toCustomerLastEndTime = toCustomerLastEndTime;
+    }
+
+    public long getHandoffTimestamp() {
+        return this.handoffTimestamp;
+    }
+
+    public void setHandoffTimestamp(long handoffTimestamp) {
+        this.handoffTimestamp = handoffTimestamp;
+    }
+
+    /**
+     * @return the request as the payload of an invocation, read back through the setters
+     */
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("streamARN", streamARN);
+        json.put("startFragmentNum", startFragmentNum);
+        json.put("audioStartTimestamp", String.valueOf(audioStartTimestamp));
+        json.put("customerPhoneNumber", customerPhoneNumber);
+        json.put("voiceCallId", voiceCallId);
+        json.put("streamAudioFromCustomer", streamAudioFromCustomer);
+        json.put("streamAudioToCustomer", streamAudioToCustomer);
+        json.put("instanceARN", instanceARN);
+        json.put("engine", engine);
+        languageCode.ifPresent(value -> json.put("languageCode", value));
+        vocabularyName.ifPresent(value -> json.put("vocabularyName", value));
+        vocabularyFilterName.ifPresent(value -> json.put("vocabularyFilterName", value));
+        vocabularyFilterMethod.ifPresent(value -> json.put("vocabularyFilterMethod", value));
+        specialty.ifPresent(value -> json.put("specialty", value));
+        startSelectorType.ifPresent(value -> json.put("startSelectorType", value));
+        json.put("continuation", continuation);
+        json.put("fromCustomerAudioOffsetMs", fromCustomerAudioOffsetMs);
+        json.put("toCustomerAudioOffsetMs", toCustomerAudioOffsetMs);
+        json.put("fromCustomerLastEndTime", fromCustomerLastEndTime);
+        json.put("toCustomerLastEndTime", toCustomerLastEndTime);
+        json.put("handoffTimestamp", handoffTimestamp);
+        return json;
+    }
+
     public String toString() {
-        return String.format("streamARN=%s, startFragmentNum=%s, voiceCallId=%s, languageCode=%s, audioStartTimestamp=%s, streamAudioFromCustomer=%s, streamAudioToCustomer=%s, engine=%s, vocabularyName=%s, vocabularyFilterName=%s, vocabularyFilterMethod=%s, specialty=%s",
-                getStreamARN(), getStartFragmentNum(), getVoiceCallId(), getLanguageCode(), getAudioStartTimestamp(), isStreamAudioFromCustomer(), isStreamAudioToCustomer(), getEngine(), getVocabularyName(), getVocabularyFilterName(), getVocabularyFilterMethod(), getSpecialty());
+        return String.format("streamARN=%s, startFragmentNum=%s, voiceCallId=%s, languageCode=%s, audioStartTimestamp=%s, streamAudioFromCustomer=%s, streamAudioToCustomer=%s, engine=%s, vocabularyName=%s, vocabularyFilterName=%s, vocabularyFilterMethod=%s, specialty=%s, continuation=%s",
+                getStreamARN(), getStartFragmentNum(), getVoiceCallId(), getLanguageCode(), getAudioStartTimestamp(), isStreamAudioFromCustomer(), isStreamAudioToCustomer(), getEngine(), getVocabularyName(), getVocabularyFilterName(), getVocabularyFilterMethod(), getSpecialty(), getContinuation());
     }
 
     public void validate() throws IllegalArgumentException {
@@ -0,0 +1,89 @@
+package com.amazonaws.transcribestreaming;
+
+import com.amazonaws.kvstranscribestreaming.MetricsUtil;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of daemon threads running the audio pumps of the {@link KVSByteToAudioEventSubscription}s, shared by
+ * all the subscriptions of the process, across tracks, Transcribe retries and warm invocations.
+ *
+ * A pump only holds a thread while it has demand to serve, so a few threads are enough for the tracks of a call. Pumps
+ * that find all the threads busy wait in a bounded queue; past that, the pool rejects them rather than growing, so
+ * that a leak of pumps fails the stream it affects instead of the whole container. Idle threads are released after
+ * a while.
+ */
+public class AudioPumpExecutor implements Executor {
+
+    private static final Logger logger = LoggerFactory.getLogger(AudioPumpExecutor.class);
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    private static final int QUEUED_PUMPS_PER_THREAD = 4;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param maxThreads maximum number of pumps running at once
+     */
+    public AudioPumpExecutor(int maxThreads) {
+        Validate.isTrue(maxThreads > 0, "Audio pump threads must be positive");
+        this.executor = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUED_PUMPS_PER_THREAD * maxThreads), new PumpThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @throws java.util.concurrent.RejectedExecutionException when all the threads are busy and the queue is full
+     */
+    @Override
+    public void execute(Runnable pump) {
+        executor.execute(pump);
+    }
+
+    /**
+     * @return number of pumps running
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return number of threads of the pool, running or idle
+     */
+    public int getPoolSize() {
+        return executor.getPoolSize();
+    }
+
+    /**
+     * Records the threads of the pool and of the whole JVM, so that leaked threads show in the metrics of the warm
+     * invocations before they exhaust the memory of the container
+     */
+    public void recordMetrics(MetricsUtil metricsUtil) {
+        int liveThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        logger.info("Audio pumps: {} active, {} threads; {} live threads in the JVM",
+                getActiveCount(), getPoolSize(), liveThreads);
+        metricsUtil.recordMetric("AudioPumpActiveThreads", getActiveCount());
+        metricsUtil.recordMetric("AudioPumpThreads", getPoolSize());
+        metricsUtil.recordMetric("JvmLiveThreads", liveThreads);
+    }
+
+    private static class PumpThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "audio-pump-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
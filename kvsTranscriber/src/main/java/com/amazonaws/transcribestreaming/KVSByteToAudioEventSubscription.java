@@ -1,8 +1,6 @@
 package com.amazonaws.transcribestreaming;
 
-import com.amazonaws.kinesisvideo.parser.mkv.StreamingMkvReader;
-import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
-import com.amazonaws.kvstranscribestreaming.KVSUtils;
+import com.amazonaws.kvstranscribestreaming.KVSAudioChunkSource;
 import org.apache.commons.lang3.Validate;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
@@ -12,16 +10,17 @@ import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
 import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
 
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This Subscription converts audio bytes received from the KVS stream into AudioEvents
  * that can be sent to the Transcribe service. It implements a simple demand system that will read chunks of bytes
- * from a KVS stream using the KVS parser library
+ * of a single track from a KVS stream shared with the other tracks through a {@link KVSAudioChunkSource}.
+ * The reads run on a pump thread borrowed from a shared {@link AudioPumpExecutor} only while there is demand
  *
  * <p>Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.</p>
  *
@@ -42,66 +41,133 @@ public class KVSByteToAudioEventSubscription implements Subscription {
 
     private static final Logger logger = LoggerFactory.getLogger(KVSByteToAudioEventSubscription.class);
 
-    private static final int CHUNK_SIZE_IN_KB = 4;
-    private ExecutorService executor = Executors.newFixedThreadPool(1); // Change nThreads here!! used in SubmissionPublisher not subscription
-    private AtomicLong demand = new AtomicLong(0); // state container
+    private final Executor executor;
+    private final AtomicLong demand = new AtomicLong(0); // state container
+    private final AtomicInteger workInProgress = new AtomicInteger(0);
+    private volatile boolean cancelled = false;
+    private boolean done = false; // only accessed from the drain loop
+    private Thread drainThread; // guarded by this, set while the pump runs
     private final Subscriber<? super AudioStream> subscriber;
-    private final StreamingMkvReader streamingMkvReader;
-    private String contactId;
-    private final FragmentMetadataVisitor.BasicMkvTagProcessor tagProcessor;
-    private final FragmentMetadataVisitor fragmentVisitor;
+    private final KVSAudioChunkSource audioChunkSource;
     private final String track;
 
-    public KVSByteToAudioEventSubscription(Subscriber<? super AudioStream> s, StreamingMkvReader streamingMkvReader,
-                                           String contactId, FragmentMetadataVisitor.BasicMkvTagProcessor tagProcessor,
-                                           FragmentMetadataVisitor fragmentVisitor, String track) {
+    public KVSByteToAudioEventSubscription(Subscriber<? super AudioStream> s, KVSAudioChunkSource audioChunkSource, String track,
+                                           Executor executor) {
         this.subscriber = Validate.notNull(s);
-        this.streamingMkvReader = Validate.notNull(streamingMkvReader);
-        this.contactId = Validate.notNull(contactId);
-        this.tagProcessor = Validate.notNull(tagProcessor);
-        this.fragmentVisitor = Validate.notNull(fragmentVisitor);
+        this.executor = Validate.notNull(executor);
+        this.audioChunkSource = Validate.notNull(audioChunkSource);
         this.track = Validate.notNull(track);
     }
 
     @Override
     public void request(long n) {
         if (n <= 0) {
+            cancelled = true;
             subscriber.onError(new IllegalArgumentException("Demand must be positive"));
+            return;
         }
 
-        demand.getAndAdd(n);
+        // demand is capped at Long.MAX_VALUE, which stands for unbounded demand
+        demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+        drain();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        // interrupts a read waiting for audio, the drain loop stops before emitting anything else
+        synchronized (this) {
+            if (drainThread != null) {
+                drainThread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Schedules the drain loop, unless it is already running. Requests made while it runs are picked up by the loop
+     * itself, so there is never more than one reader of the track, and each chunk is emitted once.
+     */
+    private void drain() {
+        if (workInProgress.getAndIncrement() != 0) {
+            return;
+        }
         //We need to invoke this in a separate thread because the call to subscriber.onNext(...) is recursive
-        executor.submit(() -> {
+        try {
+            executor.execute(this::pump);
+        } catch (RejectedExecutionException e) {
+            // every pump thread is busy and the queue is full, most likely because of leaked subscriptions
+            logger.error("No audio pump available for track {}", track, e);
+            workInProgress.set(0);
+            if (!cancelled) {
+                cancelled = true;
+                subscriber.onError(e);
+            }
+        }
+    }
+
+    /**
+     * Runs the drain loop on the pump thread, which is only interrupted by {@link #cancel()} while it runs
+     */
+    private void pump() {
+        synchronized (this) {
+            drainThread = Thread.currentThread();
+        }
+        try {
+            drainLoop();
+        } finally {
+            synchronized (this) {
+                drainThread = null;
+                // the thread goes back to the pool, without an interrupt meant for this subscription
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void drainLoop() {
+        int missed = 1;
+        while (true) {
             try {
-                while (demand.get() > 0) {
+                while (!done && !cancelled && demand.get() > 0) {
                     // return byteBufferDetails and consume this with an input stream then feed to output stream
-                    ByteBuffer audioBuffer = KVSUtils.getByteBufferFromStream(streamingMkvReader, fragmentVisitor, tagProcessor, contactId, CHUNK_SIZE_IN_KB, track);
+                    ByteBuffer audioBuffer = audioChunkSource.getByteBufferFromStream(track);
+                    if (cancelled) {
+                        break;
+                    }
 
                     if (audioBuffer.remaining() > 0) {
-
                         AudioEvent audioEvent = audioEventFromBuffer(audioBuffer);
+                        // unbounded demand stays unbounded, and a request racing with the decrement is not lost
+                        demand.getAndUpdate(d -> d > 0 && d != Long.MAX_VALUE ? d - 1 : d);
                         subscriber.onNext(audioEvent);
-                        
                     } else {
+                        done = true;
                         subscriber.onComplete();
-                        break;
                     }
-                    demand.getAndDecrement();
                 }
             } catch (Exception e) {
-                subscriber.onError(e);
+                if (!done && !cancelled) {
+                    done = true;
+                    subscriber.onError(e);
+                }
             }
-        });
-    }
 
-    @Override
-    public void cancel() {
-        executor.shutdown();
+            missed = workInProgress.addAndGet(-missed);
+            if (missed == 0) {
+                break;
+            }
+        }
     }
 
+    /**
+     * Wraps the chunk into the event without copying it: chunk sources hand their chunks over and never write to them
+     * again, so the event can share its array with the replay buffer for as long as the SDK holds it. Only a chunk
+     * that is part of a larger array, such as the partial chunk at the end of a track, is copied.
+     */
     private AudioEvent audioEventFromBuffer(ByteBuffer bb) {
+        boolean wholeArray = bb.hasArray() && bb.arrayOffset() == 0 && bb.position() == 0
+                && bb.remaining() == bb.array().length;
         return AudioEvent.builder()
-                .audioChunk(SdkBytes.fromByteBuffer(bb))
+                .audioChunk(wholeArray ? SdkBytes.fromByteArrayUnsafe(bb.array()) : SdkBytes.fromByteBuffer(bb))
                 .build();
     }
 }
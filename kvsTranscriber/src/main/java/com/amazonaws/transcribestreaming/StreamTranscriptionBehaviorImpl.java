@@ -3,11 +3,15 @@ package com.amazonaws.transcribestreaming;
 import com.amazonaws.kvstranscribestreaming.TranscribedSegmentWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.transcribestreaming.model.MedicalResult;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
 import software.amazon.awssdk.services.transcribestreaming.model.TranscribeStreamingResponse;
 import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
 import software.amazon.awssdk.services.transcribestreaming.model.MedicalTranscriptEvent;
 import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
 
+import java.util.Map;
+
 /**
  * Implementation of StreamTranscriptionBehavior to define how a stream response is handled.
  *
@@ -30,9 +34,21 @@ public class StreamTranscriptionBehaviorImpl implements StreamTranscriptionBehav
 
     private static final Logger logger = LoggerFactory.getLogger(StreamTranscriptionBehaviorImpl.class);
     private final TranscribedSegmentWriter segmentWriter;
+    private final Map<String, TranscribedSegmentWriter> channelWriters;
 
     public StreamTranscriptionBehaviorImpl(TranscribedSegmentWriter segmentWriter) {
         this.segmentWriter = segmentWriter;
+        this.channelWriters = null;
+    }
+
+    /**
+     * Handler of a stream with channel identification, sending the results of each channel with its own writer
+     *
+     * @param channelWriters writers by channel id, such as ch_0
+     */
+    public StreamTranscriptionBehaviorImpl(Map<String, TranscribedSegmentWriter> channelWriters) {
+        this.segmentWriter = null;
+        this.channelWriters = channelWriters;
     }
 
     @Override
@@ -42,12 +58,30 @@ public class StreamTranscriptionBehaviorImpl implements StreamTranscriptionBehav
 
     @Override
     public void onStandardStream(TranscriptEvent e) {
-        segmentWriter.sendStandardRealTimeTranscript(e);
+        if (channelWriters == null) {
+            segmentWriter.sendStandardRealTimeTranscript(e);
+            return;
+        }
+        for (Result result : e.transcript().results()) {
+            TranscribedSegmentWriter writer = channelWriters.get(result.channelId());
+            if (writer != null) {
+                writer.sendStandardResult(result);
+            }
+        }
     }
 
     @Override
     public void onMedicalStream(MedicalTranscriptEvent e) {
-        segmentWriter.sendMedicalRealTimeTranscript(e);
+        if (channelWriters == null) {
+            segmentWriter.sendMedicalRealTimeTranscript(e);
+            return;
+        }
+        for (MedicalResult result : e.transcript().results()) {
+            TranscribedSegmentWriter writer = channelWriters.get(result.channelId());
+            if (writer != null) {
+                writer.sendMedicalResult(result);
+            }
+        }
     }
 
     @Override
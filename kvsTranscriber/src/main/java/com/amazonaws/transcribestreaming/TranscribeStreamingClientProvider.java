@@ -0,0 +1,209 @@
+package com.amazonaws.transcribestreaming;
+
+import com.amazonaws.regions.Regions;
+import org.apache.commons.lang3.Validate;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.signer.EventStreamAws4Signer;
+import software.amazon.awssdk.core.client.config.SdkAdvancedClientOption;
+import software.amazon.awssdk.http.Protocol;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.SdkHttpRequest;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.http.async.AsyncExecuteRequest;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpResponseHandler;
+import software.amazon.awssdk.http.async.SdkHttpContentPublisher;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.transcribestreaming.TranscribeStreamingAsyncClient;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a single TranscribeStreamingAsyncClient for the process, so that warm Lambda invocations reuse its Netty event
+ * loops, TLS context and HTTP/2 connections instead of building and closing them for every call.
+ *
+ * The client is built in the background by {@link #connect()}, which also sends a request to the Transcribe endpoint
+ * so that the TLS and HTTP/2 handshakes happen while the call sets up its KVS stream, and the streams of the call
+ * start on an open connection. The client is never closed; a client that failed to build is built again on the next
+ * call.
+ */
+public class TranscribeStreamingClientProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(TranscribeStreamingClientProvider.class);
+
+    private final Supplier<SdkAsyncHttpClient> httpClientFactory;
+    private final Function<SdkAsyncHttpClient, TranscribeStreamingAsyncClient> clientFactory;
+    private final URI endpoint;
+    private CompletableFuture<TranscribeStreamingAsyncClient> client; // guarded by this
+
+    /**
+     * @param httpClientFactory builds the HTTP client of the Transcribe client
+     * @param clientFactory     builds the Transcribe client on an HTTP client
+     * @param endpoint          Transcribe endpoint, to which the connection is opened ahead of the first stream
+     */
+    public TranscribeStreamingClientProvider(Supplier<SdkAsyncHttpClient> httpClientFactory,
+                                             Function<SdkAsyncHttpClient, TranscribeStreamingAsyncClient> clientFactory,
+                                             URI endpoint) {
+        this.httpClientFactory = Validate.notNull(httpClientFactory);
+        this.clientFactory = Validate.notNull(clientFactory);
+        this.endpoint = Validate.notNull(endpoint);
+    }
+
+    /**
+     * Provider of a client on a Netty HTTP/2 client tuned for long-lived Transcribe streams
+     *
+     * @param creds                  Creds to use for transcription
+     * @param endpoint               Endpoint to use for transcription
+     * @param region                 Region to use for transcriptions
+     * @param eventLoopThreads       threads of the Netty event loop group
+     * @param maxHttp2Streams        streams multiplexed on an HTTP/2 connection before another one is opened
+     * @param acquisitionTimeout     time a stream waits for a connection
+     * @param healthCheckPingPeriod  period of the HTTP/2 pings closing the connections that stopped responding
+     */
+    public static TranscribeStreamingClientProvider create(AwsCredentialsProvider creds, String endpoint, Regions region,
+                                                           int eventLoopThreads, int maxHttp2Streams,
+                                                           Duration acquisitionTimeout, Duration healthCheckPingPeriod) {
+        URI endpointUri = URI.create(endpoint);
+        return new TranscribeStreamingClientProvider(
+                () -> NettyNioAsyncHttpClient.builder()
+                        .protocol(Protocol.HTTP2)
+                        .eventLoopGroupBuilder(SdkEventLoopGroup.builder().numberOfThreads(eventLoopThreads))
+                        .connectionAcquisitionTimeout(acquisitionTimeout)
+                        .http2Configuration(c -> c.maxStreams((long) maxHttp2Streams)
+                                .healthCheckPingPeriod(healthCheckPingPeriod))
+                        .build(),
+                httpClient -> TranscribeStreamingAsyncClient.builder()
+                        .overrideConfiguration(
+                                c -> c.putAdvancedOption(
+                                        SdkAdvancedClientOption.SIGNER,
+                                        EventStreamAws4Signer.create()))
+                        .credentialsProvider(creds)
+                        .endpointOverride(endpointUri)
+                        .region(Region.of(region.getName()))
+                        .httpClient(httpClient)
+                        .build(),
+                endpointUri);
+    }
+
+    /**
+     * Starts building the client and connecting to Transcribe, unless already done
+     *
+     * @return future of the client
+     */
+    public synchronized CompletableFuture<TranscribeStreamingAsyncClient> connect() {
+        if (client == null || client.isCompletedExceptionally()) {
+            client = CompletableFuture.supplyAsync(this::build);
+        }
+        return client;
+    }
+
+    /**
+     * @return the client, once built
+     */
+    public TranscribeStreamingAsyncClient get() {
+        return connect().join();
+    }
+
+    private TranscribeStreamingAsyncClient build() {
+        long start = System.currentTimeMillis();
+        SdkAsyncHttpClient httpClient = httpClientFactory.get();
+        TranscribeStreamingAsyncClient transcribeClient = clientFactory.apply(httpClient);
+        logger.info("Built Transcribe client in {} ms", System.currentTimeMillis() - start);
+        openConnection(httpClient, start);
+        return transcribeClient;
+    }
+
+    /**
+     * Sends an unsigned request to the endpoint, which Transcribe rejects, for the HTTP client to keep the connection
+     */
+    private void openConnection(SdkAsyncHttpClient httpClient, long start) {
+        SdkHttpRequest request = SdkHttpRequest.builder()
+                .uri(endpoint)
+                .method(SdkHttpMethod.GET)
+                .putHeader("Host", endpoint.getHost())
+                .build();
+        try {
+            httpClient.execute(AsyncExecuteRequest.builder()
+                    .request(request)
+                    .requestContentPublisher(new EmptyContentPublisher())
+                    .responseHandler(new DiscardingResponseHandler())
+                    .build())
+                    .whenComplete((r, e) -> {
+                        if (e != null) {
+                            logger.warn("Failed to open connection to Transcribe: " + e.getMessage());
+                        } else {
+                            logger.info("Opened connection to Transcribe in {} ms", System.currentTimeMillis() - start);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            logger.warn("Failed to open connection to Transcribe: " + e.getMessage());
+        }
+    }
+
+    private static class EmptyContentPublisher implements SdkHttpContentPublisher {
+        @Override
+        public Optional<Long> contentLength() {
+            return Optional.of(0L);
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super ByteBuffer> s) {
+            s.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            s.onComplete();
+        }
+    }
+
+    private static class DiscardingResponseHandler implements SdkAsyncHttpResponseHandler {
+        @Override
+        public void onHeaders(SdkHttpResponse headers) {
+            logger.debug("Transcribe endpoint answered {}", headers.statusCode());
+        }
+
+        @Override
+        public void onStream(Publisher<ByteBuffer> stream) {
+            stream.subscribe(new Subscriber<ByteBuffer>() {
+                @Override
+                public void onSubscribe(Subscription s) {
+                    s.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ByteBuffer byteBuffer) {
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+        }
+
+        @Override
+        public void onError(Throwable error) {
+        }
+    }
+}
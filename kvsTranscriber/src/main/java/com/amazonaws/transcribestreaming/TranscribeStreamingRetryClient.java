@@ -8,6 +8,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.signer.EventStreamAws4Signer;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.transcribestreaming.TranscribeStreamingAsyncClient;
@@ -20,6 +21,10 @@ import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTran
 import software.amazon.awssdk.services.transcribestreaming.model.StartMedicalStreamTranscriptionRequest;
 import software.amazon.awssdk.services.transcribestreaming.model.StartMedicalStreamTranscriptionResponseHandler;
 import software.amazon.awssdk.services.transcribestreaming.model.BadRequestException;
+import software.amazon.awssdk.services.transcribestreaming.model.ConflictException;
+import software.amazon.awssdk.services.transcribestreaming.model.InternalFailureException;
+import software.amazon.awssdk.services.transcribestreaming.model.LimitExceededException;
+import software.amazon.awssdk.services.transcribestreaming.model.ServiceUnavailableException;
 import software.amazon.awssdk.core.client.config.SdkAdvancedClientOption;
 
 import java.net.URI;
@@ -27,6 +32,12 @@ import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Build a client wrapper around the Amazon Transcribe client to retry
@@ -52,11 +63,27 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
 
     private static final int DEFAULT_MAX_RETRIES = 3;
     private static final int DEFAULT_MAX_SLEEP_TIME_MILLS = 100;
+    private static final int DEFAULT_MAX_BACKOFF_MILLS = 5000;
+    private static final int DEFAULT_RETRY_BUDGET = 6;
+    private static final int THROTTLING_STATUS_CODE = 429;
+    // Timer shared by all the clients, retries are scheduled on it instead of blocking the thread completing the stream
+    private static final ScheduledExecutorService RETRY_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "transcribe-retry-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
     private int maxRetries = DEFAULT_MAX_RETRIES;
     private int sleepTime = DEFAULT_MAX_SLEEP_TIME_MILLS;
+    private int maxBackoffTime = DEFAULT_MAX_BACKOFF_MILLS;
+    // retries left for all the streams started by this client, i.e. by one invocation
+    private final AtomicInteger retryBudget = new AtomicInteger(DEFAULT_RETRY_BUDGET);
     private final TranscribeStreamingAsyncClient client;
+    // whether the client is closed with this one, rather than shared with other invocations
+    private final boolean ownsClient;
     private final MetricsUtil metricsUtil;
-    List<Class<?>> nonRetriableExceptions = Arrays.asList(SdkClientException.class, BadRequestException.class);
+    List<Class<?>> nonRetriableExceptions = Arrays.asList(SdkClientException.class, BadRequestException.class, ConflictException.class);
+    List<Class<?>> retriableExceptions = Arrays.asList(LimitExceededException.class, InternalFailureException.class,
+            ServiceUnavailableException.class);
 
     private static final Logger logger = LoggerFactory.getLogger(TranscribeStreamingRetryClient.class);
 
@@ -79,18 +106,23 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
                 .credentialsProvider(creds)
                 .endpointOverride(new URI(endpoint))
                 .region(Region.of(region.getName()))
-                .build(), metricsUtil);
+                .build(), metricsUtil, true);
     }
 
     /**
-     * Initiate TranscribeStreamingRetryClient with TranscribeStreamingAsyncClient
+     * Initiate TranscribeStreamingRetryClient with TranscribeStreamingAsyncClient, which is left open on close
      *
      * @param client      TranscribeStreamingAsyncClient
      * @param metricsUtil
      */
     public TranscribeStreamingRetryClient(TranscribeStreamingAsyncClient client, MetricsUtil metricsUtil) {
+        this(client, metricsUtil, false);
+    }
+
+    private TranscribeStreamingRetryClient(TranscribeStreamingAsyncClient client, MetricsUtil metricsUtil, boolean ownsClient) {
         this.client = client;
         this.metricsUtil = metricsUtil;
+        this.ownsClient = ownsClient;
     }
 
     /**
@@ -121,7 +153,7 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
     }
 
     /**
-     * Set sleep time between retries
+     * Set sleep time between retries, the base of the exponential backoff
      *
      * @param sleepTime sleep time
      */
@@ -129,6 +161,33 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
         this.sleepTime = sleepTime;
     }
 
+    /**
+     * Get max backoff time
+     *
+     * @return upper bound of the sleep time between retries
+     */
+    public int getMaxBackoffTime() {
+        return maxBackoffTime;
+    }
+
+    /**
+     * Set max backoff time
+     *
+     * @param maxBackoffTime upper bound of the sleep time between retries
+     */
+    public void setMaxBackoffTime(int maxBackoffTime) {
+        this.maxBackoffTime = maxBackoffTime;
+    }
+
+    /**
+     * Set retry budget
+     *
+     * @param retryBudget number of retries shared by all the streams started with this client
+     */
+    public void setRetryBudget(int retryBudget) {
+        this.retryBudget.set(retryBudget);
+    }
+
     /**
      * Initiate a Stream Transcription with retry.
      *
@@ -186,17 +245,18 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
             if (e != null) {
                 logger.debug("Error occurred on channel " + channel + " : " + e.getMessage());
 
-                if (retryAttempt <= maxRetries && isExceptionRetriable(e)) {
-                    logger.debug("Retriable error occurred and will be retried.");
-                    logger.debug("Sleeping for sometime before retrying...");
+                if (retryAttempt <= maxRetries && isExceptionRetriable(e) && retryBudget.getAndDecrement() > 0) {
+                    long backoff = getBackoffTime(retryAttempt);
+                    logger.debug("Retriable error occurred and will be retried in " + backoff + " ms, attempt: " + (retryAttempt + 1));
+                    metricsUtil.recordMetric("TranscribeStreamRetry", 1);
                     try {
-                        Thread.sleep(sleepTime);
-                    } catch (InterruptedException e1) {
-                        logger.error("Sleep between retries interrupted. Failed with exception: ", e);
+                        RETRY_TIMER.schedule(() -> recursiveStartStream(request, publisher, responseHandler, finalFuture,
+                                retryAttempt + 1, channel, engine), backoff, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e1) {
+                        logger.error("Failed to schedule retry. Failed with exception: ", e);
+                        responseHandler.onError(e);
                         finalFuture.completeExceptionally(e);
                     }
-                    logger.debug("Making retry attempt: " + (retryAttempt + 1));
-                    recursiveStartStream(request, publisher, responseHandler, finalFuture, retryAttempt + 1, channel, engine);
                 } else {
                     metricsUtil.recordMetric("TranscribeStreamError", 1);
                     logger.error("Encountered unretriable exception or ran out of retries.", e);
@@ -273,14 +333,39 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
     }
 
     /**
-     * Check if the exception can be retried.
+     * Exponential backoff with full jitter, so that the streams failing together do not retry together
+     *
+     * @param retryAttempt attempt that failed, starting at 0
+     * @return random time in ms between 0 and sleepTime * 2^retryAttempt, capped by maxBackoffTime
+     */
+    long getBackoffTime(int retryAttempt) {
+        long ceiling = Math.min(maxBackoffTime, (long) sleepTime << Math.min(retryAttempt, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Check if the exception can be retried, on the first Transcribe or SDK error of its causes. Throttling, limits
+     * exceeded and internal failures of Transcribe are retried, bad requests and client errors are not.
      *
      * @param e Exception that occurred
      * @return True if the exception is retriable
      */
-    private boolean isExceptionRetriable(Throwable e) {
-        if (nonRetriableExceptions.contains(e.getCause().getClass())) {
-            return false;
+    boolean isExceptionRetriable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (retriableExceptions.contains(cause.getClass())) {
+                return true;
+            }
+            if (nonRetriableExceptions.contains(cause.getClass())) {
+                return false;
+            }
+            if (cause instanceof AwsServiceException) {
+                AwsServiceException serviceException = (AwsServiceException) cause;
+                return serviceException.isThrottlingException() || serviceException.statusCode() == THROTTLING_STATUS_CODE
+                        || serviceException.statusCode() >= 500;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
         }
         return true;
     }
@@ -288,6 +373,8 @@ public class TranscribeStreamingRetryClient implements AutoCloseable {
     @Override
     public void close() throws Exception {
         logger.debug("TranscribeStreamingRetryClient closed");
-        this.client.close();
+        if (ownsClient) {
+            this.client.close();
+        }
     }
 }
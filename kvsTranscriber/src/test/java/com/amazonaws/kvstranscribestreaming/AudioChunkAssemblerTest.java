@@ -0,0 +1,140 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.utilities.MkvTrackMetadata;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for AudioChunkAssembler
+ */
+public class AudioChunkAssemblerTest {
+
+    @Test
+    void chunkSizeFollowsTrackFormat() {
+        assertEquals(1600, AudioChunkAssembler.getChunkSizeInBytes(trackMetadata(8000, 1, 16), 100));
+        assertEquals(800, AudioChunkAssembler.getChunkSizeInBytes(trackMetadata(8000, 1, 16), 50));
+        assertEquals(12800, AudioChunkAssembler.getChunkSizeInBytes(trackMetadata(16000, 2, 16), 200));
+    }
+
+    @Test
+    void defaultsToConnectFormat() {
+        MkvTrackMetadata trackMetadata = mock(MkvTrackMetadata.class);
+        when(trackMetadata.getSamplingFrequency()).thenReturn(Optional.empty());
+        when(trackMetadata.getChannels()).thenReturn(Optional.empty());
+        when(trackMetadata.getBitDepth()).thenReturn(Optional.empty());
+
+        assertEquals(1600, AudioChunkAssembler.getChunkSizeInBytes(trackMetadata, 100));
+    }
+
+    @Test
+    void splitsFramesIntoFixedDurationChunks() {
+        MkvTrackMetadata trackMetadata = trackMetadata(8000, 1, 16);
+        AudioChunkAssembler assembler = new AudioChunkAssembler(100, 10000);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 5; i++) {
+            byte[] frame = MkvTestStreamBuilder.pcmFrame(i);
+            expected.write(frame, 0, frame.length);
+            assembler.append(ByteBuffer.wrap(frame), trackMetadata);
+        }
+        assembler.flush();
+
+        // 5 frames of 64 ms make three full chunks of 100 ms and a last one of 20 ms
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        int[] expectedSizes = {1600, 1600, 1600, 320};
+        for (int expectedSize : expectedSizes) {
+            ByteBuffer chunk = assembler.take();
+            assertEquals(expectedSize, chunk.remaining());
+            actual.write(chunk.array(), chunk.position(), chunk.remaining());
+        }
+        assertNull(assembler.take());
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    void handsOverChunksItNeverWritesAgain() {
+        MkvTrackMetadata trackMetadata = trackMetadata(8000, 1, 16);
+        AudioChunkAssembler assembler = new AudioChunkAssembler(100, 10000);
+        List<ByteBuffer> chunks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            byte[] frame = new byte[1600];
+            Arrays.fill(frame, (byte) i);
+            assembler.append(ByteBuffer.wrap(frame), trackMetadata);
+            chunks.add(assembler.take());
+        }
+
+        for (int i = 0; i < 100; i++) {
+            ByteBuffer chunk = chunks.get(i);
+            // a whole array of its own, which goes into the audio event as it is
+            assertEquals(0, chunk.position());
+            assertEquals(chunk.array().length, chunk.remaining());
+            byte[] expected = new byte[1600];
+            Arrays.fill(expected, (byte) i);
+            assertArrayEquals(expected, chunk.array());
+        }
+        assertEquals(100, assembler.getTakenChunks());
+    }
+
+    @Test
+    void dropsOldestChunksBeyondQueueLimit() {
+        MkvTrackMetadata trackMetadata = trackMetadata(8000, 1, 16);
+        AudioChunkAssembler assembler = new AudioChunkAssembler(100, 300);
+        for (int i = 0; i < 5; i++) {
+            ByteBuffer frame = ByteBuffer.allocate(1600);
+            frame.put(0, (byte) i);
+            assembler.append(frame, trackMetadata);
+        }
+
+        assertEquals(2, assembler.getDroppedChunks());
+        assertEquals(2, assembler.take().get(0));
+    }
+
+    @Test
+    void keepsSilenceBeyondQueueLimit() {
+        MkvTrackMetadata trackMetadata = trackMetadata(8000, 1, 16);
+        AudioChunkAssembler assembler = new AudioChunkAssembler(100, 300);
+        ByteBuffer frame = ByteBuffer.allocate(800);
+        frame.put(0, (byte) 1);
+        assembler.append(frame, trackMetadata);
+        // half a chunk of audio, 20 s of silence, then audio again
+        assembler.appendSilence(20000, trackMetadata);
+        frame = ByteBuffer.allocate(1600);
+        frame.put(0, (byte) 2);
+        assembler.append(frame, trackMetadata);
+        assembler.flush();
+
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        ByteBuffer chunk;
+        while ((chunk = assembler.take()) != null) {
+            audio.write(chunk.array(), chunk.position(), chunk.remaining());
+        }
+
+        byte[] expected = new byte[800 + 20000 * 16 + 1600];
+        expected[0] = 1;
+        expected[800 + 20000 * 16] = 2;
+        assertArrayEquals(expected, audio.toByteArray());
+        assertEquals(0, assembler.getDroppedChunks());
+        assertEquals(20000, assembler.getPaddedMs());
+        assertEquals(20150, assembler.getAppendedMs());
+    }
+
+    private static MkvTrackMetadata trackMetadata(double sampleRate, long channels, long bitDepth) {
+        MkvTrackMetadata trackMetadata = mock(MkvTrackMetadata.class);
+        when(trackMetadata.getSamplingFrequency()).thenReturn(Optional.of(sampleRate));
+        when(trackMetadata.getChannels()).thenReturn(Optional.of(BigInteger.valueOf(channels)));
+        when(trackMetadata.getBitDepth()).thenReturn(Optional.of(BigInteger.valueOf(bitDepth)));
+        return trackMetadata;
+    }
+}
@@ -0,0 +1,97 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for AudioReplayBuffer
+ */
+public class AudioReplayBufferTest {
+    private static final String TRACK = KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName();
+    // 100 ms of 8 kHz 16-bit mono audio
+    private static final int CHUNK_SIZE = 1600;
+
+    private final MetricsUtil metricsUtil = mock(MetricsUtil.class);
+
+    @Test
+    void replaysRecentAudioInNewSession() throws Exception {
+        AudioReplayBuffer replayBuffer = new AudioReplayBuffer(numberedChunks(20), TRACK, 300, metricsUtil);
+        KVSAudioChunkSource firstSession = replayBuffer.startSession();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, number(firstSession.getByteBufferFromStream(TRACK)));
+        }
+        assertEquals(0, replayBuffer.getSessionOffsetMs());
+
+        KVSAudioChunkSource secondSession = replayBuffer.startSession();
+
+        // the last 300 ms are sent again, then the stream goes on
+        assertEquals(700, replayBuffer.getSessionOffsetMs());
+        for (int i = 7; i < 20; i++) {
+            assertEquals(i, number(secondSession.getByteBufferFromStream(TRACK)));
+        }
+        assertFalse(secondSession.getByteBufferFromStream(TRACK).hasRemaining());
+
+        replayBuffer.recordMetrics();
+        verify(metricsUtil).recordMetric("TranscribeSessions", 2);
+        verify(metricsUtil).recordMetric("TranscribeReplayedMs", 300);
+    }
+
+    @Test
+    void replacedSessionCannotTakeAudio() throws Exception {
+        AudioReplayBuffer replayBuffer = new AudioReplayBuffer(numberedChunks(20), TRACK, 200, metricsUtil);
+        KVSAudioChunkSource failedSession = replayBuffer.startSession();
+        for (int i = 0; i < 5; i++) {
+            failedSession.getByteBufferFromStream(TRACK);
+        }
+
+        KVSAudioChunkSource newSession = replayBuffer.startSession();
+
+        // the subscription of the failed session reads once more before it notices its cancellation
+        assertThrows(MkvElementVisitException.class, () -> failedSession.getByteBufferFromStream(TRACK));
+        assertEquals(300, replayBuffer.getSessionOffsetMs());
+        for (int i = 3; i < 20; i++) {
+            assertEquals(i, number(newSession.getByteBufferFromStream(TRACK)));
+        }
+    }
+
+    @Test
+    void emptyBufferReplaysNothing() throws Exception {
+        AudioReplayBuffer replayBuffer = new AudioReplayBuffer(numberedChunks(5), TRACK, 0, metricsUtil);
+        KVSAudioChunkSource firstSession = replayBuffer.startSession();
+        firstSession.getByteBufferFromStream(TRACK);
+        firstSession.getByteBufferFromStream(TRACK);
+
+        KVSAudioChunkSource secondSession = replayBuffer.startSession();
+
+        assertEquals(200, replayBuffer.getSessionOffsetMs());
+        assertEquals(2, number(secondSession.getByteBufferFromStream(TRACK)));
+    }
+
+    /**
+     * Source of chunks holding their sequence number
+     */
+    private static KVSAudioChunkSource numberedChunks(int count) {
+        int[] next = {0};
+        return track -> {
+            if (next[0] == count) {
+                return ByteBuffer.allocate(0);
+            }
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            chunk.putInt(0, next[0]++);
+            return chunk;
+        };
+    }
+
+    private static int number(ByteBuffer chunk) {
+        assertEquals(CHUNK_SIZE, chunk.remaining());
+        return chunk.getInt(chunk.position());
+    }
+}
@@ -0,0 +1,137 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.StreamingMkvReader;
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for ContinuationHandoff
+ */
+public class ContinuationHandoffTest {
+    private static final String CONTACT_ID = "6f2b5c1e-3d7a-4c8e-9b1f-2a4d6e8c0b13";
+    private static final String FROM_CUSTOMER = KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName();
+    private static final String TO_CUSTOMER = KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName();
+    private static final long FIRST_FRAGMENT_NUMBER = 91343852333181433L;
+
+    private final MkvTestStreamBuilder builder = new MkvTestStreamBuilder().addFragment(5, CONTACT_ID).addFragment(5, CONTACT_ID);
+    private final MetricsUtil metricsUtil = mock(MetricsUtil.class);
+    private final List<String> payloads = new ArrayList<>();
+
+    @Test
+    void handsCallOverFromNextFragment() throws Exception {
+        TranscriptionRequest request = request();
+        ResumableKVSFrameSource frameSource = frameSource();
+        KVSTrackDemultiplexer demultiplexer = demultiplexer(frameSource);
+        ContinuationHandoff handoff = handoff(request, demultiplexer, payload -> payloads.add(payload));
+
+        frameSource.stopAtNextFragment(handoff::handOff);
+        // only the first fragment is read
+        assertEquals(builder.getFromCustomerAudio().length / 2, readTrack(demultiplexer, FROM_CUSTOMER).length);
+
+        assertEquals(1, payloads.size());
+        JSONObject payload = (JSONObject) new JSONParser().parse(payloads.get(0));
+        assertEquals(String.valueOf(FIRST_FRAGMENT_NUMBER + 1), payload.get("startFragmentNum"));
+        assertEquals("FRAGMENT_NUMBER", payload.get("startSelectorType"));
+        assertEquals(3L, payload.get("continuation"));
+        assertEquals(CONTACT_ID, payload.get("voiceCallId"));
+        assertEquals("1599287207000", payload.get("audioStartTimestamp"));
+        assertEquals(1000L + 5 * MkvTestStreamBuilder.FRAME_DURATION_MS, payload.get("fromCustomerAudioOffsetMs"));
+        assertEquals(2000L + 5 * MkvTestStreamBuilder.FRAME_DURATION_MS, payload.get("toCustomerAudioOffsetMs"));
+        assertEquals(900L, payload.get("fromCustomerLastEndTime"));
+        assertEquals(1900L, payload.get("toCustomerLastEndTime"));
+        verify(metricsUtil).recordMetric("ContinuationHandoff", 1);
+    }
+
+    @Test
+    void readsOnWhenHandOffFails() throws Exception {
+        ResumableKVSFrameSource frameSource = frameSource();
+        KVSTrackDemultiplexer demultiplexer = demultiplexer(frameSource);
+        ContinuationHandoff handoff = handoff(request(), demultiplexer, payload -> {
+            throw new IOException("Lambda invoke failed with status 429");
+        });
+
+        frameSource.stopAtNextFragment(handoff::handOff);
+
+        assertEquals(builder.getFromCustomerAudio().length, readTrack(demultiplexer, FROM_CUSTOMER).length);
+        verify(metricsUtil).recordMetric("ContinuationHandoffFailed", 1);
+    }
+
+    private ContinuationHandoff handoff(TranscriptionRequest request, KVSTrackDemultiplexer demultiplexer,
+                                        ContinuationHandoff.Invoker invoker) {
+        ScrtDeliveryPipeline delivery = mock(ScrtDeliveryPipeline.class);
+        TranscribedSegmentWriter fromCustomerWriter = writer(request, true, delivery);
+        TranscribedSegmentWriter toCustomerWriter = writer(request, false, delivery);
+        fromCustomerWriter.resumeFrom(request.getFromCustomerAudioOffsetMs(), 900);
+        toCustomerWriter.resumeFrom(request.getToCustomerAudioOffsetMs(), 1900);
+        return new ContinuationHandoff(request, demultiplexer, fromCustomerWriter, toCustomerWriter, invoker, metricsUtil);
+    }
+
+    private static TranscribedSegmentWriter writer(TranscriptionRequest request, boolean isFromCustomer,
+                                                   ScrtDeliveryPipeline delivery) {
+        return TranscribedSegmentWriter.newBuilder()
+                .setInstanceARN("arn")
+                .setVoiceCallId(CONTACT_ID)
+                .setFromCustomer(isFromCustomer)
+                .setAudioStartTimestamp(request.getAudioStartTimestamp())
+                .setCustomerPhoneNumber("+18586667777")
+                .setDelivery(delivery)
+                .build();
+    }
+
+    private static TranscriptionRequest request() {
+        TranscriptionRequest request = new TranscriptionRequest();
+        request.setStreamARN("arn:aws:kinesisvideo:us-east-1:123456789012:stream/connect-contact/1599287207000");
+        request.setStartFragmentNum(String.valueOf(FIRST_FRAGMENT_NUMBER));
+        request.setAudioStartTimestamp("1599287207000");
+        request.setVoiceCallId(CONTACT_ID);
+        request.setStreamAudioFromCustomer(true);
+        request.setStreamAudioToCustomer(true);
+        request.setContinuation(2);
+        request.setFromCustomerAudioOffsetMs(1000);
+        request.setToCustomerAudioOffsetMs(2000);
+        return request;
+    }
+
+    private ResumableKVSFrameSource frameSource() {
+        byte[] mkv = builder.build();
+        return new ResumableKVSFrameSource((fragmentNumber, startSelectorType) -> {
+            InputStream inputStream = new ByteArrayInputStream(mkv);
+            BlockingParserByteSource byteSource = new BlockingParserByteSource(inputStream);
+            KVSTagIndex tagIndex = new KVSTagIndex();
+            FragmentMetadataVisitor fragmentVisitor = FragmentMetadataVisitor.create(Optional.of(tagIndex));
+            return new KVSStreamTrackObject(inputStream, byteSource, StreamingMkvReader.createDefault(byteSource),
+                    tagIndex, fragmentVisitor, new KVSTrackCache(fragmentVisitor));
+        }, String.valueOf(FIRST_FRAGMENT_NUMBER), "FRAGMENT_NUMBER", 0, metricsUtil);
+    }
+
+    private KVSTrackDemultiplexer demultiplexer(ResumableKVSFrameSource frameSource) {
+        return new KVSTrackDemultiplexer(frameSource, CONTACT_ID, Arrays.asList(FROM_CUSTOMER, TO_CUSTOMER), 100, metricsUtil);
+    }
+
+    private static byte[] readTrack(KVSTrackDemultiplexer demultiplexer, String track) throws Exception {
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        ByteBuffer chunk;
+        while ((chunk = demultiplexer.getByteBufferFromStream(track)).hasRemaining()) {
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            audio.write(bytes, 0, bytes.length);
+        }
+        return audio.toByteArray();
+    }
+}
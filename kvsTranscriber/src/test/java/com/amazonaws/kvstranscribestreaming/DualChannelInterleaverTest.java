@@ -0,0 +1,62 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Unit tests for DualChannelInterleaver
+ */
+public class DualChannelInterleaverTest {
+    private static final String FROM_CUSTOMER = KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName();
+    private static final String TO_CUSTOMER = KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName();
+    private static final String TRACK = DualChannelInterleaver.DUAL_CHANNEL_TRACK;
+
+    @Test
+    void interleavesSamplesOfBothTracks() throws Exception {
+        DualChannelInterleaver interleaver = new DualChannelInterleaver(
+                source(new byte[][]{{1, 2, 3, 4}}, new byte[][]{{5, 6, 7, 8}}), FROM_CUSTOMER, TO_CUSTOMER);
+
+        assertEquals("1 2 5 6 3 4 7 8", bytes(interleaver.getByteBufferFromStream(TRACK)));
+        assertFalse(interleaver.getByteBufferFromStream(TRACK).hasRemaining());
+    }
+
+    @Test
+    void fillsEndedTrackWithSilence() throws Exception {
+        DualChannelInterleaver interleaver = new DualChannelInterleaver(
+                source(new byte[][]{{1, 2}, {3, 4}}, new byte[][]{{5, 6, 7, 8}}), FROM_CUSTOMER, TO_CUSTOMER);
+
+        // the first track has a shorter chunk, then the second one ends first
+        assertEquals("1 2 5 6 0 0 7 8", bytes(interleaver.getByteBufferFromStream(TRACK)));
+        assertEquals("3 4 0 0", bytes(interleaver.getByteBufferFromStream(TRACK)));
+        assertFalse(interleaver.getByteBufferFromStream(TRACK).hasRemaining());
+    }
+
+    /**
+     * Source of the given chunks of each track, followed by empty chunks
+     */
+    private static KVSAudioChunkSource source(byte[][] fromCustomer, byte[][] toCustomer) {
+        Map<String, byte[][]> chunks = new HashMap<>();
+        chunks.put(FROM_CUSTOMER, fromCustomer);
+        chunks.put(TO_CUSTOMER, toCustomer);
+        Map<String, Integer> next = new HashMap<>();
+        return track -> {
+            int index = next.merge(track, 1, Integer::sum) - 1;
+            byte[][] trackChunks = chunks.get(track);
+            return index < trackChunks.length ? ByteBuffer.wrap(trackChunks[index]) : ByteBuffer.allocate(0);
+        };
+    }
+
+    private static String bytes(ByteBuffer chunk) {
+        StringBuilder bytes = new StringBuilder();
+        while (chunk.hasRemaining()) {
+            bytes.append(bytes.length() == 0 ? "" : " ").append(chunk.get());
+        }
+        return bytes.toString();
+    }
+}
@@ -0,0 +1,63 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for InvocationDeadline
+ */
+public class InvocationDeadlineTest {
+
+    @Test
+    void keepsReserveBeforeTimeLimit() {
+        // the test context has 300000 ms left
+        InvocationDeadline deadline = InvocationDeadline.fromContext(new TestContext(), 5000, 3000);
+        long remainingMs = deadline.getRemainingMs();
+        long flushRemainingMs = deadline.getFlushRemainingMs();
+
+        assertTrue(remainingMs <= 292000 && remainingMs > 287000, "Remaining " + remainingMs);
+        assertTrue(flushRemainingMs <= 295000 && flushRemainingMs > 290000, "Flush remaining " + flushRemainingMs);
+    }
+
+    @Test
+    void keepsFlushReserveOnceDeadlineHasPassed() {
+        InvocationDeadline deadline = new InvocationDeadline(-1000, 60000);
+
+        assertEquals(0, deadline.getRemainingMs());
+        assertTrue(deadline.getFlushRemainingMs() > 50000);
+    }
+
+    @Test
+    void tracksShareTheDeadline() throws Exception {
+        InvocationDeadline deadline = new InvocationDeadline(200);
+        CompletableFuture<Void> fromCustomerResult = new CompletableFuture<>();
+        CompletableFuture<Void> toCustomerResult = new CompletableFuture<>();
+
+        assertThrows(TimeoutException.class, () -> deadline.await(fromCustomerResult));
+        assertEquals(0, deadline.getRemainingMs());
+
+        // the second track is not given a wait of its own, and only gets a result that is already in
+        assertThrows(TimeoutException.class, () -> deadline.await(toCustomerResult));
+        toCustomerResult.complete(null);
+        assertNull(deadline.await(toCustomerResult));
+    }
+
+    @Test
+    void runsActionsAheadOfDeadline() throws Exception {
+        InvocationDeadline deadline = new InvocationDeadline(60000);
+        CountDownLatch ran = new CountDownLatch(1);
+
+        deadline.runBefore(59950, ran::countDown);
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+}
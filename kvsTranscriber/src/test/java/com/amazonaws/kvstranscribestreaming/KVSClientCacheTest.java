@@ -0,0 +1,94 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.kinesisvideo.AmazonKinesisVideo;
+import com.amazonaws.services.kinesisvideo.AmazonKinesisVideoMedia;
+import com.amazonaws.services.kinesisvideo.model.GetDataEndpointRequest;
+import com.amazonaws.services.kinesisvideo.model.GetDataEndpointResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for KVSClientCache
+ */
+public class KVSClientCacheTest {
+    private static final String STREAM_NAME = "connect-contact-stream";
+    private static final Regions REGION = Regions.US_EAST_1;
+    private static final long TTL_MILLIS = 300_000;
+
+    private final AmazonKinesisVideo amazonKinesisVideo = mock(AmazonKinesisVideo.class);
+    private final AWSCredentialsProvider awsCredentialsProvider = mock(AWSCredentialsProvider.class);
+    private final AtomicInteger controlPlaneClients = new AtomicInteger();
+    private final AtomicInteger mediaClients = new AtomicInteger();
+    private final AtomicLong now = new AtomicLong(1_000);
+    private KVSClientCache clientCache;
+
+    @BeforeEach
+    void setUp() {
+        when(amazonKinesisVideo.getDataEndpoint(any(GetDataEndpointRequest.class)))
+                .thenReturn(new GetDataEndpointResult().withDataEndpoint("https://s-1.kinesisvideo.us-east-1.amazonaws.com"));
+        clientCache = new KVSClientCache(
+                () -> {
+                    controlPlaneClients.incrementAndGet();
+                    return amazonKinesisVideo;
+                },
+                (endpoint, region, credentials) -> {
+                    mediaClients.incrementAndGet();
+                    return mock(AmazonKinesisVideoMedia.class);
+                },
+                TTL_MILLIS, now::get);
+    }
+
+    @Test
+    void reusesEndpointAndClientsWithinTtl() {
+        String endpoint = clientCache.getDataEndpoint(STREAM_NAME);
+        AmazonKinesisVideoMedia mediaClient = clientCache.getMediaClient(endpoint, REGION, awsCredentialsProvider);
+        now.addAndGet(TTL_MILLIS - 1);
+
+        assertEquals(endpoint, clientCache.getDataEndpoint(STREAM_NAME));
+        assertSame(mediaClient, clientCache.getMediaClient(endpoint, REGION, awsCredentialsProvider));
+        verify(amazonKinesisVideo, times(1)).getDataEndpoint(any(GetDataEndpointRequest.class));
+        assertEquals(1, controlPlaneClients.get());
+        assertEquals(1, mediaClients.get());
+    }
+
+    @Test
+    void refreshesEndpointOnceExpired() {
+        String endpoint = clientCache.getDataEndpoint(STREAM_NAME);
+        AmazonKinesisVideoMedia mediaClient = clientCache.getMediaClient(endpoint, REGION, awsCredentialsProvider);
+        now.addAndGet(TTL_MILLIS);
+
+        assertEquals(endpoint, clientCache.getDataEndpoint(STREAM_NAME));
+        // the endpoint did not change, so its client is still in use
+        assertSame(mediaClient, clientCache.getMediaClient(endpoint, REGION, awsCredentialsProvider));
+        verify(amazonKinesisVideo, times(2)).getDataEndpoint(any(GetDataEndpointRequest.class));
+        assertEquals(1, controlPlaneClients.get());
+    }
+
+    @Test
+    void dropsEndpointAndClientOnFailure() {
+        String endpoint = clientCache.getDataEndpoint(STREAM_NAME);
+        AmazonKinesisVideoMedia mediaClient = clientCache.getMediaClient(endpoint, REGION, awsCredentialsProvider);
+
+        clientCache.invalidate(STREAM_NAME, endpoint, REGION, awsCredentialsProvider);
+
+        verify(mediaClient).shutdown();
+        assertEquals(endpoint, clientCache.getDataEndpoint(STREAM_NAME));
+        assertNotSame(mediaClient, clientCache.getMediaClient(endpoint, REGION, awsCredentialsProvider));
+        verify(amazonKinesisVideo, times(2)).getDataEndpoint(any(GetDataEndpointRequest.class));
+        assertEquals(2, mediaClients.get());
+    }
+}
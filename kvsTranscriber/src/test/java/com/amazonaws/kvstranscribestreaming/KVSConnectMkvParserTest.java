@@ -0,0 +1,164 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.StreamingMkvReader;
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for KVSConnectMkvParser, checked against the frames of the Kinesis Video parser library
+ */
+public class KVSConnectMkvParserTest {
+    private static final String CONTACT_ID = "6f2b5c1e-3d7a-4c8e-9b1f-2a4d6e8c0b13";
+
+    @Test
+    void readsSameFramesAsGenericParser() throws Exception {
+        byte[] mkv = new MkvTestStreamBuilder().addFragment(10, CONTACT_ID).addFragment(3, 9, CONTACT_ID,
+                Collections.singletonMap("AudioStartTimestamp", "1599287207")).build();
+
+        List<String> frames = readFrames(connectParser(mkv));
+        assertEquals(32, frames.size());
+        // the last frame of the second fragment, 640 ms into the stream, is its ninth
+        assertTrue(frames.get(31).contains(" 1152 "));
+        assertEquals(readFrames(genericParser(mkv)), frames);
+    }
+
+    @Test
+    void readsLegacyTrackName() throws Exception {
+        byte[] mkv = new MkvTestStreamBuilder().withLegacyTrackName().addFragment(4, CONTACT_ID).build();
+
+        List<String> frames = readFrames(connectParser(mkv));
+        assertTrue(frames.get(0).startsWith(KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName()));
+        assertEquals(readFrames(genericParser(mkv)), frames);
+    }
+
+    @Test
+    void stopsLikeGenericParser() throws Exception {
+        byte[] stopped = new MkvTestStreamBuilder().addFragment(5, CONTACT_ID)
+                .addFragment(5, 5, CONTACT_ID, Collections.singletonMap(KVSTagIndex.STOP_STREAMING, "true"))
+                .addFragment(5, CONTACT_ID).build();
+        byte[] nextContact = new MkvTestStreamBuilder().addFragment(5, CONTACT_ID).addFragment(5, CONTACT_ID)
+                .addFragment(5, "0c4f1d2e-5a6b-4c7d-8e9f-1a2b3c4d5e6f").build();
+
+        assertEquals(readFrames(genericParser(stopped)), readFrames(connectParser(stopped)));
+        assertEquals(readFrames(genericParser(nextContact)), readFrames(connectParser(nextContact)));
+    }
+
+    /**
+     * connect-get-media.mkv is laid out as a GetMedia response for a Connect stream, with what the synthetic streams
+     * leave out: segment info, codec private data, sizes written on 8 bytes, Void elements, absolute cluster
+     * timecodes, frames of uneven durations, and the tags GetMedia appends to every fragment
+     */
+    @Test
+    void readsConnectGetMediaResponseLikeGenericParser() throws Exception {
+        byte[] mkv = readFixture("/connect-get-media.mkv");
+
+        List<String> frames = readFrames(connectParser(mkv));
+        assertEquals(84, frames.size());
+        assertTrue(frames.get(0).startsWith(KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName() + " 1 91343852333181468 1599287207000 "));
+        assertEquals(readFrames(genericParser(mkv)), frames);
+    }
+
+    /**
+     * Parse benchmark, run with gradle benchmark: throughput and bytes allocated by both parsers over a minute of a
+     * two-track Connect stream
+     */
+    @Test
+    @Tag("benchmark")
+    void parsesFasterWithFewerAllocationsThanGenericParser() throws Exception {
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder();
+        for (int i = 0; i < 30; i++) {
+            builder.addFragment(32, CONTACT_ID);
+        }
+        byte[] mkv = builder.build();
+
+        // warm up both parsers so that class loading and compilation do not count
+        for (int i = 0; i < 5; i++) {
+            countAudioBytes(genericParser(mkv));
+            countAudioBytes(connectParser(mkv));
+        }
+
+        long genericStart = System.nanoTime();
+        long genericAllocated = allocatedBytes(() -> countAudioBytes(genericParser(mkv)));
+        long genericNanos = System.nanoTime() - genericStart;
+        long connectStart = System.nanoTime();
+        long connectAllocated = allocatedBytes(() -> countAudioBytes(connectParser(mkv)));
+        long connectNanos = System.nanoTime() - connectStart;
+        System.out.printf("Parse throughput: generic %.0f MB/s, %d bytes allocated; connect %.0f MB/s, %d bytes allocated%n",
+                mkv.length * 1000.0 / genericNanos, genericAllocated, mkv.length * 1000.0 / connectNanos, connectAllocated);
+
+        assertTrue(connectAllocated < genericAllocated);
+    }
+
+    private static byte[] readFixture(String name) throws IOException {
+        try (InputStream fixture = KVSConnectMkvParserTest.class.getResourceAsStream(name)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = fixture.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private static List<String> readFrames(KVSFrameSource frameSource) throws Exception {
+        List<String> frames = new ArrayList<>();
+        KVSAudioFrame frame;
+        while ((frame = frameSource.nextFrame(CONTACT_ID)) != null) {
+            ByteBuffer frameData = frame.getFrameData();
+            byte[] audio = new byte[frameData.remaining()];
+            frameData.get(audio);
+            frames.add(frame.getTrackName() + " " + frame.getTrackMetadata().getTrackNumber() + " "
+                    + frameSource.getFragmentNumber() + " " + frame.getTimecodeMs() + " " + Base64.getEncoder().encodeToString(audio));
+        }
+        frameSource.close();
+        return frames;
+    }
+
+    private static long countAudioBytes(KVSFrameSource frameSource) throws Exception {
+        long bytes = 0;
+        KVSAudioFrame frame;
+        while ((frame = frameSource.nextFrame(CONTACT_ID)) != null) {
+            bytes += frame.getFrameData().remaining();
+        }
+        return bytes;
+    }
+
+    private static long allocatedBytes(Callable<Long> reader) throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        assertTrue(reader.call() > 0);
+        return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private static KVSFrameSource connectParser(byte[] mkv) {
+        return new KVSConnectMkvParser(new ByteArrayInputStream(mkv), new KVSTagIndex());
+    }
+
+    private static KVSFrameSource genericParser(byte[] mkv) {
+        InputStream inputStream = new ByteArrayInputStream(mkv);
+        BlockingParserByteSource byteSource = new BlockingParserByteSource(inputStream);
+        KVSTagIndex tagIndex = new KVSTagIndex();
+        FragmentMetadataVisitor fragmentVisitor = FragmentMetadataVisitor.create(Optional.of(tagIndex));
+        return new KVSStreamTrackObject(inputStream, byteSource, StreamingMkvReader.createDefault(byteSource), tagIndex,
+                fragmentVisitor, new KVSTrackCache(fragmentVisitor));
+    }
+}
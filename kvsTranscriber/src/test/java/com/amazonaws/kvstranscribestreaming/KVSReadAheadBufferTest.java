@@ -0,0 +1,152 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import com.amazonaws.kinesisvideo.parser.mkv.StreamingMkvReader;
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for KVSReadAheadBuffer
+ */
+public class KVSReadAheadBufferTest {
+    private static final String CONTACT_ID = "6f2b5c1e-3d7a-4c8e-9b1f-2a4d6e8c0b13";
+    private static final String FROM_CUSTOMER = KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName();
+    private static final String TO_CUSTOMER = KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName();
+
+    private final MetricsUtil metricsUtil = mock(MetricsUtil.class);
+
+    @Test
+    void readsBothTracksConcurrently() throws Exception {
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder();
+        for (int i = 0; i < 10; i++) {
+            builder.addFragment(16, CONTACT_ID);
+        }
+        KVSReadAheadBuffer readAheadBuffer = readAheadBuffer(new ByteArrayInputStream(builder.build()), 4);
+
+        CompletableFuture<byte[]> toCustomer = CompletableFuture.supplyAsync(() -> readTrack(readAheadBuffer, TO_CUSTOMER));
+        byte[] fromCustomer = readTrack(readAheadBuffer, FROM_CUSTOMER);
+
+        assertArrayEquals(builder.getFromCustomerAudio(), fromCustomer);
+        assertArrayEquals(builder.getToCustomerAudio(), toCustomer.get(10, TimeUnit.SECONDS));
+        verify(metricsUtil, times(2)).recordMetric(eq("ReadAheadMaxOccupancy"), longThat(occupancy -> occupancy <= 4));
+    }
+
+    @Test
+    void parserStallsOnFullRingWithoutLosingAudio() throws Exception {
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder().addFragment(40, CONTACT_ID);
+        KVSReadAheadBuffer readAheadBuffer = readAheadBuffer(new ByteArrayInputStream(builder.build()), 2);
+
+        // let the parser fill the ring before reading
+        Thread.sleep(200);
+
+        assertArrayEquals(builder.getFromCustomerAudio(), readTrack(readAheadBuffer, FROM_CUSTOMER));
+        verify(metricsUtil).recordMetric(eq("ReadAheadProducerStalls"), longThat(stalls -> stalls > 0));
+    }
+
+    @Test
+    void readerGetsAudioBeforeFailure() {
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder().addFragment(20, CONTACT_ID);
+        byte[] mkv = builder.build();
+        InputStream breakingStream = new SequenceInputStream(new ByteArrayInputStream(mkv, 0, mkv.length / 2), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        });
+        KVSReadAheadBuffer readAheadBuffer = readAheadBuffer(breakingStream, 4);
+
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        assertThrows(MkvElementVisitException.class, () -> {
+            while (true) {
+                ByteBuffer chunk = readAheadBuffer.getByteBufferFromStream(FROM_CUSTOMER);
+                audio.write(chunk.array(), chunk.position(), chunk.remaining());
+            }
+        });
+        assertTrue(audio.size() > 0);
+        byte[] expected = Arrays.copyOf(builder.getFromCustomerAudio(), audio.size());
+        assertArrayEquals(expected, audio.toByteArray());
+    }
+
+    @Test
+    void closeUnblocksParserWaitingOnStream() throws Exception {
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder().addFragment(20, CONTACT_ID);
+        byte[] mkv = builder.build();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        // the connection stays open without sending more data, until it is closed
+        InputStream stalledStream = new SequenceInputStream(new ByteArrayInputStream(mkv, 0, mkv.length / 2), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                blocked.countDown();
+                try {
+                    closed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("Stream closed");
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        });
+        KVSReadAheadBuffer readAheadBuffer = readAheadBuffer(stalledStream, 64);
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        readAheadBuffer.close();
+
+        assertEquals(0, closed.getCount());
+        // the parser has stopped, and the track ends with its failure
+        assertThrows(IllegalStateException.class, () -> readTrack(readAheadBuffer, FROM_CUSTOMER));
+    }
+
+    private KVSReadAheadBuffer readAheadBuffer(InputStream inputStream, int capacity) {
+        BlockingParserByteSource byteSource = new BlockingParserByteSource(inputStream);
+        KVSTagIndex tagIndex = new KVSTagIndex();
+        FragmentMetadataVisitor fragmentVisitor = FragmentMetadataVisitor.create(Optional.of(tagIndex));
+        KVSStreamTrackObject kvsStreamTrackObject = new KVSStreamTrackObject(inputStream, byteSource,
+                StreamingMkvReader.createDefault(byteSource), tagIndex, fragmentVisitor, new KVSTrackCache(fragmentVisitor));
+        KVSTrackDemultiplexer demultiplexer = new KVSTrackDemultiplexer(kvsStreamTrackObject, CONTACT_ID,
+                Arrays.asList(FROM_CUSTOMER, TO_CUSTOMER), 100, metricsUtil);
+        KVSReadAheadBuffer readAheadBuffer = new KVSReadAheadBuffer(demultiplexer, CONTACT_ID,
+                Arrays.asList(FROM_CUSTOMER, TO_CUSTOMER), capacity, metricsUtil);
+        readAheadBuffer.start();
+        return readAheadBuffer;
+    }
+
+    private static byte[] readTrack(KVSReadAheadBuffer readAheadBuffer, String track) {
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        try {
+            ByteBuffer chunk;
+            while ((chunk = readAheadBuffer.getByteBufferFromStream(track)).remaining() > 0) {
+                audio.write(chunk.array(), chunk.position(), chunk.remaining());
+            }
+        } catch (MkvElementVisitException e) {
+            throw new IllegalStateException(e);
+        }
+        return audio.toByteArray();
+    }
+}
@@ -0,0 +1,339 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.ebml.InputStreamParserByteSource;
+import com.amazonaws.kinesisvideo.parser.ebml.MkvTypeInfos;
+import com.amazonaws.kinesisvideo.parser.mkv.Frame;
+import com.amazonaws.kinesisvideo.parser.mkv.MkvDataElement;
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElement;
+import com.amazonaws.kinesisvideo.parser.mkv.MkvValue;
+import com.amazonaws.kinesisvideo.parser.mkv.StreamingMkvReader;
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
+import com.amazonaws.transcribestreaming.KVSByteToAudioEventSubscription;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for KVSTrackDemultiplexer
+ */
+public class KVSTrackDemultiplexerTest {
+    private static final String CONTACT_ID = "6f2b5c1e-3d7a-4c8e-9b1f-2a4d6e8c0b13";
+    private static final String FROM_CUSTOMER = KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName();
+    private static final String TO_CUSTOMER = KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName();
+
+    @Test
+    void splitsBothTracksFromOneStream() throws Exception {
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder().addFragment(10, CONTACT_ID).addFragment(7, CONTACT_ID);
+        KVSTrackDemultiplexer demultiplexer = demultiplexer(builder.build(), FROM_CUSTOMER, TO_CUSTOMER);
+
+        // drain one track first, so that the other one is read from its queue
+        assertArrayEquals(builder.getFromCustomerAudio(), readTrack(demultiplexer, FROM_CUSTOMER));
+        assertArrayEquals(builder.getToCustomerAudio(), readTrack(demultiplexer, TO_CUSTOMER));
+    }
+
+    @Test
+    void alternatingReadsKeepTracksApart() throws Exception {
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder().addFragment(12, CONTACT_ID);
+        KVSTrackDemultiplexer demultiplexer = demultiplexer(builder.build(), FROM_CUSTOMER, TO_CUSTOMER);
+
+        ByteArrayOutputStream fromCustomer = new ByteArrayOutputStream();
+        ByteArrayOutputStream toCustomer = new ByteArrayOutputStream();
+        boolean fromCustomerEnded = false;
+        boolean toCustomerEnded = false;
+        while (!fromCustomerEnded || !toCustomerEnded) {
+            fromCustomerEnded = !append(fromCustomer, demultiplexer.getByteBufferFromStream(FROM_CUSTOMER));
+            toCustomerEnded = !append(toCustomer, demultiplexer.getByteBufferFromStream(TO_CUSTOMER));
+        }
+
+        assertArrayEquals(builder.getFromCustomerAudio(), fromCustomer.toByteArray());
+        assertArrayEquals(builder.getToCustomerAudio(), toCustomer.toByteArray());
+    }
+
+    @Test
+    void ignoresTracksThatAreNotTranscribed() throws Exception {
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder().withLegacyTrackName().addFragment(5, CONTACT_ID);
+        KVSTrackDemultiplexer demultiplexer = demultiplexer(builder.build(), FROM_CUSTOMER);
+
+        assertArrayEquals(builder.getFromCustomerAudio(), readTrack(demultiplexer, FROM_CUSTOMER));
+    }
+
+    @Test
+    void stopsWhenStreamingIsStopped() throws Exception {
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder()
+                .addFragment(4, 4, CONTACT_ID, Collections.singletonMap("STOP_STREAMING", "true"));
+        int expectedLength = builder.getToCustomerAudio().length;
+        builder.addFragment(4, CONTACT_ID);
+        KVSTrackDemultiplexer demultiplexer = demultiplexer(builder.build(), FROM_CUSTOMER, TO_CUSTOMER);
+
+        assertEquals(expectedLength, readTrack(demultiplexer, TO_CUSTOMER).length);
+        assertEquals(expectedLength, readTrack(demultiplexer, FROM_CUSTOMER).length);
+    }
+
+    @Test
+    void stopsWhenContactChanges() throws Exception {
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder().addFragment(4, CONTACT_ID).addFragment(4, "another-contact");
+        // the contact tags are at the end of the fragments, so the change is detected at the start of the next one
+        int expectedLength = builder.getToCustomerAudio().length;
+        builder.addFragment(4, "another-contact");
+        KVSTrackDemultiplexer demultiplexer = demultiplexer(builder.build(), FROM_CUSTOMER, TO_CUSTOMER);
+
+        assertEquals(expectedLength, readTrack(demultiplexer, TO_CUSTOMER).length);
+        assertEquals(expectedLength, readTrack(demultiplexer, FROM_CUSTOMER).length);
+    }
+
+    @Test
+    void alignsTracksWithSilenceWhereFramesAreMissing() throws Exception {
+        // the second track misses 4 frames at the end of the first fragment
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder().addFragment(10, 6, CONTACT_ID, Collections.emptyMap())
+                .addFragment(10, CONTACT_ID);
+        byte[] mkv = builder.build();
+        int missing = 4 * MkvTestStreamBuilder.FRAME_SIZE;
+        int received = 6 * MkvTestStreamBuilder.FRAME_SIZE;
+        byte[] toCustomerAudio = builder.getToCustomerAudio();
+        byte[] expected = new byte[toCustomerAudio.length + missing];
+        System.arraycopy(toCustomerAudio, 0, expected, 0, received);
+        System.arraycopy(toCustomerAudio, received, expected, received + missing, toCustomerAudio.length - received);
+
+        for (KVSFrameSource frameSource : Arrays.asList(genericParser(mkv), new KVSConnectMkvParser(new ByteArrayInputStream(mkv), new KVSTagIndex()))) {
+            MetricsUtil metricsUtil = mock(MetricsUtil.class);
+            KVSTrackDemultiplexer demultiplexer = new KVSTrackDemultiplexer(frameSource, CONTACT_ID,
+                    Arrays.asList(FROM_CUSTOMER, TO_CUSTOMER), 100, true, metricsUtil);
+
+            assertArrayEquals(builder.getFromCustomerAudio(), readTrack(demultiplexer, FROM_CUSTOMER));
+            assertArrayEquals(expected, readTrack(demultiplexer, TO_CUSTOMER));
+            verify(metricsUtil).recordMetric("DemultiplexerPaddedAudioMs", 4 * MkvTestStreamBuilder.FRAME_DURATION_MS);
+        }
+    }
+
+    @Test
+    void fillsTrackStartingLateWithSilenceFromOtherTrack() throws Exception {
+        // the second track starts 20 s after the first one, more than the audio queued for a track
+        int lateFrames = 320;
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder().addFragment(lateFrames, 0, CONTACT_ID, Collections.emptyMap())
+                .addFragment(10, CONTACT_ID);
+        byte[] toCustomerAudio = builder.getToCustomerAudio();
+        byte[] expected = new byte[lateFrames * MkvTestStreamBuilder.FRAME_SIZE + toCustomerAudio.length];
+        System.arraycopy(toCustomerAudio, 0, expected, lateFrames * MkvTestStreamBuilder.FRAME_SIZE, toCustomerAudio.length);
+
+        MetricsUtil metricsUtil = mock(MetricsUtil.class);
+        KVSTrackDemultiplexer demultiplexer = new KVSTrackDemultiplexer(genericParser(builder.build()), CONTACT_ID,
+                Arrays.asList(FROM_CUSTOMER, TO_CUSTOMER), 100, true, metricsUtil);
+        DualChannelInterleaver interleaver = new DualChannelInterleaver(demultiplexer, FROM_CUSTOMER, TO_CUSTOMER);
+
+        // the interleaver reads both tracks in turn, so the first one is only read as fast as the late one
+        ByteArrayOutputStream left = new ByteArrayOutputStream();
+        ByteArrayOutputStream right = new ByteArrayOutputStream();
+        ByteBuffer chunk;
+        while ((chunk = interleaver.getByteBufferFromStream(DualChannelInterleaver.DUAL_CHANNEL_TRACK)).hasRemaining()) {
+            while (chunk.hasRemaining()) {
+                left.write(chunk.get());
+                left.write(chunk.get());
+                right.write(chunk.get());
+                right.write(chunk.get());
+            }
+        }
+
+        assertArrayEquals(builder.getFromCustomerAudio(), left.toByteArray());
+        assertArrayEquals(expected, right.toByteArray());
+        verify(metricsUtil, never()).recordMetric(eq("DemultiplexerDroppedAudioMs"), anyLong());
+        verify(metricsUtil).recordMetric("DemultiplexerPaddedAudioMs", lateFrames * MkvTestStreamBuilder.FRAME_DURATION_MS);
+    }
+
+    @Test
+    void waitsForSlowStreamWithoutSpinning() throws Exception {
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder().addFragment(20, CONTACT_ID).addFragment(20, CONTACT_ID);
+        byte[] mkv = builder.build();
+        PipedOutputStream producer = new PipedOutputStream();
+        PipedInputStream inputStream = new PipedInputStream(producer, mkv.length);
+        Thread producerThread = new Thread(() -> {
+            try {
+                // trickle the stream in pieces that rarely hold whole elements
+                for (int offset = 0; offset < mkv.length; offset += 1000) {
+                    producer.write(mkv, offset, Math.min(1000, mkv.length - offset));
+                    producer.flush();
+                    Thread.sleep(5);
+                }
+                producer.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        BlockingParserByteSource byteSource = new BlockingParserByteSource(inputStream);
+        KVSTrackDemultiplexer demultiplexer = demultiplexer(inputStream, byteSource, FROM_CUSTOMER, TO_CUSTOMER);
+
+        producerThread.start();
+        byte[] fromCustomer = readTrack(demultiplexer, FROM_CUSTOMER);
+        byte[] toCustomer = readTrack(demultiplexer, TO_CUSTOMER);
+        producerThread.join();
+
+        assertArrayEquals(builder.getFromCustomerAudio(), fromCustomer);
+        assertArrayEquals(builder.getToCustomerAudio(), toCustomer);
+        // the reader blocked on the stream for the missing bytes, rather than polling the parser
+        assertTrue(byteSource.getIdleWakeups() > 0);
+    }
+
+    /**
+     * Allocation benchmark, run with gradle benchmark: bytes allocated per second of audio from the KVS stream to the
+     * audio events of both tracks, through the replay buffers, against the former path that copied every frame out
+     * of the parser, then into a combined chunk, then into the audio event
+     */
+    @Test
+    @Tag("benchmark")
+    void allocatesLessPerSecondOfAudioThanCopyingFrames() throws Exception {
+        MkvTestStreamBuilder builder = new MkvTestStreamBuilder();
+        for (int i = 0; i < 30; i++) {
+            builder.addFragment(32, CONTACT_ID);
+        }
+        byte[] mkv = builder.build();
+        double audioSeconds = 30 * 32 * MkvTestStreamBuilder.FRAME_DURATION_MS / 1000.0;
+        long audioBytes = builder.getFromCustomerAudio().length + builder.getToCustomerAudio().length;
+
+        // warm up both paths so that class loading does not count
+        sendAllChunks(mkv);
+        sendAllChunksCopyingFrames(mkv);
+
+        long allocated = allocatedBytes(() -> sendAllChunks(mkv));
+        long allocatedCopyingFrames = allocatedBytes(() -> sendAllChunksCopyingFrames(mkv));
+        System.out.printf("Bytes allocated per second of audio: %.0f, copying frames: %.0f, audio: %.0f%n",
+                allocated / audioSeconds, allocatedCopyingFrames / audioSeconds, audioBytes / audioSeconds);
+
+        // the three copies of the audio are down to one
+        assertTrue(allocated + 2 * audioBytes < allocatedCopyingFrames);
+    }
+
+    /**
+     * Sends both tracks through their replay buffer and subscription, the pumps running on the calling thread
+     *
+     * @return bytes of audio in the events
+     */
+    private static long sendAllChunks(byte[] mkv) {
+        KVSTrackDemultiplexer demultiplexer = new KVSTrackDemultiplexer(new KVSConnectMkvParser(new ByteArrayInputStream(mkv), new KVSTagIndex()),
+                CONTACT_ID, Arrays.asList(FROM_CUSTOMER, TO_CUSTOMER), 100, mock(MetricsUtil.class));
+        long[] bytes = {0};
+        boolean[] completed = {false, false};
+        List<KVSByteToAudioEventSubscription> subscriptions = new ArrayList<>();
+        for (String track : Arrays.asList(FROM_CUSTOMER, TO_CUSTOMER)) {
+            int index = subscriptions.size();
+            AudioReplayBuffer replayBuffer = new AudioReplayBuffer(demultiplexer, track, 5000, mock(MetricsUtil.class));
+            Subscriber<AudioStream> subscriber = new Subscriber<AudioStream>() {
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                }
+
+                @Override
+                public void onNext(AudioStream event) {
+                    bytes[0] += ((AudioEvent) event).audioChunk().asByteBuffer().remaining();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    throw new AssertionError(t);
+                }
+
+                @Override
+                public void onComplete() {
+                    completed[index] = true;
+                }
+            };
+            subscriptions.add(new KVSByteToAudioEventSubscription(subscriber, replayBuffer.startSession(), track, Runnable::run));
+        }
+
+        // the tracks are read in turn, as Transcribe does, so that none of them is dropped from its queue
+        while (!completed[0] || !completed[1]) {
+            subscriptions.forEach(subscription -> subscription.request(1));
+        }
+        return bytes[0];
+    }
+
+    private static long sendAllChunksCopyingFrames(byte[] mkv) throws Exception {
+        StreamingMkvReader streamingMkvReader = StreamingMkvReader.createDefault(new InputStreamParserByteSource(new ByteArrayInputStream(mkv)));
+        List<ByteBuffer> frames = new ArrayList<>();
+        long bytes = 0;
+        while (streamingMkvReader.mightHaveNext()) {
+            Optional<MkvElement> mkvElement = streamingMkvReader.nextIfAvailable();
+            if (mkvElement.isPresent() && MkvTypeInfos.SIMPLEBLOCK.equals(mkvElement.get().getElementMetaData().getTypeInfo())) {
+                Frame frame = ((MkvValue<Frame>) ((MkvDataElement) mkvElement.get()).getValueCopy()).getVal();
+                frames.add(frame.getFrameData());
+                if (frames.size() == 4) {
+                    ByteBuffer combined = ByteBuffer.allocate(frames.stream().mapToInt(ByteBuffer::remaining).sum());
+                    frames.forEach(combined::put);
+                    combined.flip();
+                    bytes += SdkBytes.fromByteBuffer(combined).asByteBuffer().remaining();
+                    frames.clear();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static long allocatedBytes(Callable<Long> reader) throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        assertTrue(reader.call() > 0);
+        return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private static KVSTrackDemultiplexer demultiplexer(byte[] mkv, String... tracks) {
+        InputStream inputStream = new ByteArrayInputStream(mkv);
+        return demultiplexer(inputStream, new BlockingParserByteSource(inputStream), tracks);
+    }
+
+    private static KVSTrackDemultiplexer demultiplexer(InputStream inputStream, BlockingParserByteSource byteSource, String... tracks) {
+        return new KVSTrackDemultiplexer(genericParser(inputStream, byteSource), CONTACT_ID, Arrays.asList(tracks), 100, mock(MetricsUtil.class));
+    }
+
+    private static KVSStreamTrackObject genericParser(byte[] mkv) {
+        InputStream inputStream = new ByteArrayInputStream(mkv);
+        return genericParser(inputStream, new BlockingParserByteSource(inputStream));
+    }
+
+    private static KVSStreamTrackObject genericParser(InputStream inputStream, BlockingParserByteSource byteSource) {
+        StreamingMkvReader streamingMkvReader = StreamingMkvReader.createDefault(byteSource);
+        KVSTagIndex tagIndex = new KVSTagIndex();
+        FragmentMetadataVisitor fragmentVisitor = FragmentMetadataVisitor.create(Optional.of(tagIndex));
+        return new KVSStreamTrackObject(inputStream, byteSource, streamingMkvReader, tagIndex, fragmentVisitor,
+                new KVSTrackCache(fragmentVisitor));
+    }
+
+    private static byte[] readTrack(KVSTrackDemultiplexer demultiplexer, String track) throws Exception {
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        while (append(audio, demultiplexer.getByteBufferFromStream(track))) {
+        }
+        return audio.toByteArray();
+    }
+
+    private static boolean append(ByteArrayOutputStream out, ByteBuffer chunk) {
+        byte[] bytes = new byte[chunk.remaining()];
+        chunk.get(bytes);
+        out.write(bytes, 0, bytes.length);
+        return bytes.length > 0;
+    }
+}
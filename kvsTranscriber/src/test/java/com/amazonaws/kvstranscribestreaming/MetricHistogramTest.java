@@ -0,0 +1,40 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+/**
+ * Unit tests for MetricHistogram
+ */
+public class MetricHistogramTest {
+
+    @Test
+    void reportsPercentilesWithinTheirBucket() {
+        MetricHistogram histogram = new MetricHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i <= 90 ? 20 : 700);
+        }
+
+        // 20 is in the bucket up to 31, 700 in the one up to 1023
+        assertEquals(31, histogram.getPercentile(50));
+        assertEquals(31, histogram.getPercentile(90));
+        assertEquals(700, histogram.getPercentile(99));
+        assertEquals(700, histogram.getMax());
+    }
+
+    @Test
+    void recordsNothingWhenEmpty() {
+        MetricsUtil metricsUtil = mock(MetricsUtil.class);
+        new MetricHistogram().recordMetrics(metricsUtil, "ScrtDeliveryLatencyMs");
+        verifyNoInteractions(metricsUtil);
+
+        MetricHistogram histogram = new MetricHistogram();
+        histogram.record(0);
+        histogram.recordMetrics(metricsUtil, "ScrtDeliveryLatencyMs");
+        verify(metricsUtil).recordMetric("ScrtDeliveryLatencyMsP50", 0);
+    }
+}
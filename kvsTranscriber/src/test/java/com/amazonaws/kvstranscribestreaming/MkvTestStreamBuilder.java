@@ -0,0 +1,214 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds MKV streams shaped like the ones Amazon Connect writes to KVS: every fragment is an EBML header followed
+ * by a Segment of unknown size holding the track entries, the KVS fragment tags, a Cluster of unknown size with the
+ * audio SimpleBlocks of both tracks, and the Connect tags.
+ */
+public class MkvTestStreamBuilder {
+    public static final int FROM_CUSTOMER_TRACK_NUMBER = 1;
+    public static final int TO_CUSTOMER_TRACK_NUMBER = 2;
+    public static final int SAMPLE_RATE = 8000;
+    public static final int FRAME_DURATION_MS = 64;
+    public static final int FRAME_SIZE = SAMPLE_RATE * 2 * FRAME_DURATION_MS / 1000;
+
+    private static final byte[] UNKNOWN_SIZE = {0x01, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+
+    private final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    private final List<byte[]> fromCustomerAudio = new ArrayList<>();
+    private final List<byte[]> toCustomerAudio = new ArrayList<>();
+    private String fromCustomerTrackName = KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName();
+    private long fragmentNumber = 91343852333181432L;
+    private int clusterTimecode = 0;
+    private int frameCounter = 0;
+
+    /**
+     * Use the track name written by older Connect instances for the customer audio
+     */
+    public MkvTestStreamBuilder withLegacyTrackName() {
+        this.fromCustomerTrackName = "Track_audio/L16";
+        return this;
+    }
+
+    /**
+     * Appends a fragment holding the given number of frames per track
+     */
+    public MkvTestStreamBuilder addFragment(int framesPerTrack, String contactId) {
+        return addFragment(framesPerTrack, framesPerTrack, contactId, new LinkedHashMap<>());
+    }
+
+    /**
+     * Appends a fragment holding the given number of frames per track and the given Connect tags
+     */
+    public MkvTestStreamBuilder addFragment(int fromCustomerFrames, int toCustomerFrames, String contactId, Map<String, String> tags) {
+        fragmentNumber++;
+
+        write(stream, ebmlHeader());
+        stream.write(0x18); stream.write(0x53); stream.write(0x80); stream.write(0x67);
+        stream.write(UNKNOWN_SIZE, 0, UNKNOWN_SIZE.length);
+
+        write(stream, element(0x1549A966, element(0x2AD7B1, uint(1000000))));
+        write(stream, element(0x1654AE6B, concat(
+                trackEntry(FROM_CUSTOMER_TRACK_NUMBER, fromCustomerTrackName),
+                trackEntry(TO_CUSTOMER_TRACK_NUMBER, KVSUtils.TrackName.AUDIO_TO_CUSTOMER.getName()))));
+
+        Map<String, String> fragmentTags = new LinkedHashMap<>();
+        fragmentTags.put("AWS_KINESISVIDEO_FRAGMENT_NUMBER", String.valueOf(fragmentNumber));
+        fragmentTags.put("AWS_KINESISVIDEO_SERVER_TIMESTAMP", "1599287207.123");
+        fragmentTags.put("AWS_KINESISVIDEO_PRODUCER_TIMESTAMP", "1599287207.000");
+        write(stream, tags(fragmentTags));
+
+        stream.write(0x1F); stream.write(0x43); stream.write(0xB6); stream.write(0x75);
+        stream.write(UNKNOWN_SIZE, 0, UNKNOWN_SIZE.length);
+        write(stream, element(0xE7, uint(clusterTimecode)));
+        int blockTimecode = 0;
+        for (int i = 0; i < Math.max(fromCustomerFrames, toCustomerFrames); i++) {
+            if (i < fromCustomerFrames) {
+                byte[] audio = pcmFrame(frameCounter++);
+                fromCustomerAudio.add(audio);
+                write(stream, simpleBlock(FROM_CUSTOMER_TRACK_NUMBER, blockTimecode, audio));
+            }
+            if (i < toCustomerFrames) {
+                byte[] audio = pcmFrame(frameCounter++);
+                toCustomerAudio.add(audio);
+                write(stream, simpleBlock(TO_CUSTOMER_TRACK_NUMBER, blockTimecode, audio));
+            }
+            blockTimecode += FRAME_DURATION_MS;
+        }
+        clusterTimecode += blockTimecode;
+
+        Map<String, String> connectTags = new LinkedHashMap<>();
+        connectTags.put("ContactId", contactId);
+        connectTags.putAll(tags);
+        write(stream, tags(connectTags));
+        return this;
+    }
+
+    public byte[] build() {
+        return stream.toByteArray();
+    }
+
+    public byte[] getFromCustomerAudio() {
+        return concat(fromCustomerAudio.toArray(new byte[0][]));
+    }
+
+    public byte[] getToCustomerAudio() {
+        return concat(toCustomerAudio.toArray(new byte[0][]));
+    }
+
+    /**
+     * 16-bit PCM samples that differ from frame to frame, so that misplaced bytes are detected
+     */
+    static byte[] pcmFrame(int seed) {
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_SIZE);
+        for (int i = 0; i < FRAME_SIZE / 2; i++) {
+            buffer.put((byte) (seed * 31 + i));
+            buffer.put((byte) ((seed + i) >> 3));
+        }
+        return buffer.array();
+    }
+
+    private static byte[] ebmlHeader() {
+        return element(0x1A45DFA3, concat(
+                element(0x4286, uint(1)),
+                element(0x42F7, uint(1)),
+                element(0x42F2, uint(4)),
+                element(0x42F3, uint(8)),
+                element(0x4282, string("matroska")),
+                element(0x4287, uint(2)),
+                element(0x4285, uint(2))));
+    }
+
+    private static byte[] trackEntry(int trackNumber, String name) {
+        return element(0xAE, concat(
+                element(0xD7, uint(trackNumber)),
+                element(0x73C5, uint(trackNumber)),
+                element(0x83, uint(2)),
+                element(0x536E, string(name)),
+                element(0x86, string("A_PCM/INT/LIT")),
+                element(0xE1, concat(
+                        element(0xB5, ByteBuffer.allocate(8).putDouble(SAMPLE_RATE).array()),
+                        element(0x9F, uint(1)),
+                        element(0x6264, uint(16))))));
+    }
+
+    private static byte[] tags(Map<String, String> tags) {
+        List<byte[]> simpleTags = new ArrayList<>();
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            simpleTags.add(element(0x67C8, concat(
+                    element(0x45A3, string(tag.getKey())),
+                    element(0x4487, string(tag.getValue())))));
+        }
+        return element(0x1254C367, element(0x7373, concat(simpleTags.toArray(new byte[0][]))));
+    }
+
+    private static byte[] simpleBlock(int trackNumber, int timecode, byte[] audio) {
+        ByteBuffer block = ByteBuffer.allocate(4 + audio.length);
+        block.put((byte) (0x80 | trackNumber));
+        block.putShort((short) timecode);
+        block.put((byte) 0x80);
+        block.put(audio);
+        return element(0xA3, block.array());
+    }
+
+    private static byte[] element(int id, byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            int b = (id >>> shift) & 0xFF;
+            if (b != 0 || out.size() > 0) {
+                out.write(b);
+            }
+        }
+        long size = data.length;
+        int length = 1;
+        while (size >= (1L << (7 * length)) - 1) {
+            length++;
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            long b = (size >>> (8 * i)) & 0xFF;
+            if (i == length - 1) {
+                b |= 0x80 >>> (length - 1);
+            }
+            out.write((int) b);
+        }
+        write(out, data);
+        return out.toByteArray();
+    }
+
+    private static byte[] uint(long value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean started = false;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            int b = (int) ((value >>> shift) & 0xFF);
+            if (b != 0 || started || shift == 0) {
+                out.write(b);
+                started = true;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] string(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            write(out, part);
+        }
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,89 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import software.amazon.awssdk.services.transcribestreaming.model.Alternative;
+import software.amazon.awssdk.services.transcribestreaming.model.Item;
+import software.amazon.awssdk.services.transcribestreaming.model.ItemType;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for PartialResultDebouncer
+ */
+public class PartialResultDebouncerTest {
+    private static final String RESULT_ID = "e1dc4239-94d4-4143-86ea-418f4eeb63b8";
+
+    @Test
+    void sendsRevisionsAtMostOncePerInterval() {
+        PartialResultDebouncer debouncer = new PartialResultDebouncer(1000);
+
+        assertTrue(debouncer.shouldSendPartial(RESULT_ID, "hello", 0));
+        assertFalse(debouncer.shouldSendPartial(RESULT_ID, "hello there", 500));
+        assertFalse(debouncer.shouldSendPartial(RESULT_ID, "hello", 1500));
+        assertTrue(debouncer.shouldSendPartial(RESULT_ID, "hello there", 1500));
+        // other results are not held back
+        assertTrue(debouncer.shouldSendPartial("another-result", "good morning", 1600));
+        assertFalse(debouncer.shouldSendPartial("empty-result", "", 1600));
+
+        assertEquals(3, debouncer.getSentRevisions());
+        assertEquals(2, debouncer.getSkippedRevisions());
+    }
+
+    @Test
+    void keepsOnlyLeadingStableWords() {
+        assertEquals("Hello, I", PartialResultDebouncer.getStableText(Arrays.asList(
+                item("Hello", true), punctuation(","), item("I", true), item("need", false), item("help", true))));
+        assertEquals("", PartialResultDebouncer.getStableText(Arrays.asList(item("Hello", false))));
+    }
+
+    @Test
+    void writerSendsStablePartialThenFinalUnderSameId() {
+        TranscribedSegmentWriter writer = spy(TranscribedSegmentWriter.newBuilder()
+                .setInstanceARN("arn")
+                .setVoiceCallId("voice-call")
+                .setFromCustomer(true)
+                .setAudioStartTimestamp(1599287207000L)
+                .setCustomerPhoneNumber("+18586667777")
+                .setPartialResults(new PartialResultDebouncer(0))
+                .setDelivery(mock(ScrtDeliveryPipeline.class))
+                .build());
+        doNothing().when(writer).sendMessage(anyString(), anyString(), anyLong(), anyLong(), anyBoolean());
+
+        writer.sendStandardResult(result(true, "Hello I", item("Hello", true), item("I", false)));
+        writer.sendStandardResult(result(true, "Hello I", item("Hello", true), item("I", false)));
+        writer.sendStandardResult(result(false, "Hello, I need help.", item("Hello", true), item("I", true)));
+
+        InOrder inOrder = inOrder(writer);
+        inOrder.verify(writer).sendMessage("Hello", RESULT_ID, 1599287207000L, 1599287208500L, true);
+        inOrder.verify(writer).sendMessage("Hello, I need help.", RESULT_ID, 1599287207000L, 1599287208500L, false);
+        verify(writer, times(2)).sendMessage(anyString(), anyString(), anyLong(), anyLong(), anyBoolean());
+    }
+
+    private static Result result(boolean partial, String transcript, Item... items) {
+        return Result.builder().resultId(RESULT_ID).isPartial(partial).startTime(0.0).endTime(1.5)
+                .alternatives(Alternative.builder().transcript(transcript).items(items).build()).build();
+    }
+
+    private static Item item(String content, boolean stable) {
+        return Item.builder().content(content).type(ItemType.PRONUNCIATION).stable(stable).build();
+    }
+
+    private static Item punctuation(String content) {
+        return Item.builder().content(content).type(ItemType.PUNCTUATION).stable(true).build();
+    }
+}
@@ -0,0 +1,207 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import com.amazonaws.kinesisvideo.parser.mkv.StreamingMkvReader;
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for ResumableKVSFrameSource
+ */
+public class ResumableKVSFrameSourceTest {
+    private static final String CONTACT_ID = "6f2b5c1e-3d7a-4c8e-9b1f-2a4d6e8c0b13";
+    private static final String FROM_CUSTOMER = KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName();
+    private static final long FIRST_FRAGMENT_NUMBER = 91343852333181433L;
+
+    private final MkvTestStreamBuilder builder = new MkvTestStreamBuilder();
+    private final List<Integer> fragmentOffsets = new ArrayList<>();
+    private final List<String> connections = new ArrayList<>();
+    private final MetricsUtil metricsUtil = mock(MetricsUtil.class);
+
+    @Test
+    void resumesFromLastFragmentWithoutDuplicates() throws Exception {
+        byte[] mkv = buildFragments(3, 8);
+        // break the first connection in the middle of the cluster of the second fragment
+        int breakOffset = fragmentOffsets.get(1) + (fragmentOffsets.get(2) - fragmentOffsets.get(1)) / 2;
+
+        ResumableKVSFrameSource frameSource = new ResumableKVSFrameSource((fragmentNumber, startSelectorType) -> {
+            connections.add(startSelectorType + " " + fragmentNumber);
+            if (connections.size() == 1) {
+                return frameSource(new BreakingInputStream(mkv, breakOffset));
+            }
+            int offset = fragmentOffsets.get((int) (Long.parseLong(fragmentNumber) - FIRST_FRAGMENT_NUMBER));
+            return frameSource(new ByteArrayInputStream(mkv, offset, mkv.length - offset));
+        }, "1", "NOW", 3, metricsUtil);
+
+        ByteArrayOutputStream fromCustomer = new ByteArrayOutputStream();
+        ByteArrayOutputStream toCustomer = new ByteArrayOutputStream();
+        KVSAudioFrame frame;
+        while ((frame = frameSource.nextFrame(CONTACT_ID)) != null) {
+            ByteBuffer frameData = frame.getFrameData();
+            byte[] audio = new byte[frameData.remaining()];
+            frameData.get(audio);
+            (FROM_CUSTOMER.equals(frame.getTrackName()) ? fromCustomer : toCustomer).write(audio, 0, audio.length);
+        }
+        frameSource.close();
+
+        assertEquals(Arrays.asList("NOW 1", "FRAGMENT_NUMBER " + (FIRST_FRAGMENT_NUMBER + 1)), connections);
+        assertArrayEquals(builder.getFromCustomerAudio(), fromCustomer.toByteArray());
+        assertArrayEquals(builder.getToCustomerAudio(), toCustomer.toByteArray());
+        assertEquals(1, frameSource.getReconnects());
+        verify(metricsUtil).recordMetric(eq("KVSReconnectGapMs"), anyLong());
+        verify(metricsUtil).recordMetric("KVSReconnects", 1);
+    }
+
+    @Test
+    void givesUpAfterMaxReconnects() {
+        byte[] mkv = buildFragments(2, 4);
+        int breakOffset = fragmentOffsets.get(1) + 100;
+
+        assertThrows(MkvElementVisitException.class, () -> {
+            ResumableKVSFrameSource frameSource = new ResumableKVSFrameSource((fragmentNumber, startSelectorType) -> {
+                connections.add(startSelectorType + " " + fragmentNumber);
+                return frameSource(new BreakingInputStream(mkv, breakOffset));
+            }, "1", "NOW", 2, metricsUtil);
+            while (frameSource.nextFrame(CONTACT_ID) != null) {
+            }
+        });
+        assertEquals(3, connections.size());
+    }
+
+    @Test
+    void endOfStreamIsNotAFailure() throws Exception {
+        byte[] mkv = buildFragments(2, 4);
+
+        ResumableKVSFrameSource frameSource = new ResumableKVSFrameSource((fragmentNumber, startSelectorType) -> {
+            connections.add(startSelectorType + " " + fragmentNumber);
+            return frameSource(new ByteArrayInputStream(mkv));
+        }, "1", "NOW", 3, metricsUtil);
+        int frames = 0;
+        while (frameSource.nextFrame(CONTACT_ID) != null) {
+            frames++;
+        }
+        frameSource.close();
+
+        assertEquals(16, frames);
+        assertEquals(1, connections.size());
+        assertEquals(String.valueOf(FIRST_FRAGMENT_NUMBER + 1), frameSource.getFragmentNumber());
+        verify(metricsUtil).recordMetric("KVSReconnects", 0);
+    }
+
+    @Test
+    void measuresGapSinceHandOffOnFirstFrame() throws Exception {
+        byte[] mkv = buildFragments(1, 2);
+
+        ResumableKVSFrameSource frameSource = new ResumableKVSFrameSource((fragmentNumber, startSelectorType) ->
+                frameSource(new ByteArrayInputStream(mkv)), String.valueOf(FIRST_FRAGMENT_NUMBER), "FRAGMENT_NUMBER", 3, metricsUtil);
+        frameSource.setHandoffTimestamp(System.currentTimeMillis() - 1500);
+        while (frameSource.nextFrame(CONTACT_ID) != null) {
+        }
+
+        verify(metricsUtil).recordMetric(eq("ContinuationHandoffGapMs"), longThat(gapMs -> gapMs >= 1500));
+    }
+
+    @Test
+    void returnsFramesHeldBackWhenHandOffFails() throws Exception {
+        byte[] mkv = buildFragments(2, 4);
+        List<String> handOffs = new ArrayList<>();
+
+        ResumableKVSFrameSource frameSource = new ResumableKVSFrameSource((fragmentNumber, startSelectorType) ->
+                frameSource(new ByteArrayInputStream(mkv)), "1", "NOW", 3, metricsUtil);
+        frameSource.stopAtNextFragment(fragmentNumber -> {
+            handOffs.add(fragmentNumber);
+            // completes on another thread, while the second fragment is read
+            return CompletableFuture.supplyAsync(() -> false);
+        });
+        int frames = 0;
+        while (frameSource.nextFrame(CONTACT_ID) != null) {
+            frames++;
+        }
+
+        assertEquals(16, frames);
+        assertEquals(Arrays.asList(String.valueOf(FIRST_FRAGMENT_NUMBER + 1)), handOffs);
+    }
+
+    @Test
+    void endsAtNextFrameOnceStopped() throws Exception {
+        byte[] mkv = buildFragments(2, 4);
+
+        ResumableKVSFrameSource frameSource = new ResumableKVSFrameSource((fragmentNumber, startSelectorType) ->
+                frameSource(new ByteArrayInputStream(mkv)), "1", "NOW", 3, metricsUtil);
+        int frames = 0;
+        while (frameSource.nextFrame(CONTACT_ID) != null) {
+            if (++frames == 3) {
+                frameSource.stop();
+            }
+        }
+
+        assertEquals(3, frames);
+    }
+
+    private byte[] buildFragments(int fragments, int framesPerTrack) {
+        for (int i = 0; i < fragments; i++) {
+            fragmentOffsets.add(builder.build().length);
+            builder.addFragment(framesPerTrack, CONTACT_ID);
+        }
+        return builder.build();
+    }
+
+    private static KVSFrameSource frameSource(InputStream inputStream) {
+        BlockingParserByteSource byteSource = new BlockingParserByteSource(inputStream);
+        KVSTagIndex tagIndex = new KVSTagIndex();
+        FragmentMetadataVisitor fragmentVisitor = FragmentMetadataVisitor.create(Optional.of(tagIndex));
+        return new KVSStreamTrackObject(inputStream, byteSource, StreamingMkvReader.createDefault(byteSource), tagIndex,
+                fragmentVisitor, new KVSTrackCache(fragmentVisitor));
+    }
+
+    /**
+     * Stream that fails like a dropped connection once the given number of bytes have been read
+     */
+    private static class BreakingInputStream extends InputStream {
+        private final byte[] data;
+        private final int breakOffset;
+        private int position = 0;
+
+        private BreakingInputStream(byte[] data, int breakOffset) {
+            this.data = data;
+            this.breakOffset = breakOffset;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= breakOffset) {
+                throw new IOException("Connection reset");
+            }
+            int count = Math.min(len, Math.min(1024, breakOffset - position));
+            System.arraycopy(data, position, b, off, count);
+            position += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.connect.ConnectClient;
+import software.amazon.awssdk.services.connect.model.UpdateContactAttributesRequest;
+
+import java.net.ConnectException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for ScrtDeliveryPipeline
+ */
+public class ScrtDeliveryPipelineTest {
+    private static final String VOICE_CALL_ID = "a4a471f8-dcd5-444d-bdbc-1a81e188adf7";
+
+    private static final Pattern MESSAGE_ID = Pattern.compile("\"messageId\":\"([^\"]*)\"");
+
+    // tasks of the executor of the client, run by the test
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final List<String> posted = new ArrayList<>();
+    private final List<String> bulkPosted = new ArrayList<>();
+    private final List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+    private final ScrtClient client = mock(ScrtClient.class);
+
+    ScrtDeliveryPipelineTest() {
+        when(client.getExecutor()).thenReturn(tasks::add);
+        when(client.postMessages(eq(VOICE_CALL_ID), anyString(), any())).thenAnswer(invocation -> {
+            posted.add(invocation.getArgument(1));
+            CompletableFuture<HttpResponse<String>> response = new CompletableFuture<>();
+            responses.add(response);
+            return response;
+        });
+        when(client.postBulkMessages(anyString(), any())).thenAnswer(invocation -> {
+            bulkPosted.add(invocation.getArgument(0));
+            posted.add(invocation.getArgument(0));
+            CompletableFuture<HttpResponse<String>> response = new CompletableFuture<>();
+            responses.add(response);
+            return response;
+        });
+    }
+
+    @Test
+    void deliversInOrderOneAtATime() throws Exception {
+        ScrtDeliveryPipeline delivery = pipeline(8, ScrtDeliveryPipeline.OverflowPolicy.DROP_OLDEST).build();
+
+        delivery.submit(message("1"));
+        delivery.submit(message("2"));
+        delivery.submit(message("3"));
+        runTasks();
+        // the next segment waits for the response to the previous one
+        assertEquals(1, posted.size());
+
+        for (int i = 0; i < 3; i++) {
+            responses.get(i).complete(response(201));
+            runTasks();
+        }
+
+        assertEquals(Arrays.asList("1", "2", "3"), postedMessageIds());
+        assertTrue(delivery.flush(0));
+        assertEquals(3, delivery.getDeliveredMessages());
+    }
+
+    @Test
+    void dropsOldestSegmentWhenFull() {
+        ScrtDeliveryPipeline delivery = pipeline(2, ScrtDeliveryPipeline.OverflowPolicy.DROP_OLDEST).build();
+
+        assertTrue(delivery.submit(message("1")));
+        assertTrue(delivery.submit(message("2")));
+        assertTrue(delivery.submit(message("3")));
+        deliverAll();
+
+        assertEquals(Arrays.asList("2", "3"), postedMessageIds());
+        assertEquals(1, delivery.getDroppedMessages());
+    }
+
+    @Test
+    void dropsNewestSegmentWhenFull() {
+        ScrtDeliveryPipeline delivery = pipeline(2, ScrtDeliveryPipeline.OverflowPolicy.DROP_NEWEST).build();
+
+        assertTrue(delivery.submit(message("1")));
+        assertTrue(delivery.submit(message("2")));
+        assertFalse(delivery.submit(message("3")));
+        deliverAll();
+
+        assertEquals(Arrays.asList("1", "2"), postedMessageIds());
+        assertEquals(1, delivery.getDroppedMessages());
+    }
+
+    @Test
+    void flushWaitsForResponses() throws Exception {
+        ScrtDeliveryPipeline delivery = pipeline(8, ScrtDeliveryPipeline.OverflowPolicy.DROP_OLDEST).build();
+        delivery.submit(message("1"));
+        runTasks();
+
+        assertFalse(delivery.flush(10));
+        assertEquals(1, delivery.getAbandonedMessages());
+
+        responses.get(0).completeExceptionally(new java.io.IOException("Connection reset"));
+        runTasks();
+        assertTrue(delivery.flush(10));
+        assertEquals(1, delivery.getFailedMessages());
+
+        MetricsUtil metricsUtil = mock(MetricsUtil.class);
+        delivery.recordMetrics(metricsUtil);
+        verify(metricsUtil).recordMetric("ScrtMessagesFailed", 1);
+        verify(metricsUtil).recordMetric("ScrtDeliveryQueueDepthMax", 1);
+    }
+
+    @Test
+    void coalescesQueuedSegmentsIntoBulkRequests() throws Exception {
+        ScrtDeliveryPipeline delivery = pipeline(8, ScrtDeliveryPipeline.OverflowPolicy.DROP_OLDEST)
+                .setMaxBatchSize(3)
+                .setMaxBatchDelayMs(60000)
+                .build();
+
+        for (int i = 1; i <= 4; i++) {
+            delivery.submit(message(String.valueOf(i)));
+        }
+        // the first batch is full, the fourth segment waits for others
+        runTasks();
+        assertEquals(1, posted.size());
+        responses.get(0).complete(response(201));
+        runTasks();
+        assertEquals(1, posted.size());
+
+        // the end of the call does not wait for the batch to fill up
+        assertFalse(delivery.flush(0));
+        runTasks();
+        responses.get(1).complete(response(201));
+        runTasks();
+        assertTrue(delivery.flush(0));
+
+        JSONObject bulkSendMessagesPayload = (JSONObject) new JSONParser().parse(bulkPosted.get(0));
+        JSONObject entry = (JSONObject) ((JSONArray) bulkSendMessagesPayload.get("entries")).get(0);
+        assertEquals(VOICE_CALL_ID, entry.get("vendorCallKey"));
+        assertEquals(3, ((JSONArray) entry.get("messages")).size());
+        assertEquals(1, bulkPosted.size());
+        assertEquals(Arrays.asList("1", "2", "3", "4"), postedMessageIds());
+        assertEquals(2, delivery.getRequests());
+        assertEquals(4, delivery.getDeliveredMessages());
+    }
+
+    @Test
+    void sendsBatchOnceItsDelayHasPassed() throws Exception {
+        ScrtDeliveryPipeline delivery = pipeline(8, ScrtDeliveryPipeline.OverflowPolicy.DROP_OLDEST)
+                .setMaxBatchSize(10)
+                .setMaxBatchDelayMs(50)
+                .build();
+
+        delivery.submit(message("1"));
+        delivery.submit(message("2"));
+        runTasks();
+        assertEquals(0, posted.size());
+
+        long start = System.currentTimeMillis();
+        while (tasks.isEmpty() && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(10);
+        }
+        runTasks();
+
+        assertEquals(1, bulkPosted.size());
+        assertEquals(Arrays.asList("1", "2"), postedMessageIds());
+    }
+
+    @Test
+    void deliversOrRetriesBulkRequestAsAWhole() throws Exception {
+        ConnectClient connectClient = mock(ConnectClient.class);
+        ScrtDeliveryPipeline delivery = pipeline(8, ScrtDeliveryPipeline.OverflowPolicy.DROP_OLDEST)
+                .setMaxBatchSize(3)
+                .setMaxBatchDelayMs(60000)
+                .setRetryMaxAgeMs(60000)
+                .setConnectClient(() -> connectClient)
+                .build();
+
+        for (int i = 1; i <= 3; i++) {
+            delivery.submit(message(String.valueOf(i)));
+        }
+        runTasks();
+        responses.get(0).complete(response(429));
+        runTasks();
+        // the throttled batch is sent again, whole
+        assertFalse(delivery.flush(0));
+        runTasks();
+        HttpResponse<String> response = response(200);
+        // the body of an accepted bulk request is not read for results
+        when(response.body()).thenReturn("{\"entries\":[{\"messageId\":\"2\",\"status\":\"FAILED\"}]}");
+        responses.get(1).complete(response);
+        runTasks();
+
+        assertTrue(delivery.flush(0));
+        assertEquals(Arrays.asList("1", "2", "3", "1", "2", "3"), postedMessageIds());
+        assertEquals(3, delivery.getDeliveredMessages());
+        assertEquals(0, delivery.getFailedMessages());
+        assertEquals(3, delivery.getRetriedMessages());
+        verify(connectClient).updateContactAttributes(any(UpdateContactAttributesRequest.class));
+    }
+
+    @Test
+    void retriesThrottledSegmentsOnceLimiterLetsThemThrough() throws Exception {
+        AtomicLong clock = new AtomicLong();
+        ScrtRateLimiter limiter = new ScrtRateLimiter(10, 20, clock::get);
+        ConnectClient connectClient = mock(ConnectClient.class);
+        ScrtDeliveryPipeline delivery = pipeline(8, ScrtDeliveryPipeline.OverflowPolicy.DROP_OLDEST)
+                .setRateLimiter(limiter)
+                .setRetryMaxAgeMs(60000)
+                .setConnectClient(() -> connectClient)
+                .build();
+
+        delivery.submit(message("1"));
+        delivery.submit(message("2"));
+        runTasks();
+        for (int i = 0; i < 2; i++) {
+            clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+            responses.get(i).complete(response(429, "0"));
+            runTasks();
+        }
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        responses.get(2).complete(response(201));
+        runTasks();
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        responses.get(3).complete(response(201));
+        runTasks();
+
+        assertEquals(Arrays.asList("1", "1", "1", "2"), postedMessageIds());
+        assertTrue(delivery.flush(0));
+        assertEquals(2, delivery.getDeliveredMessages());
+        assertEquals(2, delivery.getRetriedMessages());
+        assertEquals(2, delivery.getThrottledRequests());
+        assertEquals(2, limiter.getThrottles());
+        // the status of the call is set once
+        verify(connectClient, times(1)).updateContactAttributes(any(UpdateContactAttributesRequest.class));
+    }
+
+    @Test
+    void failsThrottledSegmentsPastRetryAge() throws Exception {
+        ConnectClient connectClient = mock(ConnectClient.class);
+        ScrtDeliveryPipeline delivery = pipeline(8, ScrtDeliveryPipeline.OverflowPolicy.DROP_OLDEST)
+                .setConnectClient(() -> connectClient)
+                .build();
+
+        delivery.submit(message("1"));
+        runTasks();
+        responses.get(0).complete(response(429));
+        runTasks();
+
+        assertTrue(delivery.flush(0));
+        assertEquals(1, posted.size());
+        assertEquals(1, delivery.getFailedMessages());
+        assertEquals(0, delivery.getRetriedMessages());
+        verify(connectClient).updateContactAttributes(any(UpdateContactAttributesRequest.class));
+    }
+
+    @Test
+    void keepsInOutboxOnlySegmentsSurelyNotTaken() throws Exception {
+        ScrtOutbox outbox = mock(ScrtOutbox.class);
+        when(outbox.append(eq(VOICE_CALL_ID), any(ScrtMessage.class))).thenReturn(true);
+        ScrtDeliveryPipeline delivery = pipeline(8, ScrtDeliveryPipeline.OverflowPolicy.DROP_OLDEST)
+                .setOutbox(outbox)
+                .build();
+
+        delivery.submit(message("1"));
+        delivery.submit(message("2"));
+        runTasks();
+        responses.get(0).completeExceptionally(new ConnectException("Connection refused"));
+        runTasks();
+        // SCRT may have taken a segment whose request timed out once sent
+        responses.get(1).completeExceptionally(new HttpTimeoutException("request timed out"));
+        runTasks();
+
+        assertTrue(delivery.flush(0));
+        assertEquals(2, delivery.getFailedMessages());
+        assertEquals(1, delivery.getOutboxedMessages());
+        verify(outbox).append(eq(VOICE_CALL_ID), any(ScrtMessage.class));
+    }
+
+    @Test
+    void dropsSegmentsAlreadyDeliveredBeforePostingThem() throws Exception {
+        ScrtMessageDeduplicator deduplicator = new ScrtMessageDeduplicator(16);
+        ScrtDeliveryPipeline delivery = pipeline(8, ScrtDeliveryPipeline.OverflowPolicy.DROP_OLDEST)
+                .setDeduplicator(deduplicator)
+                .build();
+
+        delivery.submit(message("1"));
+        deliverAll();
+        // the same segment handed over again, after a retry of the track
+        delivery.submit(message("1"));
+        delivery.submit(message("2"));
+        deliverAll();
+
+        assertTrue(delivery.flush(0));
+        assertEquals(Arrays.asList("1", "2"), postedMessageIds());
+        assertEquals(2, delivery.getRequests());
+        assertEquals(1, deduplicator.getSuppressed());
+    }
+
+    private ScrtDeliveryPipeline.Builder pipeline(int capacity, ScrtDeliveryPipeline.OverflowPolicy overflowPolicy) {
+        return ScrtDeliveryPipeline.newBuilder()
+                .setVoiceCallId(VOICE_CALL_ID)
+                .setInstanceARN("arn")
+                .setClient(client)
+                .setTokenProvider(mock(ScrtTokenProvider.class))
+                .setCapacity(capacity)
+                .setOverflowPolicy(overflowPolicy);
+    }
+
+    private void deliverAll() {
+        runTasks();
+        for (int i = 0; i < responses.size(); i++) {
+            responses.get(i).complete(response(201));
+            runTasks();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private List<String> postedMessageIds() {
+        List<String> messageIds = new ArrayList<>();
+        for (String body : posted) {
+            Matcher matcher = MESSAGE_ID.matcher(body);
+            while (matcher.find()) {
+                messageIds.add(matcher.group(1));
+            }
+        }
+        return messageIds;
+    }
+
+    private static ScrtMessage message(String messageId) {
+        return new ScrtMessage("+18586667777", "END_USER", messageId, 1599287207000L, 1599287208000L, "Hello");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpResponse<String> response(int statusCode) {
+        HttpResponse<String> response = mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(statusCode);
+        return response;
+    }
+
+    private static HttpResponse<String> response(int statusCode, String retryAfter) {
+        HttpResponse<String> response = response(statusCode);
+        when(response.headers()).thenReturn(HttpHeaders.of(
+                Collections.singletonMap("Retry-After", Collections.singletonList(retryAfter)), (name, value) -> true));
+        return response;
+    }
+}
@@ -0,0 +1,66 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for ScrtMessageDeduplicator
+ */
+public class ScrtMessageDeduplicatorTest {
+    private static final String VOICE_CALL_ID = "a4a471f8-dcd5-444d-bdbc-1a81e188adf7";
+
+    @Test
+    void suppressesSegmentsAlreadyDelivered() {
+        ScrtMessageDeduplicator deduplicator = new ScrtMessageDeduplicator(16);
+
+        assertFalse(deduplicator.isDuplicate(VOICE_CALL_ID, message("1", 2000, "Hello", false)));
+        deduplicator.onDelivered(VOICE_CALL_ID, message("1", 2000, "Hello", false));
+        // the times of a segment sent again may have moved, its message id has not
+        assertTrue(deduplicator.isDuplicate(VOICE_CALL_ID, message("1", 2500, "Hello there", false)));
+        assertFalse(deduplicator.isDuplicate("another-voice-call", message("1", 2000, "Hello", false)));
+
+        assertEquals(3, deduplicator.getChecked());
+        assertEquals(1, deduplicator.getSuppressed());
+
+        MetricsUtil metricsUtil = mock(MetricsUtil.class);
+        deduplicator.recordMetrics(metricsUtil);
+        verify(metricsUtil).recordMetric("ScrtDuplicatesSuppressed", 1);
+        verify(metricsUtil).recordMetric("ScrtDuplicatesPerThousand", 333);
+        assertEquals(0, deduplicator.getChecked());
+    }
+
+    @Test
+    void sendsEachPartialRevisionUntilFinalIsDelivered() {
+        ScrtMessageDeduplicator deduplicator = new ScrtMessageDeduplicator(16);
+
+        deduplicator.onDelivered(VOICE_CALL_ID, message("1", 2000, "Hello", true));
+        assertTrue(deduplicator.isDuplicate(VOICE_CALL_ID, message("1", 2000, "Hello", true)));
+        assertFalse(deduplicator.isDuplicate(VOICE_CALL_ID, message("1", 2500, "Hello there", true)));
+        // the final version of the result follows its partial revisions
+        assertFalse(deduplicator.isDuplicate(VOICE_CALL_ID, message("1", 2500, "Hello there.", false)));
+
+        deduplicator.onDelivered(VOICE_CALL_ID, message("1", 2500, "Hello there.", false));
+        assertTrue(deduplicator.isDuplicate(VOICE_CALL_ID, message("1", 2500, "Hello there", true)));
+    }
+
+    @Test
+    void sendsAgainSegmentsBeyondWindow() {
+        ScrtMessageDeduplicator deduplicator = new ScrtMessageDeduplicator(2);
+
+        for (int i = 1; i <= 3; i++) {
+            deduplicator.onDelivered(VOICE_CALL_ID, message(String.valueOf(i), 2000, "Hello", false));
+        }
+
+        assertFalse(deduplicator.isDuplicate(VOICE_CALL_ID, message("1", 2000, "Hello", false)));
+        assertTrue(deduplicator.isDuplicate(VOICE_CALL_ID, message("3", 2000, "Hello", false)));
+    }
+
+    private static ScrtMessage message(String messageId, long endTime, String content, boolean partial) {
+        return new ScrtMessage("+18586667777", "END_USER", messageId, 1000, endTime, content, partial);
+    }
+}
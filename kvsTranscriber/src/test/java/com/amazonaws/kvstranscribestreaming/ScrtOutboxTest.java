@@ -0,0 +1,179 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for ScrtOutbox
+ */
+public class ScrtOutboxTest {
+    private static final String VOICE_CALL_ID = "a4a471f8-dcd5-444d-bdbc-1a81e188adf7";
+
+    private static final Pattern MESSAGE_ID = Pattern.compile("\"messageId\":\"([^\"]*)\"");
+
+    private final Path dir = Files.createTempDirectory("scrt-outbox");
+    private final List<String> posted = new ArrayList<>();
+    // next responses of SCRT, 201 once they are used up
+    private final List<HttpResponse<String>> responses = new ArrayList<>();
+    private final ScrtClient client = mock(ScrtClient.class);
+    private final ScrtMessageDeduplicator deduplicator = new ScrtMessageDeduplicator(16);
+
+    ScrtOutboxTest() throws IOException {
+        when(client.postMessages(eq(VOICE_CALL_ID), anyString(), any())).thenAnswer(invocation -> {
+            posted.add(invocation.getArgument(1));
+            return CompletableFuture.completedFuture(responses.isEmpty() ? response(201) : responses.remove(0));
+        });
+        when(client.postBulkMessages(anyString(), any())).thenAnswer(invocation -> {
+            posted.add(invocation.getArgument(0));
+            return CompletableFuture.completedFuture(responses.isEmpty() ? response(201) : responses.remove(0));
+        });
+    }
+
+    @AfterEach
+    void deleteDir() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void replaysSegmentsInOrderAcrossSegmentFiles() throws Exception {
+        ScrtOutbox outbox = outbox();
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(outbox.append(VOICE_CALL_ID, message(String.valueOf(i))));
+        }
+        // records of about 250 bytes, in segments of 600 bytes
+        assertTrue(listSegments().size() > 1);
+
+        assertTrue(outbox.drain(5000));
+
+        assertEquals(Arrays.asList("1", "2", "3", "4", "5"), postedMessageIds());
+        assertEquals(5, outbox.getReplayed());
+        assertEquals(0, outbox.getBytes());
+        assertTrue(listSegments().isEmpty());
+    }
+
+    @Test
+    void resumesFromFailedBatchWithoutResendingDeliveredOnes() throws Exception {
+        ScrtOutbox outbox = outbox();
+        for (int i = 1; i <= 3; i++) {
+            outbox.append(VOICE_CALL_ID, message(String.valueOf(i)));
+        }
+        // records of about 250 bytes, in segments of 600 bytes: "1" and "2" are replayed in one bulk request
+        responses.add(response(201));
+        responses.add(response(503));
+
+        assertFalse(outbox.drain(5000));
+        assertFalse(outbox.isEmpty());
+
+        assertTrue(outbox.drain(5000));
+        assertEquals(Arrays.asList("1", "2", "3", "3"), postedMessageIds());
+        assertEquals(3, outbox.getReplayed());
+    }
+
+    @Test
+    void skipsSegmentsAlreadyDelivered() throws Exception {
+        ScrtOutbox outbox = outbox();
+        deduplicator.onDelivered(VOICE_CALL_ID, message("1"));
+        outbox.append(VOICE_CALL_ID, message("1"));
+        outbox.append(VOICE_CALL_ID, message("2"));
+        outbox.append(VOICE_CALL_ID, message("2"));
+
+        assertTrue(outbox.drain(5000));
+
+        assertEquals(Arrays.asList("2"), postedMessageIds());
+        assertEquals(2, deduplicator.getSuppressed());
+    }
+
+    @Test
+    void recoversSegmentsOfPreviousContainerUpToTornRecord() throws Exception {
+        ScrtOutbox outbox = outbox();
+        outbox.append(VOICE_CALL_ID, message("1"));
+        outbox.append(VOICE_CALL_ID, message("2"));
+        outbox.sync();
+        // a crash in the middle of the next record
+        Files.write(listSegments().get(0), new byte[]{0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+
+        ScrtOutbox restarted = outbox();
+        assertFalse(restarted.isEmpty());
+        assertTrue(restarted.drain(5000));
+
+        assertEquals(Arrays.asList("1", "2"), postedMessageIds());
+        assertTrue(listSegments().isEmpty());
+    }
+
+    @Test
+    void discardsRejectedSegments() throws Exception {
+        ScrtOutbox outbox = outbox();
+        outbox.append(VOICE_CALL_ID, message("1"));
+        responses.add(response(400));
+
+        assertTrue(outbox.drain(5000));
+        assertEquals(1, outbox.getDiscarded());
+        assertEquals(0, outbox.getReplayed());
+
+        MetricsUtil metricsUtil = mock(MetricsUtil.class);
+        outbox.recordMetrics(metricsUtil);
+        verify(metricsUtil).recordMetric("ScrtOutboxDiscarded", 1);
+        verify(metricsUtil).recordMetric("ScrtOutboxBytes", 0);
+    }
+
+    private ScrtOutbox outbox() throws IOException {
+        return new ScrtOutbox(dir, 600, 1024 * 1024, 60000, client, mock(ScrtTokenProvider.class), null, deduplicator);
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private List<String> postedMessageIds() {
+        List<String> messageIds = new ArrayList<>();
+        for (String body : posted) {
+            Matcher matcher = MESSAGE_ID.matcher(body);
+            while (matcher.find()) {
+                messageIds.add(matcher.group(1));
+            }
+        }
+        return messageIds;
+    }
+
+    private static ScrtMessage message(String messageId) {
+        return new ScrtMessage("+18586667777", "END_USER", messageId, 1599287207000L, 1599287208000L, "Hello");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpResponse<String> response(int statusCode) {
+        HttpResponse<String> response = mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(statusCode);
+        return response;
+    }
+}
@@ -0,0 +1,64 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for ScrtRateLimiter
+ */
+public class ScrtRateLimiterTest {
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void spacesRequestsAtItsRate() {
+        ScrtRateLimiter limiter = new ScrtRateLimiter(10, 20, clock::get);
+
+        assertEquals(0, limiter.reserve());
+        assertEquals(100, limiter.reserve());
+        assertEquals(200, limiter.reserve());
+
+        // slots not used while idle are not saved up
+        advance(5000);
+        assertEquals(0, limiter.reserve());
+    }
+
+    @Test
+    void slowsDownOnThrottlingAndWaitsForRetryAfter() {
+        ScrtRateLimiter limiter = new ScrtRateLimiter(10, 20, clock::get);
+        limiter.reserve();
+
+        limiter.onThrottled(2000);
+        // the requests already in flight do not slow the rate down again
+        limiter.onThrottled(-1);
+
+        assertEquals(5, limiter.getRps(), 0.001);
+        assertEquals(2, limiter.getThrottles());
+        assertEquals(2000, limiter.reserve());
+        assertEquals(2200, limiter.reserve());
+
+        advance(3000);
+        limiter.onDelivered();
+        limiter.onDelivered();
+        assertEquals(6, limiter.getRps(), 0.001);
+        limiter.onThrottled(-1);
+        assertEquals(3, limiter.getRps(), 0.001);
+        assertEquals(1000, limiter.reserve());
+    }
+
+    @Test
+    void parsesRetryAfterInSecondsOrAsDate() {
+        long now = 1599287207000L;
+        assertEquals(3000, ScrtRateLimiter.parseRetryAfterMs("3", now));
+        assertEquals(5000, ScrtRateLimiter.parseRetryAfterMs("Sat, 5 Sep 2020 06:26:52 GMT", now));
+        assertEquals(-1, ScrtRateLimiter.parseRetryAfterMs("soon", now));
+        assertEquals(-1, ScrtRateLimiter.parseRetryAfterMs(null, now));
+    }
+
+    private void advance(long ms) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+}
@@ -0,0 +1,83 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for ScrtTokenProvider
+ */
+public class ScrtTokenProviderTest {
+    private static PrivateKey privateKey;
+
+    @BeforeAll
+    static void generateKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        privateKey = generator.generateKeyPair().getPrivate();
+    }
+
+    @Test
+    void sharesOneTokenWhileItIsValid() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        ScrtTokenProvider provider = new ScrtTokenProvider(() -> {
+            loads.incrementAndGet();
+            return privateKey;
+        }, Duration.ofMinutes(5), Duration.ofSeconds(60));
+
+        String token = provider.getJWTToken();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(token, provider.getJWTToken());
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, provider.getTokensSigned());
+    }
+
+    @Test
+    void replacesTokenInTheBackgroundBeforeItExpires() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        ScrtTokenProvider provider = new ScrtTokenProvider(() -> {
+            loads.incrementAndGet();
+            return privateKey;
+        }, Duration.ofMillis(1000), Duration.ofMillis(800));
+
+        String token = provider.getJWTToken();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (provider.getTokensSigned() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        assertTrue(provider.getTokensSigned() >= 2);
+        assertNotEquals(token, provider.getJWTToken());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void loadsKeyAgainWhenItFailedToLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        ScrtTokenProvider provider = new ScrtTokenProvider(() -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IllegalStateException("SSM unavailable");
+            }
+            return privateKey;
+        }, Duration.ofMinutes(5), Duration.ofSeconds(60));
+
+        provider.prefetch();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (loads.get() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        provider.getJWTToken();
+        assertEquals(2, loads.get());
+        assertEquals(1, provider.getKeyLoads());
+    }
+}
@@ -0,0 +1,107 @@
+package com.amazonaws.kvstranscribestreaming;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for SilenceGate
+ */
+public class SilenceGateTest {
+    private static final String TRACK = KVSUtils.TrackName.AUDIO_FROM_CUSTOMER.getName();
+    // 100 ms of 8 kHz 16-bit mono audio
+    private static final int CHUNK_SIZE = 1600;
+
+    private final MetricsUtil metricsUtil = mock(MetricsUtil.class);
+
+    @Test
+    void sendsEverythingWhenDisabled() throws Exception {
+        Deque<ByteBuffer> chunks = chunks(5, 100, 5);
+        SilenceGate gate = new SilenceGate(source(chunks), TRACK, false, 150, 1000, 5000, metricsUtil);
+
+        assertEquals(110, readAll(gate).size());
+        assertEquals(3000, gate.toStreamTimeMs(3.0));
+        gate.recordMetrics();
+        verify(metricsUtil).recordMetric("SilenceGateBytesSent", 110L * CHUNK_SIZE);
+        verify(metricsUtil).recordMetric("SilenceGateBytesSuppressed", 0);
+    }
+
+    @Test
+    void dropsLongSilenceButKeepsStreamAlive() throws Exception {
+        // 1 s of speech, 20 s of silence, 1 s of speech
+        Deque<ByteBuffer> chunks = chunks(10, 200, 10);
+        SilenceGate gate = new SilenceGate(source(chunks), TRACK, true, 150, 1000, 5000, metricsUtil);
+
+        List<ByteBuffer> sent = readAll(gate);
+
+        // speech, 1 s of hold, a keep-alive chunk every 5 s of silence, speech
+        assertEquals(10 + 10 + 3 + 10, sent.size());
+        assertTrue(isSpeech(sent.get(sent.size() - 10)));
+        gate.recordMetrics();
+        verify(metricsUtil).recordMetric("SilenceGateBytesSent", 33L * CHUNK_SIZE);
+        verify(metricsUtil).recordMetric("SilenceGateBytesSuppressed", 187L * CHUNK_SIZE);
+    }
+
+    @Test
+    void mapsResultTimesBackToTheCall() throws Exception {
+        Deque<ByteBuffer> chunks = chunks(10, 200, 10);
+        SilenceGate gate = new SilenceGate(source(chunks), TRACK, true, 150, 1000, 5000, metricsUtil);
+        readAll(gate);
+
+        // audio sent before the gate closed is not shifted
+        assertEquals(1500, gate.toStreamTimeMs(1.5));
+        // the second stretch of speech starts 21 s into the call, but after 2.3 s of audio sent to Transcribe
+        assertEquals(21000, gate.toStreamTimeMs(2.3));
+        assertEquals(21500, gate.toStreamTimeMs(2.8));
+
+        gate.recordResultLag(21500);
+        gate.recordMetrics();
+        verify(metricsUtil).recordMetric("TranscriptResultLagMs", 500);
+    }
+
+    private static List<ByteBuffer> readAll(SilenceGate gate) throws Exception {
+        List<ByteBuffer> sent = new ArrayList<>();
+        ByteBuffer chunk;
+        while ((chunk = gate.getByteBufferFromStream(TRACK)).hasRemaining()) {
+            sent.add(chunk);
+        }
+        return sent;
+    }
+
+    private static KVSAudioChunkSource source(Deque<ByteBuffer> chunks) {
+        return track -> chunks.isEmpty() ? ByteBuffer.allocate(0) : chunks.pollFirst();
+    }
+
+    /**
+     * Chunks of speech, then silence, then speech again
+     */
+    private static Deque<ByteBuffer> chunks(int speech, int silence, int moreSpeech) {
+        Deque<ByteBuffer> chunks = new ArrayDeque<>();
+        for (int i = 0; i < speech + silence + moreSpeech; i++) {
+            boolean isSpeech = i < speech || i >= speech + silence;
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int sample = 0; sample < CHUNK_SIZE / 2; sample++) {
+                // a 400 Hz tone for speech, low noise for silence
+                double amplitude = isSpeech ? 3000 : 40;
+                chunk.putShort((short) (amplitude * Math.sin(2 * Math.PI * 400 * sample / 8000.0)));
+            }
+            chunk.flip();
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static boolean isSpeech(ByteBuffer chunk) {
+        return Math.abs(chunk.duplicate().order(ByteOrder.LITTLE_ENDIAN).getShort(4)) > 1000;
+    }
+}
@@ -0,0 +1,246 @@
+package com.amazonaws.transcribestreaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import com.amazonaws.kvstranscribestreaming.KVSAudioChunkSource;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for KVSByteToAudioEventSubscription
+ */
+public class KVSByteToAudioEventSubscriptionTest {
+    private static final String TRACK = "AUDIO_FROM_CUSTOMER";
+
+    private final RecordingSubscriber subscriber = new RecordingSubscriber();
+    private final AudioPumpExecutor pumps = new AudioPumpExecutor(2);
+
+    @Test
+    void burstsOfRequestsEmitEachChunkOnce() throws Exception {
+        KVSByteToAudioEventSubscription subscription = new KVSByteToAudioEventSubscription(subscriber, numberedChunks(200), TRACK, pumps);
+
+        ExecutorService requesters = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 400; i++) {
+            requesters.execute(() -> subscription.request(1));
+        }
+        requesters.shutdown();
+
+        assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(200, subscriber.chunks.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, (int) subscriber.chunks.get(i));
+        }
+        assertEquals(1, subscriber.completions.get());
+        assertEquals(0, subscriber.errors.get());
+    }
+
+    @Test
+    void emitsNoMoreThanRequested() throws Exception {
+        KVSByteToAudioEventSubscription subscription = new KVSByteToAudioEventSubscription(subscriber, numberedChunks(10), TRACK, pumps);
+
+        subscription.request(3);
+        Thread.sleep(200);
+        assertEquals(3, subscriber.chunks.size());
+
+        subscription.request(Long.MAX_VALUE);
+        subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        assertEquals(10, subscriber.chunks.size());
+        assertEquals(1, subscriber.completions.get());
+    }
+
+    @Test
+    void eventsShareWholeChunksAndCopyPartsOfArrays() throws Exception {
+        byte[] whole = {0, 0, 0, 1};
+        byte[] larger = {0, 0, 0, 0, 0, 0, 0, 2};
+        AtomicInteger next = new AtomicInteger();
+        KVSAudioChunkSource source = track -> {
+            switch (next.getAndIncrement()) {
+                case 0:
+                    return ByteBuffer.wrap(whole);
+                case 1:
+                    return ByteBuffer.wrap(larger, 4, 4);
+                default:
+                    return ByteBuffer.allocate(0);
+            }
+        };
+        KVSByteToAudioEventSubscription subscription = new KVSByteToAudioEventSubscription(subscriber, source, TRACK, pumps);
+
+        subscription.request(Long.MAX_VALUE);
+
+        assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        whole[3] = 9;
+        larger[7] = 9;
+        // the chunk handed over goes into the event as it is, only the part of a larger array is copied
+        assertEquals(9, subscriber.events.get(0).audioChunk().asByteBuffer().getInt());
+        assertEquals(2, subscriber.events.get(1).audioChunk().asByteBuffer().getInt());
+        assertEquals(4, subscriber.events.get(1).audioChunk().asByteArray().length);
+    }
+
+    @Test
+    void cancelStopsWaitingRead() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        KVSAudioChunkSource stalledSource = track -> {
+            reading.countDown();
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new MkvElementVisitException("Interrupted", e);
+            }
+            return ByteBuffer.allocate(0);
+        };
+        KVSByteToAudioEventSubscription subscription = new KVSByteToAudioEventSubscription(subscriber, stalledSource, TRACK, pumps);
+
+        subscription.request(1);
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+        subscription.cancel();
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(0, subscriber.errors.get());
+        assertEquals(0, subscriber.completions.get());
+    }
+
+    @Test
+    void cancelDoesNotInterruptNextPumpOnSameThread() throws Exception {
+        AudioPumpExecutor singleThread = new AudioPumpExecutor(1);
+        CountDownLatch reading = new CountDownLatch(1);
+        KVSByteToAudioEventSubscription cancelled = new KVSByteToAudioEventSubscription(new RecordingSubscriber(),
+                stalledSource(reading), TRACK, singleThread);
+        cancelled.request(1);
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+        cancelled.cancel();
+
+        KVSAudioChunkSource chunks = numberedChunks(10);
+        KVSAudioChunkSource sleepingSource = track -> {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new MkvElementVisitException("Interrupted", e);
+            }
+            return chunks.getByteBufferFromStream(track);
+        };
+        new KVSByteToAudioEventSubscription(subscriber, sleepingSource, TRACK, singleThread).request(Long.MAX_VALUE);
+
+        assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        assertEquals(10, subscriber.chunks.size());
+        assertEquals(0, subscriber.errors.get());
+        assertEquals(1, singleThread.getPoolSize());
+    }
+
+    @Test
+    void reusesPumpThreadsAcrossSubscriptions() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            RecordingSubscriber retrySubscriber = new RecordingSubscriber();
+            new KVSByteToAudioEventSubscription(retrySubscriber, numberedChunks(10), TRACK, pumps).request(Long.MAX_VALUE);
+            assertTrue(retrySubscriber.terminated.await(10, TimeUnit.SECONDS));
+        }
+
+        assertTrue(pumps.getPoolSize() <= 2);
+    }
+
+    @Test
+    void failsStreamWhenPumpsAreExhausted() throws Exception {
+        AudioPumpExecutor singleThread = new AudioPumpExecutor(1);
+        CountDownLatch reading = new CountDownLatch(1);
+        List<KVSByteToAudioEventSubscription> leaked = new ArrayList<>();
+        // one pump running, and as many waiting as the queue holds
+        for (int i = 0; i < 5; i++) {
+            KVSByteToAudioEventSubscription subscription = new KVSByteToAudioEventSubscription(new RecordingSubscriber(),
+                    stalledSource(reading), TRACK, singleThread);
+            subscription.request(1);
+            leaked.add(subscription);
+        }
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+        new KVSByteToAudioEventSubscription(subscriber, numberedChunks(10), TRACK, singleThread).request(1);
+
+        assertEquals(1, subscriber.errors.get());
+        assertEquals(1, singleThread.getPoolSize());
+        leaked.forEach(KVSByteToAudioEventSubscription::cancel);
+    }
+
+    @Test
+    void rejectsNonPositiveDemand() {
+        KVSByteToAudioEventSubscription subscription = new KVSByteToAudioEventSubscription(subscriber, numberedChunks(10), TRACK, pumps);
+
+        subscription.request(0);
+
+        assertEquals(1, subscriber.errors.get());
+        assertEquals(0, subscriber.chunks.size());
+    }
+
+    /**
+     * Source whose reads wait until interrupted
+     */
+    private static KVSAudioChunkSource stalledSource(CountDownLatch reading) {
+        return track -> {
+            reading.countDown();
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                throw new MkvElementVisitException("Interrupted", e);
+            }
+            return ByteBuffer.allocate(0);
+        };
+    }
+
+    /**
+     * Source whose chunks hold their sequence number
+     */
+    private static KVSAudioChunkSource numberedChunks(int count) {
+        AtomicInteger next = new AtomicInteger();
+        return track -> {
+            int number = next.getAndIncrement();
+            return number < count ? (ByteBuffer) ByteBuffer.allocate(4).putInt(number).flip() : ByteBuffer.allocate(0);
+        };
+    }
+
+    private static class RecordingSubscriber implements Subscriber<AudioStream> {
+        private final List<Integer> chunks = new CopyOnWriteArrayList<>();
+        private final List<AudioEvent> events = new CopyOnWriteArrayList<>();
+        private final AtomicInteger completions = new AtomicInteger();
+        private final AtomicInteger errors = new AtomicInteger();
+        private final CountDownLatch terminated = new CountDownLatch(1);
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+        }
+
+        @Override
+        public void onNext(AudioStream audioStream) {
+            events.add((AudioEvent) audioStream);
+            chunks.add(((AudioEvent) audioStream).audioChunk().asByteBuffer().getInt());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            errors.incrementAndGet();
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completions.incrementAndGet();
+            terminated.countDown();
+        }
+    }
+}
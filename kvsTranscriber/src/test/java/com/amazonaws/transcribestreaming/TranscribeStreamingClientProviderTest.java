@@ -0,0 +1,82 @@
+package com.amazonaws.transcribestreaming;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.http.async.AsyncExecuteRequest;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.services.transcribestreaming.TranscribeStreamingAsyncClient;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for TranscribeStreamingClientProvider
+ */
+public class TranscribeStreamingClientProviderTest {
+    private static final URI ENDPOINT = URI.create("https://transcribestreaming.us-west-2.amazonaws.com");
+
+    private final SdkAsyncHttpClient httpClient = mock(SdkAsyncHttpClient.class);
+    private final TranscribeStreamingAsyncClient transcribeClient = mock(TranscribeStreamingAsyncClient.class);
+    private final AtomicInteger builds = new AtomicInteger();
+
+    @Test
+    void sharesClientAcrossInvocations() throws Exception {
+        when(httpClient.execute(any())).thenReturn(CompletableFuture.completedFuture(null));
+        TranscribeStreamingClientProvider provider = new TranscribeStreamingClientProvider(() -> httpClient,
+                h -> {
+                    builds.incrementAndGet();
+                    return transcribeClient;
+                }, ENDPOINT);
+
+        provider.connect().get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 3; i++) {
+            assertSame(transcribeClient, provider.get());
+        }
+
+        assertEquals(1, builds.get());
+        verify(transcribeClient, never()).close();
+    }
+
+    @Test
+    void opensConnectionToEndpointAhead() throws Exception {
+        when(httpClient.execute(any())).thenReturn(CompletableFuture.completedFuture(null));
+        TranscribeStreamingClientProvider provider = new TranscribeStreamingClientProvider(() -> httpClient,
+                h -> transcribeClient, ENDPOINT);
+
+        provider.connect();
+
+        ArgumentCaptor<AsyncExecuteRequest> request = ArgumentCaptor.forClass(AsyncExecuteRequest.class);
+        verify(httpClient, timeout(5000)).execute(request.capture());
+        assertEquals(ENDPOINT.getHost(), request.getValue().request().host());
+    }
+
+    @Test
+    void buildsAgainAfterFailure() {
+        when(httpClient.execute(any())).thenReturn(CompletableFuture.completedFuture(null));
+        TranscribeStreamingClientProvider provider = new TranscribeStreamingClientProvider(() -> httpClient,
+                h -> {
+                    if (builds.incrementAndGet() == 1) {
+                        throw new IllegalStateException("No credentials");
+                    }
+                    return transcribeClient;
+                }, ENDPOINT);
+
+        assertThrows(CompletionException.class, provider::get);
+
+        assertSame(transcribeClient, provider.get());
+        assertEquals(2, builds.get());
+    }
+}
@@ -0,0 +1,122 @@
+package com.amazonaws.transcribestreaming;
+
+import com.amazonaws.kvstranscribestreaming.MetricsUtil;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.transcribestreaming.TranscribeStreamingAsyncClient;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+import software.amazon.awssdk.services.transcribestreaming.model.BadRequestException;
+import software.amazon.awssdk.services.transcribestreaming.model.InternalFailureException;
+import software.amazon.awssdk.services.transcribestreaming.model.LimitExceededException;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponseHandler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for TranscribeStreamingRetryClient
+ */
+public class TranscribeStreamingRetryClientTest {
+    private static final String CHANNEL = "AUDIO_FROM_CUSTOMER";
+
+    private final TranscribeStreamingAsyncClient asyncClient = mock(TranscribeStreamingAsyncClient.class);
+    private final MetricsUtil metricsUtil = mock(MetricsUtil.class);
+    private final StreamTranscriptionBehavior responseHandler = mock(StreamTranscriptionBehavior.class);
+    @SuppressWarnings("unchecked")
+    private final Publisher<AudioStream> publisher = mock(Publisher.class);
+
+    @Test
+    void classifiesTranscribeErrors() {
+        TranscribeStreamingRetryClient client = new TranscribeStreamingRetryClient(asyncClient, metricsUtil);
+
+        assertTrue(client.isExceptionRetriable(new CompletionException(limitExceeded())));
+        assertTrue(client.isExceptionRetriable(new CompletionException(InternalFailureException.builder().message("Internal").build())));
+        assertTrue(client.isExceptionRetriable(new CompletionException(AwsServiceException.builder().message("Throttled").statusCode(429).build())));
+        assertFalse(client.isExceptionRetriable(new CompletionException(BadRequestException.builder().message("Bad request").build())));
+        assertFalse(client.isExceptionRetriable(new CompletionException(SdkClientException.create("Client error"))));
+        assertFalse(client.isExceptionRetriable(new CompletionException(AwsServiceException.builder().message("Forbidden").statusCode(403).build())));
+        // errors without a cause used to fail with a NullPointerException
+        assertTrue(client.isExceptionRetriable(new IllegalStateException("Stream reset")));
+    }
+
+    @Test
+    void retriesOnTimerUntilStreamSucceeds() throws Exception {
+        when(asyncClient.startStreamTranscription(any(StartStreamTranscriptionRequest.class), any(Publisher.class),
+                any(StartStreamTranscriptionResponseHandler.class)))
+                .thenReturn(failed(limitExceeded()), failed(limitExceeded()), CompletableFuture.completedFuture(null));
+        TranscribeStreamingRetryClient client = new TranscribeStreamingRetryClient(asyncClient, metricsUtil);
+
+        CompletableFuture<Void> result = client.startStreamTranscription(request(), publisher, responseHandler, CHANNEL, "standard");
+
+        assertNull(result.get(5, TimeUnit.SECONDS));
+        verify(asyncClient, times(3)).startStreamTranscription(any(StartStreamTranscriptionRequest.class), any(Publisher.class),
+                any(StartStreamTranscriptionResponseHandler.class));
+        verify(metricsUtil, times(2)).recordMetric("TranscribeStreamRetry", 1);
+        verify(responseHandler).onComplete();
+    }
+
+    @Test
+    void stopsRetryingWhenBudgetIsSpent() {
+        when(asyncClient.startStreamTranscription(any(StartStreamTranscriptionRequest.class), any(Publisher.class),
+                any(StartStreamTranscriptionResponseHandler.class)))
+                .thenAnswer(invocation -> failed(limitExceeded()));
+        TranscribeStreamingRetryClient client = new TranscribeStreamingRetryClient(asyncClient, metricsUtil);
+        client.setRetryBudget(1);
+
+        CompletableFuture<Void> result = client.startStreamTranscription(request(), publisher, responseHandler, CHANNEL, "standard");
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof LimitExceededException);
+        verify(asyncClient, times(2)).startStreamTranscription(any(StartStreamTranscriptionRequest.class), any(Publisher.class),
+                any(StartStreamTranscriptionResponseHandler.class));
+        verify(metricsUtil).recordMetric("TranscribeStreamError", 1);
+    }
+
+    @Test
+    void backoffGrowsWithJitterUpToCap() {
+        TranscribeStreamingRetryClient client = new TranscribeStreamingRetryClient(asyncClient, metricsUtil);
+        client.setSleepTime(100);
+        client.setMaxBackoffTime(1000);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(client.getBackoffTime(0) <= 100);
+            assertTrue(client.getBackoffTime(2) <= 400);
+            assertTrue(client.getBackoffTime(40) <= 1000);
+        }
+        long total = 0;
+        for (int i = 0; i < 100; i++) {
+            total += client.getBackoffTime(3);
+        }
+        // full jitter averages half the ceiling
+        assertTrue(total / 100 > 200 && total / 100 < 600);
+    }
+
+    private static StartStreamTranscriptionRequest request() {
+        return StartStreamTranscriptionRequest.builder().languageCode("en-US").build();
+    }
+
+    private static LimitExceededException limitExceeded() {
+        return LimitExceededException.builder().message("Limit exceeded").statusCode(429).build();
+    }
+
+    private static CompletableFuture<Void> failed(Throwable cause) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(new CompletionException(cause));
+        return future;
+    }
+}